@@ -0,0 +1,65 @@
+package genepi.imputationserver.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import genepi.imputationserver.steps.vcf.BGzipLineWriter;
+
+/**
+ * Writes chunk files as done by the statistics task.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BGzipLineWriterBenchmark {
+
+	public static final int LINES = 10000;
+
+	@Param({ "100", "1000" })
+	public int samples;
+
+	@Param({ "1", "4" })
+	public int threads;
+
+	@Param({ "1", "5" })
+	public int level;
+
+	private String[] lines;
+
+	private File output;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		lines = new SyntheticData(42).createVcfLines("1", LINES, samples, 1000);
+		output = File.createTempFile("benchmark", ".vcf.gz");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		output.delete();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void write() throws IOException {
+		BGzipLineWriter writer = new BGzipLineWriter(output.getAbsolutePath(), false, threads, level);
+		for (String line : lines) {
+			writer.write(line);
+		}
+		writer.close();
+	}
+
+}
@@ -0,0 +1,72 @@
+package genepi.imputationserver.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import genepi.imputationserver.util.FileMerger;
+
+/**
+ * Splits imputed chunks into header and data, with and without r2 filter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FileMergerBenchmark {
+
+	public static final int LINES = 10000;
+
+	public static final int SAMPLES = 100;
+
+	@Param({ "0", "0.3" })
+	public double minR2;
+
+	private File input;
+
+	private OutputStream header = new NullOutputStream();
+
+	private OutputStream data = new NullOutputStream();
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		input = File.createTempFile("benchmark", ".vcf");
+		new SyntheticData(42).writeImputedVcfFile(input.getAbsolutePath(), "1", LINES, SAMPLES);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		input.delete();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void splitIntoHeaderAndData() throws IOException {
+		FileMerger.splitIntoHeaderAndData(input.getAbsolutePath(), header, data, minR2);
+	}
+
+	static class NullOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+
+	}
+
+}
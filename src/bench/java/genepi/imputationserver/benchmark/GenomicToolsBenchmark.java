@@ -0,0 +1,79 @@
+package genepi.imputationserver.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import genepi.imputationserver.steps.fastqc.legend.LegendEntry;
+import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+import genepi.imputationserver.util.GenomicTools;
+
+/**
+ * Allele classification of SNPs against their reference entries. Most
+ * entries match, the others switch alleles, flip the strand or mismatch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GenomicToolsBenchmark {
+
+	public static final int SNPS = 1024;
+
+	public static final int SAMPLES = 100;
+
+	private MinimalVariantContext[] snps;
+
+	private LegendEntry[] refEntries;
+
+	@Setup
+	public void setup() throws IOException {
+		SyntheticData data = new SyntheticData(42);
+		snps = data.createVariants(data.createVcfLines("1", SNPS, SAMPLES, 1000), SAMPLES);
+		refEntries = new LegendEntry[SNPS];
+		for (int i = 0; i < SNPS; i++) {
+			refEntries[i] = data.createLegendEntry(snps[i]);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SNPS)
+	public void classify(Blackhole blackhole) {
+		for (int i = 0; i < SNPS; i++) {
+			blackhole.consume(GenomicTools.classify(snps[i], refEntries[i]));
+		}
+	}
+
+	// the checks as called one after another by the statistics task
+	@Benchmark
+	@OperationsPerInvocation(SNPS)
+	public void checks(Blackhole blackhole) {
+		for (int i = 0; i < SNPS; i++) {
+			MinimalVariantContext snp = snps[i];
+			LegendEntry refEntry = refEntries[i];
+			blackhole.consume(GenomicTools.alleleMismatch(snp, refEntry));
+			blackhole.consume(GenomicTools.match(snp, refEntry));
+			blackhole.consume(GenomicTools.alleleSwitch(snp, refEntry));
+			blackhole.consume(GenomicTools.strandFlip(snp, refEntry));
+			blackhole.consume(GenomicTools.strandFlipAndAlleleSwitch(snp, refEntry));
+			blackhole.consume(GenomicTools.complicatedGenotypes(snp, refEntry));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SNPS)
+	public void calculateAlleleFreq(Blackhole blackhole) throws IOException, InterruptedException {
+		for (int i = 0; i < SNPS; i++) {
+			blackhole.consume(GenomicTools.calculateAlleleFreq(snps[i], refEntries[i], SAMPLES));
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+package genepi.imputationserver.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import genepi.imputationserver.steps.fastqc.legend.LegendFileReader;
+
+/**
+ * Indexing of a legend file and lookups of sorted SNPs, as done for every
+ * chromosome of an uploaded file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LegendFileReaderBenchmark {
+
+	public static final int ENTRIES = 100000;
+
+	private File legendFile;
+
+	private int[] positions;
+
+	private LegendFileReader reader;
+
+	@Setup(Level.Trial)
+	public void createLegendFile() throws IOException {
+		SyntheticData data = new SyntheticData(42);
+		positions = data.createPositions(ENTRIES, 500);
+		legendFile = File.createTempFile("benchmark", ".legend");
+		data.writeLegendFile(legendFile.getAbsolutePath(), positions);
+	}
+
+	// lookups only move forward, every sweep needs a new reader
+	@Setup(Level.Invocation)
+	public void createReader() throws IOException {
+		reader = new LegendFileReader(legendFile.getAbsolutePath(), SyntheticData.POPULATION);
+		reader.createIndex();
+		reader.initSearch();
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteLegendFile() {
+		legendFile.delete();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ENTRIES)
+	public void createIndex() throws IOException {
+		LegendFileReader reader = new LegendFileReader(legendFile.getAbsolutePath(), SyntheticData.POPULATION);
+		reader.createIndex();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ENTRIES)
+	public void findByPosition(Blackhole blackhole) throws IOException {
+		for (int position : positions) {
+			blackhole.consume(reader.findByPosition(position));
+		}
+	}
+
+}
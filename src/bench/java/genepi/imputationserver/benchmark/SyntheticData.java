@@ -0,0 +1,203 @@
+package genepi.imputationserver.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import genepi.imputationserver.steps.fastqc.legend.LegendEntry;
+import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+import genepi.imputationserver.steps.vcf.VCFLineParser;
+
+/**
+ * Generates reproducible VCF lines, legend files and imputed VCF files for
+ * the benchmarks.
+ */
+public class SyntheticData {
+
+	public static final String POPULATION = "eur";
+
+	private static final char[] BASES = { 'A', 'C', 'G', 'T' };
+
+	private Random random;
+
+	// fraction of missing genotypes
+	private double missingRate = 0.01;
+
+	public SyntheticData(long seed) {
+		random = new Random(seed);
+	}
+
+	public void setMissingRate(double missingRate) {
+		this.missingRate = missingRate;
+	}
+
+	/**
+	 * Creates a biallelic SNP with phased diploid genotypes.
+	 */
+	public String createVcfLine(String chromosome, int position, int samples) {
+
+		char ref = BASES[random.nextInt(BASES.length)];
+		char alt = BASES[(indexOf(ref) + 1 + random.nextInt(BASES.length - 1)) % BASES.length];
+		double frequency = 0.01 + random.nextDouble() * 0.49;
+
+		StringBuilder line = new StringBuilder(32 + samples * 4);
+		line.append(chromosome).append('\t').append(position).append("\trs").append(position).append('\t');
+		line.append(ref).append('\t').append(alt).append("\t.\tPASS\t.\tGT");
+		for (int i = 0; i < samples; i++) {
+			line.append('\t');
+			if (random.nextDouble() < missingRate) {
+				line.append(".|.");
+			} else {
+				line.append(random.nextDouble() < frequency ? '1' : '0');
+				line.append('|');
+				line.append(random.nextDouble() < frequency ? '1' : '0');
+			}
+		}
+		return line.toString();
+
+	}
+
+	/**
+	 * Creates sorted SNPs with a random distance of 1 to maxDistance bp.
+	 */
+	public String[] createVcfLines(String chromosome, int count, int samples, int maxDistance) {
+		int[] positions = createPositions(count, maxDistance);
+		String[] lines = new String[count];
+		for (int i = 0; i < count; i++) {
+			lines[i] = createVcfLine(chromosome, positions[i], samples);
+		}
+		return lines;
+	}
+
+	/**
+	 * Parses all lines. Every SNP gets its own context, so they can be used
+	 * after parsing.
+	 */
+	public MinimalVariantContext[] createVariants(String[] lines, int samples) throws IOException {
+		MinimalVariantContext[] snps = new MinimalVariantContext[lines.length];
+		for (int i = 0; i < lines.length; i++) {
+			snps[i] = new VCFLineParser(samples).parseLine(lines[i]);
+		}
+		return snps;
+	}
+
+	/**
+	 * Creates a reference entry for the SNP. The entry matches, switches
+	 * alleles, flips the strand or has other alleles with realistic
+	 * proportions.
+	 */
+	public LegendEntry createLegendEntry(MinimalVariantContext snp) {
+
+		char ref = snp.getReferenceAllele().charAt(0);
+		char alt = snp.getAlternateAllele().charAt(0);
+
+		LegendEntry entry = new LegendEntry();
+		double scenario = random.nextDouble();
+		if (scenario < 0.85) {
+			entry.setAlleleA(ref);
+			entry.setAlleleB(alt);
+		} else if (scenario < 0.93) {
+			entry.setAlleleA(alt);
+			entry.setAlleleB(ref);
+		} else if (scenario < 0.97) {
+			entry.setAlleleA(complement(ref));
+			entry.setAlleleB(complement(alt));
+		} else {
+			entry.setAlleleA(ref);
+			entry.setAlleleB(BASES[random.nextInt(BASES.length)]);
+		}
+		float frequency = random.nextFloat();
+		entry.setFrequencyA(1 - frequency);
+		entry.setFrequencyB(frequency);
+		entry.setFrequencies(true);
+		entry.setRsId("rs" + snp.getStart());
+		return entry;
+
+	}
+
+	/**
+	 * Writes a legend file with a header and one entry for every position.
+	 */
+	public void writeLegendFile(String filename, int[] positions) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(filename));
+		try {
+			writer.write("id position a0 a1 " + POPULATION + ".aaf " + POPULATION + ".maf\n");
+			for (int position : positions) {
+				char a0 = BASES[random.nextInt(BASES.length)];
+				char a1 = BASES[(indexOf(a0) + 1) % BASES.length];
+				float aaf = random.nextFloat();
+				writer.write("rs" + position + " " + position + " " + a0 + " " + a1 + " "
+						+ String.format(Locale.US, "%.4f %.4f", aaf, Math.min(aaf, 1 - aaf)) + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes an uncompressed imputed VCF file with an R2 value in the INFO
+	 * column of every SNP.
+	 */
+	public void writeImputedVcfFile(String filename, String chromosome, int count, int samples) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(filename));
+		try {
+			writer.write("##fileformat=VCFv4.1\n");
+			writer.write("##source=Minimac4\n");
+			writer.write("##INFO=<ID=R2,Number=1,Type=Float,Description=\"Estimated Imputation Accuracy (R-square)\">\n");
+			writer.write("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+			for (int i = 0; i < samples; i++) {
+				writer.write("\tsample" + i);
+			}
+			writer.write("\n");
+			int position = 0;
+			for (int i = 0; i < count; i++) {
+				position += 1 + random.nextInt(100);
+				String line = createVcfLine(chromosome, position, samples);
+				String info = String.format(Locale.US, "AF=%.5f;MAF=%.5f;R2=%.5f;IMPUTED", random.nextDouble() / 2,
+						random.nextDouble() / 2, random.nextDouble());
+				writer.write(line.replace("\tPASS\t.\t", "\tPASS\t" + info + "\t"));
+				writer.write("\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Creates sorted positions with a random distance of 1 to maxDistance bp.
+	 */
+	public int[] createPositions(int count, int maxDistance) {
+		int[] positions = new int[count];
+		int position = 0;
+		for (int i = 0; i < count; i++) {
+			position += 1 + random.nextInt(maxDistance);
+			positions[i] = position;
+		}
+		return positions;
+	}
+
+	private static int indexOf(char base) {
+		for (int i = 0; i < BASES.length; i++) {
+			if (BASES[i] == base) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static char complement(char base) {
+		switch (base) {
+		case 'A':
+			return 'T';
+		case 'T':
+			return 'A';
+		case 'C':
+			return 'G';
+		default:
+			return 'C';
+		}
+	}
+
+}
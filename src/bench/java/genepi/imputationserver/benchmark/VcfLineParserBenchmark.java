@@ -0,0 +1,70 @@
+package genepi.imputationserver.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import genepi.imputationserver.steps.vcf.VCFLineByteParser;
+import genepi.imputationserver.steps.vcf.VCFLineParser;
+
+/**
+ * Parsing costs per SNP of the text and byte parser.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VcfLineParserBenchmark {
+
+	public static final int LINES = 1000;
+
+	@Param({ "100", "1000", "10000" })
+	public int samples;
+
+	private String[] lines;
+
+	private byte[][] bytes;
+
+	private VCFLineParser parser;
+
+	private VCFLineByteParser byteParser;
+
+	@Setup
+	public void setup() {
+		SyntheticData data = new SyntheticData(42);
+		lines = data.createVcfLines("1", LINES, samples, 1000);
+		bytes = new byte[LINES][];
+		for (int i = 0; i < LINES; i++) {
+			bytes[i] = lines[i].getBytes(StandardCharsets.US_ASCII);
+		}
+		parser = new VCFLineParser(samples);
+		byteParser = new VCFLineByteParser(samples);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void parseLine(Blackhole blackhole) throws IOException {
+		for (String line : lines) {
+			blackhole.consume(parser.parseLine(line).getNoCallCount());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void parseLineBytes(Blackhole blackhole) throws IOException {
+		for (byte[] line : bytes) {
+			blackhole.consume(byteParser.parseLine(line, 0, line.length).getNoCallCount());
+		}
+	}
+
+}
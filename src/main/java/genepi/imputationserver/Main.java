@@ -5,6 +5,7 @@ import java.lang.reflect.InvocationTargetException;
 import genepi.base.Toolbox;
 import genepi.imputationserver.tools.LegendFileLiftOverTool;
 import genepi.imputationserver.tools.LegendFileTool;
+import genepi.imputationserver.tools.LegendIndexTool;
 import genepi.imputationserver.tools.VcfLiftOverTool;
 import genepi.imputationserver.tools.VersionTool;
 
@@ -21,6 +22,7 @@ public class Main extends Toolbox {
 		main.addTool("version", VersionTool.class);
 		main.addTool("legend", LegendFileTool.class);
 		main.addTool("legend-liftover", LegendFileLiftOverTool.class);
+		main.addTool("legend-index", LegendIndexTool.class);
 		main.addTool("vcf-liftover", VcfLiftOverTool.class);
 
 		main.start();
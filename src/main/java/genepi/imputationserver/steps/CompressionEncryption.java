@@ -24,8 +24,8 @@ import cloudgene.sdk.internal.IExternalWorkspace;
 import cloudgene.sdk.internal.WorkflowContext;
 import cloudgene.sdk.internal.WorkflowStep;
 import genepi.hadoop.HdfsUtil;
-import genepi.hadoop.command.Command;
 import genepi.imputationserver.steps.vcf.MergedVcfFile;
+import genepi.imputationserver.steps.vcf.VcfFileUtil;
 import genepi.imputationserver.util.DefaultPreferenceStore;
 import genepi.imputationserver.util.ExportObject;
 import genepi.imputationserver.util.FileMerger;
@@ -41,8 +41,6 @@ public class CompressionEncryption extends WorkflowStep {
 	@Override
 	public boolean run(WorkflowContext context) {
 
-		String workingDirectory = getFolder(CompressionEncryption.class);
-
 		String output = context.get("outputimputation");
 		String localOutput = context.get("local");
 		String aesEncryption = context.get("aesEncryption");
@@ -235,11 +233,10 @@ public class CompressionEncryption extends WorkflowStep {
 
 				if (sanityCheck.equals("yes") && lastChromosome) {
 					context.log("Run tabix on chromosome " + name + "...");
-					Command tabix = new Command(FileUtil.path(workingDirectory, "bin", "tabix"));
-					tabix.setSilent(false);
-					tabix.setParams("-f", dosageOutput);
-					if (tabix.execute() != 0) {
-						context.endTask("Error during index creation: " + tabix.getStdOut(), WorkflowContext.ERROR);
+					try {
+						VcfFileUtil.createIndex(dosageOutput, true);
+					} catch (IOException e) {
+						context.endTask("Error during index creation: " + e.getMessage(), WorkflowContext.ERROR);
 						return false;
 					}
 					context.log("Tabix done.");
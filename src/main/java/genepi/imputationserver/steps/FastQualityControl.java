@@ -7,16 +7,18 @@ import java.io.StringWriter;
 import java.text.DecimalFormat;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Properties;
 
 import cloudgene.sdk.internal.WorkflowContext;
 import cloudgene.sdk.internal.WorkflowStep;
 import genepi.imputationserver.steps.fastqc.ITask;
 import genepi.imputationserver.steps.fastqc.ITaskProgressListener;
 import genepi.imputationserver.steps.fastqc.LiftOverTask;
+import genepi.imputationserver.steps.fastqc.QcOutputCache;
 import genepi.imputationserver.steps.fastqc.RangeEntry;
 import genepi.imputationserver.steps.fastqc.StatisticsTask;
 import genepi.imputationserver.steps.fastqc.TaskResults;
-import genepi.imputationserver.steps.vcf.VcfFileUtil;
+import genepi.imputationserver.steps.fastqc.legend.LegendIndexCache;
 import genepi.imputationserver.util.DefaultPreferenceStore;
 import genepi.imputationserver.util.RefPanel;
 import genepi.imputationserver.util.RefPanelList;
@@ -25,15 +27,13 @@ import genepi.io.text.LineWriter;
 
 public class FastQualityControl extends WorkflowStep {
 
-	protected void setupTabix(String folder) {
-		VcfFileUtil.setTabixBinary(FileUtil.path(folder, "bin", "tabix"));
-	}
+	// statistic files that are linked in the report
+	private static final String[] LINKED_FILES = { "snps-excluded.txt", "typed-only.txt", "chunks-excluded.txt" };
 
 	@Override
 	public boolean run(WorkflowContext context) {
 
 		String folder = getFolder(FastQualityControl.class);
-		setupTabix(folder);
 		String inputFiles = context.get("files");
 		String reference = context.get("refpanel");
 		String population = context.get("population");
@@ -59,6 +59,26 @@ public class FastQualityControl extends WorkflowStep {
 		}
 		int phasingWindow = Integer.parseInt(store.getString("phasing.window"));
 		int chunkSize = Integer.parseInt(store.getString("chunksize"));
+		boolean byteParser = "byte".equals(store.getString("qc.parser"));
+		int qcThreads = Integer.parseInt(store.getString("qc.threads"));
+		int qcPipelineThreads = Integer.parseInt(store.getString("qc.pipeline.threads"));
+		String mafFormat = store.getString("qc.maf.format");
+		boolean chunkIndex = "true".equals(store.getString("qc.chunk.index"));
+		boolean regionReader = "true".equals(store.getString("qc.region.reader"));
+		int decompressionThreads = Integer.parseInt(store.getString("vcf.decompression.threads"));
+		int compressionThreads = Integer.parseInt(store.getString("vcf.compression.threads"));
+		int compressionLevel = Integer.parseInt(store.getString("vcf.compression.level"));
+		// legend cache size in MB, the cache is shared by all jobs and keeps
+		// the largest size
+		LegendIndexCache.getInstance()
+				.ensureMaxSize(Long.parseLong(store.getString("qc.legend.cache")) * 1024 * 1024);
+
+		if (!StatisticsTask.MAF_FORMAT_TEXT.equals(mafFormat) && !StatisticsTask.MAF_FORMAT_BINARY.equals(mafFormat)
+				&& !StatisticsTask.MAF_FORMAT_BOTH.equals(mafFormat)) {
+			context.error("Invalid maf format '" + mafFormat + "'. Allowed values: " + StatisticsTask.MAF_FORMAT_TEXT
+					+ ", " + StatisticsTask.MAF_FORMAT_BINARY + ", " + StatisticsTask.MAF_FORMAT_BOTH + ".");
+			return false;
+		}
 
 		// load reference panels
 		RefPanelList panels = RefPanelList.loadFromFile(FileUtil.path(folder, RefPanelList.FILENAME));
@@ -85,19 +105,28 @@ public class FastQualityControl extends WorkflowStep {
 
 		Arrays.sort(vcfFilenames);
 
-		LineWriter excludedSnpsWriter = null;
-
-		String excludedSnpsFile = FileUtil.path(statDir, "snps-excluded.txt");
+		// support relative path
+		String legend = panel.getLegend();
+		if (!legend.startsWith("/")) {
+			legend = FileUtil.path(folder, legend);
+		}
 
-		try {
-			excludedSnpsWriter = new LineWriter(excludedSnpsFile);
-			excludedSnpsWriter.write("#Position" + "\t" + "FilterType" + "\t" + " Info", false);
-		} catch (Exception e) {
-			context.error("Error creating file writer");
-			return false;
+		// compiled legend files (optional)
+		String legendIndex = panel.getLegendIndex();
+		if (legendIndex != null && !legendIndex.startsWith("/")) {
+			legendIndex = FileUtil.path(folder, legendIndex);
 		}
 
-		// check if liftover is needed
+		double referenceOverlap = panel.getQcFilterByKey("overlap");
+		int minSnps = (int) panel.getQcFilterByKey("minSnps");
+		double sampleCallrate = panel.getQcFilterByKey("sampleCallrate");
+		double mixedGenotypesChrX = panel.getQcFilterByKey("mixedGenotypeschrX");
+		int strandFlips = (int) (panel.getQcFilterByKey("strandFlips"));
+		String ranges = panel.getRange();
+
+		// check if liftover is needed, also for outputs restored from the
+		// cache
+		String fullPathChainFile = null;
 		if (!buildGwas.equals(panel.getBuild())) {
 			context.warning("Uploaded data is " + buildGwas + " and reference is " + panel.getBuild() + ".");
 			String chainFile = store.getString(buildGwas + "To" + panel.getBuild());
@@ -106,17 +135,61 @@ public class FastQualityControl extends WorkflowStep {
 				return false;
 			}
 
-			String fullPathChainFile = FileUtil.path(folder, chainFile);
+			fullPathChainFile = FileUtil.path(folder, chainFile);
 			if (!new File(fullPathChainFile).exists()) {
 				context.error("Chain file " + fullPathChainFile + " not found.");
 				return false;
 			}
+		}
+
+		// reuse outputs of a previous job with the same input and parameters
+		QcOutputCache cache = null;
+		String cacheKey = null;
+		long cacheSize = Long.parseLong(store.getString("qc.cache.size"));
+		if (cacheSize > 0) {
+			try {
+				cache = new QcOutputCache(store.getString("qc.cache.dir"), cacheSize * 1024 * 1024);
+				cacheKey = QcOutputCache.createKey(vcfFilenames, panel.getId(), panel.getVersion(), panel.getBuild(),
+						population, buildGwas, String.valueOf(chunkSize), String.valueOf(phasingWindow), mafFormat,
+						String.valueOf(referenceOverlap), String.valueOf(minSnps), String.valueOf(sampleCallrate),
+						String.valueOf(mixedGenotypesChrX), String.valueOf(strandFlips), ranges,
+						QcOutputCache.getFilesVersion(legend), QcOutputCache.getFilesVersion(legendIndex));
+				Properties report = cache.restore(cacheKey, chunkFileDir, chunksDir, statDir, mafFile);
+				if (report != null) {
+					context.log("Quality control outputs restored from cache (" + cacheKey + ").");
+					context.ok(insertLinks(context, report.getProperty("statistics")));
+					context.warning(insertLinks(context, report.getProperty("warnings")));
+					return true;
+				}
+			} catch (IOException e) {
+				context.log("Quality control cache not available: " + e.getMessage());
+				cache = null;
+			}
+		}
+
+		LineWriter excludedSnpsWriter = null;
+
+		String excludedSnpsFile = FileUtil.path(statDir, "snps-excluded.txt");
+
+		try {
+			excludedSnpsWriter = new LineWriter(excludedSnpsFile);
+			excludedSnpsWriter.write("#Position" + "\t" + "FilterType" + "\t" + " Info", false);
+		} catch (Exception e) {
+			context.error("Error creating file writer");
+			return false;
+		}
+
+		// liftover of the uploaded data
+		if (fullPathChainFile != null) {
 
 			LiftOverTask task = new LiftOverTask();
 			task.setVcfFilenames(vcfFilenames);
 			task.setChainFile(fullPathChainFile);
 			task.setChunksDir(chunksDir);
 			task.setExcludedSnpsWriter(excludedSnpsWriter);
+			task.setDecompressionThreads(decompressionThreads);
+			task.setCompressionThreads(compressionThreads);
+			task.setCompressionLevel(compressionLevel);
 
 			TaskResults results = runTask(context, task);
 
@@ -135,12 +208,14 @@ public class FastQualityControl extends WorkflowStep {
 		task.setChunkSize(chunkSize);
 		task.setPhasingWindow(phasingWindow);
 		task.setPopulation(population);
-		// support relative path
-		String legend = panel.getLegend();
-		if (!legend.startsWith("/")) {
-			legend = FileUtil.path(folder, legend);
-		}
-
+		task.setByteParser(byteParser);
+		task.setThreads(qcThreads);
+		task.setPipelineThreads(qcPipelineThreads);
+		task.setDecompressionThreads(decompressionThreads);
+		task.setCompressionThreads(compressionThreads);
+		task.setCompressionLevel(compressionLevel);
+		task.setChunkIndex(chunkIndex);
+		task.setRegionReader(regionReader);
 		// check chromosomes
 
 		if (!panel.supportsPopulation(population)) {
@@ -163,20 +238,15 @@ public class FastQualityControl extends WorkflowStep {
 		}
 
 		task.setLegendFile(legend);
+		task.setLegendIndex(legendIndex);
 		task.setRefSamples(refSamples);
 		task.setMafFile(mafFile);
+		task.setMafFormat(mafFormat);
 		task.setChunkFileDir(chunkFileDir);
 		task.setChunksDir(chunksDir);
 		task.setStatDir(statDir);
 		task.setBuild(panel.getBuild());
 
-		double referenceOverlap = panel.getQcFilterByKey("overlap");
-		int minSnps = (int) panel.getQcFilterByKey("minSnps");
-		double sampleCallrate = panel.getQcFilterByKey("sampleCallrate");
-		double mixedGenotypesChrX = panel.getQcFilterByKey("mixedGenotypeschrX");
-		int strandFlips = (int) (panel.getQcFilterByKey("strandFlips"));
-		String ranges = panel.getRange();
-
 		if (ranges != null) {
 			HashSet<RangeEntry> rangeEntries = new HashSet<RangeEntry>();
 
@@ -254,7 +324,8 @@ public class FastQualityControl extends WorkflowStep {
 		text.append("Allele mismatch: " + formatter.format(task.getAlleleMismatch()) + "<br>");
 		text.append("SNPs call rate < 90%: " + formatter.format(task.getLowCallRate()));
 
-		context.ok(text.toString());
+		String statistics = text.toString();
+		context.ok(statistics);
 
 		text = new StringBuffer();
 
@@ -343,12 +414,39 @@ public class FastQualityControl extends WorkflowStep {
 
 			text.append(results.getMessage());
 			context.warning(text.toString());
+
+			if (cache != null) {
+				Properties report = new Properties();
+				report.setProperty("statistics", removeLinks(context, statistics));
+				report.setProperty("warnings", removeLinks(context, text.toString()));
+				try {
+					cache.store(cacheKey, chunkFileDir, chunksDir, statDir, mafFile, report);
+				} catch (IOException e) {
+					context.log("Quality control outputs not cached: " + e.getMessage());
+				}
+			}
+
 			return true;
 
 		}
 
 	}
 
+	// links contain the job and are stored as placeholders in the cache
+	private String removeLinks(WorkflowContext context, String text) {
+		for (String file : LINKED_FILES) {
+			text = text.replace(context.createLinkToFile("statisticDir", file), "${statisticDir/" + file + "}");
+		}
+		return text;
+	}
+
+	private String insertLinks(WorkflowContext context, String text) {
+		for (String file : LINKED_FILES) {
+			text = text.replace("${statisticDir/" + file + "}", context.createLinkToFile("statisticDir", file));
+		}
+		return text;
+	}
+
 	protected TaskResults runTask(final WorkflowContext context, ITask task) {
 		context.beginTask("Running " + task.getName() + "...");
 		TaskResults results;
@@ -2,13 +2,19 @@ package genepi.imputationserver.steps;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Vector;
 
 import cloudgene.sdk.internal.WorkflowContext;
 import genepi.hadoop.HadoopJob;
 import genepi.hadoop.HdfsUtil;
 import genepi.hadoop.io.HdfsLineWriter;
+import genepi.imputationserver.steps.fastqc.StatisticsTask;
+import genepi.imputationserver.steps.imputation.ChunkCostModel;
 import genepi.imputationserver.steps.imputation.ImputationJob;
 import genepi.imputationserver.steps.vcf.VcfChunk;
 import genepi.imputationserver.util.ContextLog;
@@ -18,6 +24,7 @@ import genepi.imputationserver.util.RefPanel;
 import genepi.imputationserver.util.RefPanelList;
 import genepi.io.FileUtil;
 import genepi.io.text.LineReader;
+import htsjdk.variant.vcf.VCFFileReader;
 
 public class Imputation extends ParallelHadoopJobStep {
 
@@ -37,6 +44,8 @@ public class Imputation extends ParallelHadoopJobStep {
 
 	public static int THREADS = 25;
 
+	public static final String ALL_CHROMOSOMES = "all";
+
 	public Imputation() {
 		super(THREADS);
 		jobs = new HashMap<String, HadoopJob>();
@@ -64,6 +73,16 @@ public class Imputation extends ParallelHadoopJobStep {
 			r2Filter = "0";
 		}
 
+		// load job.config
+		DefaultPreferenceStore store = new DefaultPreferenceStore();
+		File jobConfig = new File(FileUtil.path(folder, "job.config"));
+		if (jobConfig.exists()) {
+			store.load(jobConfig);
+		}
+		int chunksPerTask = Integer.parseInt(store.getString("imputation.chunks.per.task"));
+		boolean singleJob = "true".equals(store.getString("imputation.single.job"));
+		double panelDensity = Double.parseDouble(store.getString("imputation.cost.panel.density"));
+
 		// outputs
 		output = context.get("outputimputation");
 		String log = context.get("logfile");
@@ -114,7 +133,7 @@ public class Imputation extends ParallelHadoopJobStep {
 			}
 		}
 
-		// execute one job per chromosome
+		// execute one job per chromosome or one job for all chromosomes
 		try {
 			String[] chunkFiles = FileUtil.getFiles(input, "*.*");
 
@@ -125,14 +144,45 @@ public class Imputation extends ParallelHadoopJobStep {
 				return false;
 			}
 
+			// most expensive chromosomes and tasks are scheduled first. Costs
+			// are estimated from the local chunk files.
+			ChunkCostModel costModel = new ChunkCostModel(getSamples(chunkFiles[0]), panelDensity);
+
+			List<ChunkFileConverterResult> results = new Vector<ChunkFileConverterResult>();
 			for (String chunkFile : chunkFiles) {
+				results.add(readChunkfile(chunkFile, context.getHdfsTemp(), chunksPerTask, costModel));
+			}
+			Collections.sort(results, new CostComparator());
+
+			// tasks of all chromosomes are combined to the input of one job
+			List<List<VcfChunk>> allTasks = new Vector<List<VcfChunk>>();
+
+			ImputationJob job = null;
+
+			for (ChunkFileConverterResult result : results) {
+
+				String chr = result.chr;
+
+				// the job of a chromosome starts as soon as its chunks are
+				// uploaded
+				uploadChunks(result, context.getHdfsTemp());
+
+				if (singleJob) {
+					allTasks.addAll(result.tasks);
+				} else {
+					writeChunks(result.tasks, result.filename, chunksPerTask);
+				}
 
-				String[] tiles = chunkFile.split("/");
-				String chr = tiles[tiles.length - 1];
+				if (singleJob && job != null) {
+					if (!addChromosome(job, panel, chr, result)) {
+						return false;
+					}
+					continue;
+				}
 
-				ChunkFileConverterResult result = convertChunkfile(chunkFile, context.getHdfsTemp());
+				String id = singleJob ? ALL_CHROMOSOMES : chr;
 
-				ImputationJob job = new ImputationJob(context.getJobId() + "-chr-" + chr, new ContextLog(context)) {
+				job = new ImputationJob(context.getJobId() + "-chr-" + id, new ContextLog(context)) {
 					@Override
 					protected void readConfigFile() {
 						File file = new File(folder + "/" + CONFIG_FILE);
@@ -156,9 +206,7 @@ public class Imputation extends ParallelHadoopJobStep {
 				};
 
 				job.setBinariesHDFS(binariesHDFS);
-
-				String hdfsFilenameChromosome = resolvePattern(panel.getHdfs(), chr);
-				job.setRefPanelHdfs(hdfsFilenameChromosome);
+				job.setChunksPerTask(chunksPerTask);
 
 				job.setR2Filter(r2Filter);
 				job.setBuild(panel.getBuild());
@@ -169,6 +217,29 @@ public class Imputation extends ParallelHadoopJobStep {
 					context.println("Reference panel has no minimac map file.");
 				}
 
+				if (mode != null && mode.equals("phasing")) {
+					job.setPhasingOnly("true");
+				} else {
+					job.setPhasingOnly("false");
+				}
+
+				job.setRefPanel(reference);
+				job.setLogFilename(FileUtil.path(log, "chr_" + id + ".log"));
+				job.setJarByClass(ImputationJob.class);
+
+				if (singleJob) {
+					// the mapper resolves the reference panel of each chunk
+					job.setRefPanelHdfs(panel.getHdfs());
+					job.setOutput(output);
+					if (!addChromosome(job, panel, chr, result)) {
+						return false;
+					}
+					continue;
+				}
+
+				String hdfsFilenameChromosome = ImputationJob.resolvePattern(panel.getHdfs(), chr);
+				job.setRefPanelHdfs(hdfsFilenameChromosome);
+
 				if (result.needsPhasing) {
 					context.println("Input data is unphased.");
 
@@ -180,29 +251,30 @@ public class Imputation extends ParallelHadoopJobStep {
 					// eagle
 					context.println("  Setting up eagle reference and map files...");
 					job.setMapEagleHdfs(panel.getMapEagle());
-					String refEagleFilenameChromosome = resolvePattern(panel.getRefEagle(), chr);
+					String refEagleFilenameChromosome = ImputationJob.resolvePattern(panel.getRefEagle(), chr);
 					job.setRefEagleHdfs(refEagleFilenameChromosome);
 				} else {
 					context.println("Input data is phased.");
 				}
 
-				if (mode != null && mode.equals("phasing")) {
-					job.setPhasingOnly("true");
-				} else {
-					job.setPhasingOnly("false");
-				}
-
 				job.setInput(result.filename);
 				job.setOutput(HdfsUtil.path(output, chr));
-				job.setRefPanel(reference);
-				job.setLogFilename(FileUtil.path(log, "chr_" + chr + ".log"));
-				job.setJarByClass(ImputationJob.class);
 
 				executeJarInBackground(chr, context, job);
 				jobs.put(chr, job);
 
 			}
 
+			if (singleJob) {
+				costModel.sort(allTasks);
+				String allChunksFile = HdfsUtil.path(context.getHdfsTemp(), ALL_CHROMOSOMES);
+				writeChunks(allTasks, allChunksFile, chunksPerTask);
+				job.setInput(allChunksFile);
+
+				executeJarInBackground(ALL_CHROMOSOMES, context, job);
+				jobs.put(ALL_CHROMOSOMES, job);
+			}
+
 			waitForAll();
 			running = false;
 			context.println("All jobs terminated.");
@@ -409,6 +481,29 @@ public class Imputation extends ParallelHadoopJobStep {
 
 		}
 
+		// the mapper of a job for all chromosomes marks failed chr X regions
+		if (id.equals(ALL_CHROMOSOMES)) {
+			deleteFailedRegions(output, context);
+		}
+
+	}
+
+	/**
+	 * Deletes the output folder and the marker of each chr X region that
+	 * failed in the job for all chromosomes.
+	 */
+	void deleteFailedRegions(String output, WorkflowContext context) {
+		for (String region : new String[] { StatisticsTask.X_PAR1, StatisticsTask.X_NON_PAR,
+				StatisticsTask.X_PAR2 }) {
+			String marker = HdfsUtil.path(output, region + ImputationJob.FAILED_REGION_SUFFIX);
+			if (HdfsUtil.exists(marker)) {
+				String outputFolder = HdfsUtil.path(output, region);
+				context.println("Imputation of " + region + " failed. Delete outpufolder for " + region + ": "
+						+ outputFolder);
+				HdfsUtil.delete(outputFolder);
+				HdfsUtil.delete(marker);
+			}
+		}
 	}
 
 	@Override
@@ -423,47 +518,132 @@ public class Imputation extends ParallelHadoopJobStep {
 	}
 
 	class ChunkFileConverterResult {
+		public String chr;
+
 		public String filename;
 
 		public boolean needsPhasing;
+
+		public List<VcfChunk> chunks;
+
+		// map tasks by decreasing cost
+		public List<List<VcfChunk>> tasks;
+
+		public double cost;
+	}
+
+	class CostComparator implements Comparator<ChunkFileConverterResult> {
+
+		@Override
+		public int compare(ChunkFileConverterResult o1, ChunkFileConverterResult o2) {
+			return Double.compare(o2.cost, o1.cost);
+		}
+
 	}
 
-	private ChunkFileConverterResult convertChunkfile(String chunkFile, String output) throws IOException {
+	// adds the chunks of a chromosome to the job for all chromosomes
+	private boolean addChromosome(ImputationJob job, RefPanel panel, String chr, ChunkFileConverterResult result) {
+
+		context.println("Chromosome " + chr + ": input data is " + (result.needsPhasing ? "unphased." : "phased."));
+
+		if (result.needsPhasing) {
+			if (!panel.checkEagleMap()) {
+				context.error("Eagle map file not found.");
+				return false;
+			}
+			job.setMapEagleHdfs(panel.getMapEagle());
+			job.setRefEagleHdfs(panel.getRefEagle());
+		}
+
+		job.addChromosome(chr, result.needsPhasing);
+		return true;
+
+	}
+
+	/**
+	 * Reads the chunks of a chromosome and groups them into map tasks of
+	 * consecutive chunks, ordered by decreasing cost.
+	 */
+	private ChunkFileConverterResult readChunkfile(String chunkFile, String output, int chunksPerTask,
+			ChunkCostModel costModel) throws IOException {
 
 		String name = FileUtil.getFilename(chunkFile);
-		String newChunkFile = HdfsUtil.path(output, name);
 
 		LineReader reader = new LineReader(chunkFile);
-		HdfsLineWriter writer = new HdfsLineWriter(newChunkFile);
+		List<VcfChunk> chunks = new Vector<VcfChunk>();
 
 		boolean phased = true;
 
 		while (reader.next()) {
 			VcfChunk chunk = new VcfChunk(reader.get());
-
 			phased = phased && chunk.isPhased();
+			chunks.add(chunk);
+		}
+		reader.close();
+
+		ChunkFileConverterResult result = new ChunkFileConverterResult();
+		result.chr = name;
+		result.filename = HdfsUtil.path(output, name);
+		result.needsPhasing = !phased;
+		result.chunks = chunks;
+		result.tasks = costModel.createTasks(chunks, chunksPerTask);
+		costModel.sort(result.tasks);
+		result.cost = costModel.getCost(chunks);
+		return result;
+
+	}
+
+	/**
+	 * Copies the vcf files of the chunks to HDFS.
+	 */
+	private void uploadChunks(ChunkFileConverterResult result, String output) throws IOException {
+
+		for (VcfChunk chunk : result.chunks) {
 
 			// put vcf file
 			String sourceVcf = chunk.getVcfFilename();
 			String targetVcf = HdfsUtil.path(output, FileUtil.getFilename(sourceVcf));
 			HdfsUtil.put(sourceVcf, targetVcf);
+			// index created by the quality control
+			if (new File(sourceVcf + ".tbi").exists()) {
+				HdfsUtil.put(sourceVcf + ".tbi", targetVcf + ".tbi");
+			}
 			chunk.setVcfFilename(targetVcf);
 
-			writer.write(chunk.serialize());
-
 		}
-		reader.close();
-		writer.close();
 
-		ChunkFileConverterResult result = new ChunkFileConverterResult();
-		result.filename = newChunkFile;
-		result.needsPhasing = !phased;
-		return result;
+	}
 
+	/**
+	 * Writes one task per chunksPerTask lines. Short tasks are filled with
+	 * empty lines (skipped by the mapper), so a split never contains chunks
+	 * of two tasks.
+	 */
+	private void writeChunks(List<List<VcfChunk>> tasks, String filename, int chunksPerTask) throws IOException {
+		HdfsLineWriter writer = new HdfsLineWriter(filename);
+		for (List<VcfChunk> task : tasks) {
+			for (VcfChunk chunk : task) {
+				writer.write(chunk.serialize());
+			}
+			for (int i = task.size(); i < chunksPerTask; i++) {
+				writer.write("");
+			}
+		}
+		writer.close();
 	}
 
-	private String resolvePattern(String pattern, String chr) {
-		return pattern.replaceAll("\\$chr", chr);
+	// all chunks contain the samples of the input files
+	private int getSamples(String chunkFile) throws IOException {
+		int samples = 0;
+		LineReader reader = new LineReader(chunkFile);
+		if (reader.next()) {
+			VcfChunk chunk = new VcfChunk(reader.get());
+			VCFFileReader vcfReader = new VCFFileReader(new File(chunk.getVcfFilename()), false);
+			samples = vcfReader.getFileHeader().getGenotypeSamples().size();
+			vcfReader.close();
+		}
+		reader.close();
+		return samples;
 	}
 
 }
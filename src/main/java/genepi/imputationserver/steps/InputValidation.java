@@ -40,13 +40,8 @@ public class InputValidation extends WorkflowStep {
 
 	}
 
-	protected void setupTabix(String folder) {
-		VcfFileUtil.setTabixBinary(FileUtil.path(folder, "bin", "tabix"));
-	}
-
 	private boolean checkVcfFiles(WorkflowContext context) {
 		String folder = getFolder(InputValidation.class);
-		setupTabix(folder);
 		String files = context.get("files");
 		String reference = context.get("refpanel");
 		String population = context.get("population");
@@ -74,6 +69,11 @@ public class InputValidation extends WorkflowStep {
 			maxSamples = Integer.parseInt(store.getString("samples.max"));
 		}
 
+		int decompressionThreads = 1;
+		if (store.getString("vcf.decompression.threads") != null) {
+			decompressionThreads = Integer.parseInt(store.getString("vcf.decompression.threads"));
+		}
+
 		List<VcfFile> validVcfFiles = new Vector<VcfFile>();
 
 		context.beginTask("Analyze files ");
@@ -124,7 +124,7 @@ public class InputValidation extends WorkflowStep {
 
 			try {
 
-				VcfFile vcfFile = VcfFileUtil.load(filename, chunkSize, true);
+				VcfFile vcfFile = VcfFileUtil.load(filename, chunkSize, true, decompressionThreads);
 
 				if (VcfFileUtil.isChrMT(vcfFile.getChromosome())) {
 					vcfFile.setPhased(true);
@@ -249,7 +249,6 @@ public class InputValidation extends WorkflowStep {
 	private boolean checkParameters(WorkflowContext context) {
 
 		String folder = getFolder(InputValidation.class);
-		setupTabix(folder);
 		String reference = context.get("refpanel");
 		String population = context.get("population");
 
@@ -0,0 +1,106 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.Vector;
+
+import genepi.imputationserver.steps.vcf.VcfChunk;
+
+/**
+ * Open chunks of a sorted VCF file, ordered by position. Chunks only overlap
+ * by their phasing windows, so a position is covered by at most two chunks as
+ * long as the phasing window is smaller than half of the chunk size. Chunks
+ * are opened at the end of the window and closed at its front.
+ */
+public class ChunkWindow {
+
+	private ArrayDeque<VcfChunk> chunks = new ArrayDeque<VcfChunk>();
+
+	private int phasingWindow;
+
+	private int lastPosition = 0;
+
+	public ChunkWindow(int phasingWindow) {
+		this.phasingWindow = phasingWindow;
+	}
+
+	/**
+	 * Adds a chunk. Chunks of sorted files are always opened at the end of
+	 * the window.
+	 */
+	public void open(VcfChunk chunk) {
+		VcfChunk last = chunks.peekLast();
+		if (last == null || last.getStart() < chunk.getStart()) {
+			chunks.addLast(chunk);
+			return;
+		}
+		// keep the window ordered
+		List<VcfChunk> sorted = new Vector<VcfChunk>(chunks);
+		int index = 0;
+		while (index < sorted.size() && sorted.get(index).getStart() < chunk.getStart()) {
+			index++;
+		}
+		sorted.add(index, chunk);
+		chunks.clear();
+		chunks.addAll(sorted);
+	}
+
+	public boolean isOpen(int chunkStart) {
+		for (VcfChunk chunk : chunks) {
+			if (chunk.getStart() == chunkStart) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes and returns all chunks whose extended end (end + phasing
+	 * window) is before the position.
+	 */
+	public List<VcfChunk> close(int position) {
+		List<VcfChunk> closed = new Vector<VcfChunk>();
+		while (!chunks.isEmpty() && position > chunks.peekFirst().getEnd() + phasingWindow) {
+			closed.add(chunks.removeFirst());
+		}
+		return closed;
+	}
+
+	/**
+	 * Returns the open chunk that contains the position (without phasing
+	 * window) or null.
+	 */
+	public VcfChunk getChunk(int position) {
+		for (VcfChunk chunk : chunks) {
+			if (position >= chunk.getStart() && position <= chunk.getEnd()) {
+				return chunk;
+			}
+		}
+		return null;
+	}
+
+	public Collection<VcfChunk> getChunks() {
+		return chunks;
+	}
+
+	public boolean isEmpty() {
+		return chunks.isEmpty();
+	}
+
+	public int getLastPosition() {
+		return lastPosition;
+	}
+
+	/**
+	 * Sets the position of the last processed SNP for the window and all open
+	 * chunks.
+	 */
+	public void setLastPosition(int position) {
+		lastPosition = position;
+		for (VcfChunk chunk : chunks) {
+			chunk.lastPos = position;
+		}
+	}
+
+}
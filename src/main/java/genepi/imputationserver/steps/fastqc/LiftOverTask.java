@@ -3,6 +3,7 @@ package genepi.imputationserver.steps.fastqc;
 import java.io.IOException;
 import java.util.Vector;
 
+import genepi.imputationserver.steps.vcf.ParallelBlockCompressedOutputStream;
 import genepi.imputationserver.steps.vcf.VcfLiftOverFast;
 import genepi.io.FileUtil;
 import genepi.io.text.LineWriter;
@@ -19,6 +20,9 @@ public class LiftOverTask implements ITask {
 	private String[] vcfFilenames;
 	private String[] newVcfFilenames;
 	private LineWriter excludedSnpsWriter;
+	private int decompressionThreads = 1;
+	private int compressionThreads = 1;
+	private int compressionLevel = ParallelBlockCompressedOutputStream.DEFAULT_COMPRESSION_LEVEL;
 
 	@Override
 	public String getName() {
@@ -38,7 +42,8 @@ public class LiftOverTask implements ITask {
 			String output = FileUtil.path(chunksDir, name + ".lifted.vcf.gz");
 			String temp = FileUtil.path(chunksDir, "vcf.sorte");
 			FileUtil.createDirectory(temp);
-			Vector<String> errors = VcfLiftOverFast.liftOver(filename, output, chainFile, temp);
+			Vector<String> errors = VcfLiftOverFast.liftOver(filename, output, chainFile, temp,
+					decompressionThreads, compressionThreads, compressionLevel);
 			FileUtil.deleteDirectory(temp);
 			for (String error : errors) {
 				excludedSnpsWriter.write(error);
@@ -70,6 +75,18 @@ public class LiftOverTask implements ITask {
 		this.chainFile = chainFile;
 	}
 
+	public void setDecompressionThreads(int decompressionThreads) {
+		this.decompressionThreads = decompressionThreads;
+	}
+
+	public void setCompressionThreads(int compressionThreads) {
+		this.compressionThreads = compressionThreads;
+	}
+
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
 	public String[] getNewVcfFilenames() {
 		return newVcfFilenames;
 	}
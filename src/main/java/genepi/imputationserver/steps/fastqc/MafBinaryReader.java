@@ -0,0 +1,196 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Memory-mapped reader for binary maf files written by
+ * {@link MafBinaryWriter}. All SNPs of all blocks can be accessed by their
+ * index in the file.
+ */
+public class MafBinaryReader {
+
+	private String filename;
+
+	private List<Block> blocks = new Vector<Block>();
+
+	private int size = 0;
+
+	public MafBinaryReader(String filename) throws IOException {
+
+		this.filename = filename;
+
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+
+			FileChannel channel = file.getChannel();
+			long length = file.length();
+
+			while (file.getFilePointer() < length) {
+
+				if (file.readInt() != MafBinaryWriter.MAGIC) {
+					throw new IOException("File '" + filename + "' is not a binary maf file.");
+				}
+
+				Block block = new Block();
+				block.start = size;
+				block.count = file.readInt();
+				block.chromosome = file.readUTF();
+
+				int count = block.count;
+				long offset = file.getFilePointer();
+				long blockLength = count * (4L + 4 + 4 * 4 + 8);
+				if (offset + blockLength > length) {
+					throw new IOException("Binary maf file '" + filename + "' is truncated.");
+				}
+
+				block.positions = channel.map(MapMode.READ_ONLY, offset, 4L * count).asIntBuffer();
+				block.alleles = channel.map(MapMode.READ_ONLY, offset + 4L * count, 4L * count);
+				long floats = offset + 8L * count;
+				block.frequencyA = channel.map(MapMode.READ_ONLY, floats, 4L * count).asFloatBuffer();
+				block.frequencyB = channel.map(MapMode.READ_ONLY, floats + 4L * count, 4L * count).asFloatBuffer();
+				block.refFrequencyA = channel.map(MapMode.READ_ONLY, floats + 8L * count, 4L * count).asFloatBuffer();
+				block.refFrequencyB = channel.map(MapMode.READ_ONLY, floats + 12L * count, 4L * count)
+						.asFloatBuffer();
+				block.chisq = channel.map(MapMode.READ_ONLY, floats + 16L * count, 8L * count).asDoubleBuffer();
+
+				blocks.add(block);
+				size += count;
+
+				file.seek(offset + blockLength);
+
+			}
+
+		} finally {
+			// mapped buffers stay valid after the channel is closed
+			file.close();
+		}
+
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	public String getChromosome(int index) {
+		return getBlock(index).chromosome;
+	}
+
+	public int getPosition(int index) {
+		Block block = getBlock(index);
+		return block.positions.get(index - block.start);
+	}
+
+	public float getFrequencyA(int index) {
+		Block block = getBlock(index);
+		return block.frequencyA.get(index - block.start);
+	}
+
+	public float getFrequencyB(int index) {
+		Block block = getBlock(index);
+		return block.frequencyB.get(index - block.start);
+	}
+
+	public float getRefFrequencyA(int index) {
+		Block block = getBlock(index);
+		return block.refFrequencyA.get(index - block.start);
+	}
+
+	public float getRefFrequencyB(int index) {
+		Block block = getBlock(index);
+		return block.refFrequencyB.get(index - block.start);
+	}
+
+	public double getChisq(int index) {
+		Block block = getBlock(index);
+		return block.chisq.get(index - block.start);
+	}
+
+	/**
+	 * Returns all values of one SNP.
+	 */
+	public SnpStats get(int index) {
+
+		Block block = getBlock(index);
+		int i = index - block.start;
+
+		SnpStats snp = new SnpStats();
+		snp.setType("SNP");
+		snp.setChromosome(block.chromosome);
+		snp.setPosition(block.positions.get(i));
+		snp.setAlleleA(decode(block.alleles.get(i)));
+		snp.setAlleleB(decode(block.alleles.get(block.count + i)));
+		snp.setRefAlleleA(decode(block.alleles.get(2 * block.count + i)));
+		snp.setRefAlleleB(decode(block.alleles.get(3 * block.count + i)));
+		snp.setFrequencyA(block.frequencyA.get(i));
+		snp.setFrequencyB(block.frequencyB.get(i));
+		snp.setRefFrequencyA(block.refFrequencyA.get(i));
+		snp.setRefFrequencyB(block.refFrequencyB.get(i));
+		snp.setChisq(block.chisq.get(i));
+		snp.setOverlapWithReference(true);
+		return snp;
+
+	}
+
+	private Block getBlock(int index) {
+
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		}
+
+		int low = 0;
+		int high = blocks.size() - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (blocks.get(middle).start <= index) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return blocks.get(low);
+
+	}
+
+	private static char decode(byte allele) {
+		return allele == 0 ? (char) Byte.MAX_VALUE : (char) allele;
+	}
+
+	static class Block {
+
+		private int start;
+
+		private int count;
+
+		private String chromosome;
+
+		private IntBuffer positions;
+
+		// alleleA, alleleB, refAlleleA, refAlleleB
+		private ByteBuffer alleles;
+
+		private FloatBuffer frequencyA;
+
+		private FloatBuffer frequencyB;
+
+		private FloatBuffer refFrequencyA;
+
+		private FloatBuffer refFrequencyB;
+
+		private DoubleBuffer chisq;
+
+	}
+
+}
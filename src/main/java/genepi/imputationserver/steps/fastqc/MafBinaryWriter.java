@@ -0,0 +1,168 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Writes allele frequency comparisons (the content of the text maf file) as a
+ * binary columnar file. SNPs are collected in primitive arrays and flushed
+ * in blocks. Every block belongs to one chromosome and is self-contained, so
+ * files can be concatenated.
+ * <p>
+ * Block layout: magic, number of SNPs n, chromosome (UTF), positions
+ * (int[n]), alleleA, alleleB, refAlleleA, refAlleleB (byte[n] each),
+ * frequencyA, frequencyB, refFrequencyA, refFrequencyB (float[n] each), chisq
+ * (double[n]). Missing values are stored as NaN, missing reference alleles as
+ * 0. All values are big-endian.
+ */
+public class MafBinaryWriter {
+
+	public static final String EXTENSION = ".bin";
+
+	static final int MAGIC = 0x4d414642; // MAFB
+
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	private DataOutputStream out;
+
+	private String chromosome = null;
+
+	private int count = 0;
+
+	private int[] positions;
+
+	private byte[] alleleA;
+	private byte[] alleleB;
+	private byte[] refAlleleA;
+	private byte[] refAlleleB;
+
+	private float[] frequencyA;
+	private float[] frequencyB;
+	private float[] refFrequencyA;
+	private float[] refFrequencyB;
+
+	private double[] chisq;
+
+	private boolean data = false;
+
+	public MafBinaryWriter(String filename) throws IOException {
+		this(filename, DEFAULT_BLOCK_SIZE);
+	}
+
+	public MafBinaryWriter(String filename, int blockSize) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1024 * 1024));
+		positions = new int[blockSize];
+		alleleA = new byte[blockSize];
+		alleleB = new byte[blockSize];
+		refAlleleA = new byte[blockSize];
+		refAlleleB = new byte[blockSize];
+		frequencyA = new float[blockSize];
+		frequencyB = new float[blockSize];
+		refFrequencyA = new float[blockSize];
+		refFrequencyB = new float[blockSize];
+		chisq = new double[blockSize];
+	}
+
+	/**
+	 * Returns the binary file that belongs to the given text maf file.
+	 */
+	public static String getBinaryFilename(String mafFilename) {
+		return mafFilename + EXTENSION;
+	}
+
+	public void write(SnpStats snp) throws IOException {
+
+		if (count == positions.length || (count > 0 && !snp.getChromosome().equals(chromosome))) {
+			flush();
+		}
+
+		chromosome = snp.getChromosome();
+		positions[count] = snp.getPosition();
+		alleleA[count] = encode(snp.getAlleleA());
+		alleleB[count] = encode(snp.getAlleleB());
+		refAlleleA[count] = encode(snp.getRefAlleleA());
+		refAlleleB[count] = encode(snp.getRefAlleleB());
+		frequencyA[count] = snp.getFrequencyA();
+		frequencyB[count] = snp.getFrequencyB();
+		refFrequencyA[count] = snp.getRefFrequencyA();
+		refFrequencyB[count] = snp.getRefFrequencyB();
+		chisq[count] = snp.getChisq();
+		count++;
+		data = true;
+
+	}
+
+	/**
+	 * Appends all blocks of another binary maf file.
+	 */
+	public void append(String filename) throws IOException {
+		flush();
+		InputStream in = new FileInputStream(filename);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+				data = true;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes all collected SNPs as one block.
+	 */
+	public void flush() throws IOException {
+
+		if (count == 0) {
+			return;
+		}
+
+		out.writeInt(MAGIC);
+		out.writeInt(count);
+		out.writeUTF(chromosome);
+		for (int i = 0; i < count; i++) {
+			out.writeInt(positions[i]);
+		}
+		out.write(alleleA, 0, count);
+		out.write(alleleB, 0, count);
+		out.write(refAlleleA, 0, count);
+		out.write(refAlleleB, 0, count);
+		writeFloats(frequencyA);
+		writeFloats(frequencyB);
+		writeFloats(refFrequencyA);
+		writeFloats(refFrequencyB);
+		for (int i = 0; i < count; i++) {
+			out.writeDouble(chisq[i]);
+		}
+
+		count = 0;
+
+	}
+
+	public void close() throws IOException {
+		flush();
+		out.close();
+	}
+
+	public boolean hasData() {
+		return data;
+	}
+
+	private void writeFloats(float[] values) throws IOException {
+		for (int i = 0; i < count; i++) {
+			out.writeFloat(values[i]);
+		}
+	}
+
+	private static byte encode(char allele) {
+		// SnpStats uses Byte.MAX_VALUE for missing alleles
+		return allele == Byte.MAX_VALUE ? 0 : (byte) allele;
+	}
+
+}
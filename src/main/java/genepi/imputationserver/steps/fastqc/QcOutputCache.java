@@ -0,0 +1,413 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Local disk cache of quality control outputs (chunk files, chunks,
+ * statistics and maf file). Entries are addressed by the checksums of the
+ * input files and all parameters that change the outputs. The least recently
+ * used entries are removed if the cache exceeds its maximal size.
+ * <p>
+ * Entries are locked in memory only, so a cache directory must be used by a
+ * single process (e.g. one Cloudgene server). Processes that share a
+ * directory can remove entries that are restored at the same time.
+ */
+public class QcOutputCache {
+
+	public static final String REPORT = "report.properties";
+
+	public static final String CHUNK_FILES = "chunkfiles";
+
+	public static final String CHUNKS = "chunks";
+
+	public static final String STATISTICS = "statistics";
+
+	public static final String MAF = "maf";
+
+	private static final String CHUNKS_DIR = "chunksDir";
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	// entry locks of all caches in this JVM, restore and evict share them.
+	// Other processes do not see them.
+	private static final Map<String, ReadWriteLock> LOCKS = new HashMap<String, ReadWriteLock>();
+
+	private File directory;
+
+	private long maxSize;
+
+	public QcOutputCache(String directory, long maxSize) {
+		this.directory = new File(directory);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Creates the key of an entry from the content of all input files and the
+	 * given parameters.
+	 */
+	public static String createKey(String[] files, String... parameters) throws IOException {
+
+		MessageDigest digest = createDigest();
+
+		String[] sortedFiles = files.clone();
+		Arrays.sort(sortedFiles);
+
+		byte[] buffer = new byte[64 * 1024];
+		for (String file : sortedFiles) {
+			MessageDigest fileDigest = createDigest();
+			InputStream in = new FileInputStream(file);
+			try {
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					fileDigest.update(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+			digest.update(toHex(fileDigest.digest()).getBytes("UTF-8"));
+			digest.update((byte) '\n');
+		}
+
+		for (String parameter : parameters) {
+			digest.update(String.valueOf(parameter).getBytes("UTF-8"));
+			digest.update((byte) '\n');
+		}
+
+		return toHex(digest.digest());
+
+	}
+
+	/**
+	 * Returns path and modification time of all files that match the given
+	 * filename, $chr matches any chromosome. Used as key parameter for
+	 * reference files that can be updated in place (e.g. legend files).
+	 */
+	public static String getFilesVersion(String pattern) {
+
+		if (pattern == null) {
+			return "";
+		}
+
+		File file = new File(pattern).getAbsoluteFile();
+		String regex = Pattern.quote(file.getName()).replace("$chr", "\\E.*\\Q");
+		File[] files = listFiles(file.getParentFile());
+		Arrays.sort(files);
+
+		StringBuilder version = new StringBuilder();
+		for (File child : files) {
+			if (child.isFile() && child.getName().matches(regex)) {
+				version.append(child.getPath() + "\t" + child.lastModified() + "\n");
+			}
+		}
+		return version.toString();
+
+	}
+
+	public boolean contains(String key) {
+		return new File(directory, key).isDirectory();
+	}
+
+	/**
+	 * Copies all outputs of the entry into the output directories and returns
+	 * the stored report. Returns null if the cache has no entry for the key.
+	 */
+	public Properties restore(String key, String chunkFileDir, String chunksDir, String statDir, String mafFile)
+			throws IOException {
+
+		File entry = new File(directory, key);
+
+		// entries are not evicted while they are restored
+		ReadWriteLock lock = getLock(entry);
+		lock.readLock().lock();
+		try {
+
+			if (!entry.isDirectory()) {
+				return null;
+			}
+
+			return restore(entry, chunkFileDir, chunksDir, statDir, mafFile);
+
+		} catch (IOException e) {
+			// no partial outputs, the quality control runs without cache
+			clearFiles(new File(chunkFileDir));
+			clearFiles(new File(chunksDir));
+			clearFiles(new File(statDir));
+			new File(mafFile).delete();
+			new File(MafBinaryWriter.getBinaryFilename(mafFile)).delete();
+			throw e;
+		} finally {
+			lock.readLock().unlock();
+		}
+
+	}
+
+	private Properties restore(File entry, String chunkFileDir, String chunksDir, String statDir, String mafFile)
+			throws IOException {
+
+		Properties report = new Properties();
+		InputStream in = new FileInputStream(new File(entry, REPORT));
+		try {
+			report.load(in);
+		} finally {
+			in.close();
+		}
+
+		// chunk files contain the filenames of the cached job's chunks
+		String cachedChunksDir = report.getProperty(CHUNKS_DIR);
+		File[] chunkFiles = listFiles(new File(entry, CHUNK_FILES));
+		new File(chunkFileDir).mkdirs();
+		for (File chunkFile : chunkFiles) {
+			rewriteChunkFile(chunkFile, new File(chunkFileDir, chunkFile.getName()), cachedChunksDir, chunksDir);
+		}
+
+		copyFiles(new File(entry, CHUNKS), new File(chunksDir));
+		copyFiles(new File(entry, STATISTICS), new File(statDir));
+
+		File maf = new File(entry, MAF);
+		if (maf.exists()) {
+			copyFile(maf, new File(mafFile));
+		}
+		File mafBinary = new File(entry, MAF + MafBinaryWriter.EXTENSION);
+		if (mafBinary.exists()) {
+			copyFile(mafBinary, new File(MafBinaryWriter.getBinaryFilename(mafFile)));
+		}
+
+		// mark as recently used
+		entry.setLastModified(System.currentTimeMillis());
+
+		report.remove(CHUNKS_DIR);
+		return report;
+
+	}
+
+	/**
+	 * Copies all outputs of a finished quality control into a new entry and
+	 * removes old entries if the cache is too large.
+	 */
+	public void store(String key, String chunkFileDir, String chunksDir, String statDir, String mafFile,
+			Properties report) throws IOException {
+
+		if (contains(key)) {
+			return;
+		}
+
+		directory.mkdirs();
+
+		// concurrent jobs write into their own directory, the entry appears
+		// atomically
+		File temp = new File(directory, key + "." + System.nanoTime() + TEMP_SUFFIX);
+		try {
+
+			copyFiles(new File(chunkFileDir), new File(temp, CHUNK_FILES));
+			copyFiles(new File(chunksDir), new File(temp, CHUNKS));
+			copyFiles(new File(statDir), new File(temp, STATISTICS));
+
+			if (new File(mafFile).exists()) {
+				copyFile(new File(mafFile), new File(temp, MAF));
+			}
+			File mafBinary = new File(MafBinaryWriter.getBinaryFilename(mafFile));
+			if (mafBinary.exists()) {
+				copyFile(mafBinary, new File(temp, MAF + MafBinaryWriter.EXTENSION));
+			}
+
+			Properties entryReport = new Properties();
+			entryReport.putAll(report);
+			entryReport.setProperty(CHUNKS_DIR, chunksDir);
+			OutputStream out = new FileOutputStream(new File(temp, REPORT));
+			try {
+				entryReport.store(out, "qc report");
+			} finally {
+				out.close();
+			}
+
+			if (!temp.renameTo(new File(directory, key))) {
+				// stored by another job in the meantime
+				delete(temp);
+			}
+
+		} catch (IOException e) {
+			delete(temp);
+			throw e;
+		}
+
+		evict();
+
+	}
+
+	/**
+	 * Returns the size of all entries in bytes.
+	 */
+	public long getSize() {
+		long size = 0;
+		for (File entry : getEntries()) {
+			size += getSize(entry);
+		}
+		return size;
+	}
+
+	/**
+	 * Removes the least recently used entries until the cache fits into its
+	 * maximal size.
+	 */
+	public void evict() {
+
+		File[] entries = getEntries();
+		Arrays.sort(entries, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+
+		long[] sizes = new long[entries.length];
+		long size = 0;
+		for (int i = 0; i < entries.length; i++) {
+			sizes[i] = getSize(entries[i]);
+			size += sizes[i];
+		}
+
+		for (int i = 0; i < entries.length && size > maxSize; i++) {
+			// skip entries that are restored at the moment
+			ReadWriteLock lock = getLock(entries[i]);
+			if (lock.writeLock().tryLock()) {
+				try {
+					delete(entries[i]);
+				} finally {
+					lock.writeLock().unlock();
+				}
+				size -= sizes[i];
+			}
+		}
+
+	}
+
+	private static synchronized ReadWriteLock getLock(File entry) {
+		String path = entry.getAbsolutePath();
+		ReadWriteLock lock = LOCKS.get(path);
+		if (lock == null) {
+			lock = new ReentrantReadWriteLock();
+			LOCKS.put(path, lock);
+		}
+		return lock;
+	}
+
+	private File[] getEntries() {
+		File[] files = listFiles(directory);
+		int count = 0;
+		for (File file : files) {
+			if (file.isDirectory() && !file.getName().endsWith(TEMP_SUFFIX)) {
+				files[count++] = file;
+			}
+		}
+		return Arrays.copyOf(files, count);
+	}
+
+	private static void rewriteChunkFile(File source, File target, String oldChunksDir, String newChunksDir)
+			throws IOException {
+
+		BufferedReader reader = new BufferedReader(new FileReader(source));
+		BufferedWriter writer = new BufferedWriter(new FileWriter(target));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] columns = line.split("\t", -1);
+				for (int i = 0; i < columns.length; i++) {
+					if (oldChunksDir != null && columns[i].startsWith(oldChunksDir)) {
+						columns[i] = newChunksDir + columns[i].substring(oldChunksDir.length());
+					}
+					if (i > 0) {
+						writer.write('\t');
+					}
+					writer.write(columns[i]);
+				}
+				writer.newLine();
+			}
+		} finally {
+			reader.close();
+			writer.close();
+		}
+
+	}
+
+	private static void copyFiles(File source, File target) throws IOException {
+		target.mkdirs();
+		for (File file : listFiles(source)) {
+			if (file.isFile()) {
+				copyFile(file, new File(target, file.getName()));
+			}
+		}
+	}
+
+	private static void clearFiles(File folder) {
+		for (File file : listFiles(folder)) {
+			if (file.isFile()) {
+				file.delete();
+			}
+		}
+	}
+
+	private static void copyFile(File source, File target) throws IOException {
+		Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static File[] listFiles(File folder) {
+		File[] files = folder.listFiles();
+		return files != null ? files : new File[0];
+	}
+
+	private static long getSize(File file) {
+		if (file.isFile()) {
+			return file.length();
+		}
+		long size = 0;
+		for (File child : listFiles(file)) {
+			size += getSize(child);
+		}
+		return size;
+	}
+
+	private static void delete(File file) {
+		for (File child : listFiles(file)) {
+			delete(child);
+		}
+		file.delete();
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+}
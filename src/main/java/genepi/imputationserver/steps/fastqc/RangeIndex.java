@@ -0,0 +1,129 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sorted index of reference panel ranges. Overlapping ranges of a chromosome
+ * are merged, so every query is a binary search over disjoint intervals.
+ */
+public class RangeIndex {
+
+	private Map<String, int[]> starts = new HashMap<String, int[]>();
+
+	private Map<String, int[]> ends = new HashMap<String, int[]>();
+
+	public RangeIndex(Collection<RangeEntry> ranges) {
+
+		Map<String, List<RangeEntry>> chromosomes = new HashMap<String, List<RangeEntry>>();
+		for (RangeEntry range : ranges) {
+			List<RangeEntry> entries = chromosomes.get(range.getChromosome());
+			if (entries == null) {
+				entries = new ArrayList<RangeEntry>();
+				chromosomes.put(range.getChromosome(), entries);
+			}
+			entries.add(range);
+		}
+
+		for (Map.Entry<String, List<RangeEntry>> chromosome : chromosomes.entrySet()) {
+
+			List<RangeEntry> entries = chromosome.getValue();
+			Collections.sort(entries, new Comparator<RangeEntry>() {
+				@Override
+				public int compare(RangeEntry a, RangeEntry b) {
+					return Integer.compare(a.getStart(), b.getStart());
+				}
+			});
+
+			int[] chrStarts = new int[entries.size()];
+			int[] chrEnds = new int[entries.size()];
+			int count = 0;
+			for (RangeEntry range : entries) {
+				if (count > 0 && range.getStart() <= chrEnds[count - 1]) {
+					// overlaps the previous range
+					chrEnds[count - 1] = Math.max(chrEnds[count - 1], range.getEnd());
+				} else {
+					chrStarts[count] = range.getStart();
+					chrEnds[count] = range.getEnd();
+					count++;
+				}
+			}
+
+			int[] mergedStarts = new int[count];
+			int[] mergedEnds = new int[count];
+			System.arraycopy(chrStarts, 0, mergedStarts, 0, count);
+			System.arraycopy(chrEnds, 0, mergedEnds, 0, count);
+			starts.put(chromosome.getKey(), mergedStarts);
+			ends.put(chromosome.getKey(), mergedEnds);
+
+		}
+
+	}
+
+	/**
+	 * Returns true if at least one range is on the chromosome.
+	 */
+	public boolean hasRanges(String chromosome) {
+		return starts.containsKey(chromosome);
+	}
+
+	/**
+	 * Returns the sorted start positions of all merged ranges of the
+	 * chromosome.
+	 */
+	public int[] getStarts(String chromosome) {
+		int[] chrStarts = starts.get(chromosome);
+		return chrStarts != null ? chrStarts.clone() : new int[0];
+	}
+
+	/**
+	 * Returns the end positions (inclusive) of all merged ranges of the
+	 * chromosome.
+	 */
+	public int[] getEnds(String chromosome) {
+		int[] chrEnds = ends.get(chromosome);
+		return chrEnds != null ? chrEnds.clone() : new int[0];
+	}
+
+	/**
+	 * Returns true if the position is inside a range of the chromosome.
+	 */
+	public boolean contains(String chromosome, int position) {
+		return overlaps(chromosome, position, position);
+	}
+
+	/**
+	 * Returns true if the region start-end (inclusive) overlaps a range of the
+	 * chromosome.
+	 */
+	public boolean overlaps(String chromosome, int start, int end) {
+
+		int[] chrStarts = starts.get(chromosome);
+		if (chrStarts == null) {
+			return false;
+		}
+
+		// last range that starts before or at the end of the region
+		int low = 0;
+		int high = chrStarts.length - 1;
+		int found = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (chrStarts[middle] <= end) {
+				found = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		return found != -1 && ends.get(chromosome)[found] >= start;
+
+	}
+
+}
@@ -2,35 +2,37 @@ package genepi.imputationserver.steps.fastqc;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
-import java.util.concurrent.ConcurrentHashMap;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import genepi.imputationserver.steps.fastqc.legend.ILegendReader;
 import genepi.imputationserver.steps.fastqc.legend.LegendEntry;
-import genepi.imputationserver.steps.fastqc.legend.LegendFileReader;
+import genepi.imputationserver.steps.fastqc.legend.LegendFileCursor;
+import genepi.imputationserver.steps.fastqc.legend.LegendIndex;
+import genepi.imputationserver.steps.fastqc.legend.LegendIndexCache;
 import genepi.imputationserver.steps.vcf.BGzipLineWriter;
 import genepi.imputationserver.steps.vcf.FastVCFFileReader;
 import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+import genepi.imputationserver.steps.vcf.ParallelBlockCompressedOutputStream;
+import genepi.imputationserver.steps.vcf.VCFLineByteParser;
 import genepi.imputationserver.steps.vcf.VcfChunk;
 import genepi.imputationserver.steps.vcf.VcfFile;
 import genepi.imputationserver.steps.vcf.VcfFileUtil;
+import genepi.imputationserver.steps.vcf.VcfLineByteReader;
 import genepi.imputationserver.util.GenomicTools;
 import genepi.io.FileUtil;
 import genepi.io.text.LineReader;
 import genepi.io.text.LineWriter;
-import htsjdk.variant.variantcontext.Genotype;
-import htsjdk.variant.variantcontext.VariantContext;
-import htsjdk.variant.variantcontext.VariantContextBuilder;
-import htsjdk.variant.variantcontext.writer.Options;
-import htsjdk.variant.variantcontext.writer.VariantContextWriter;
-import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
-import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder.OutputType;
-import htsjdk.variant.vcf.VCFCodec;
-import htsjdk.variant.vcf.VCFFileReader;
-import htsjdk.variant.vcf.VCFHeader;
-import htsjdk.variant.vcf.VCFHeaderVersion;
 
 public class StatisticsTask implements ITask {
 
@@ -38,6 +40,10 @@ public class StatisticsTask implements ITask {
 	public static final String X_PAR2 = "X.PAR2";
 	public static final String X_NON_PAR = "X.nonPAR";
 
+	public static final String MAF_FORMAT_TEXT = "text";
+	public static final String MAF_FORMAT_BINARY = "binary";
+	public static final String MAF_FORMAT_BOTH = "both";
+
 	private double sampleCallrate;
 	private double minSnps;
 	private double referenceOverlap;
@@ -47,6 +53,8 @@ public class StatisticsTask implements ITask {
 	private String chunksDir = "tmp";
 	private String statDir = "tmp";
 	private String mafFile = "tmp/maf.txt";
+	private String mafFormat = MAF_FORMAT_TEXT;
+	private MafBinaryWriter mafBinaryWriter;
 
 	// input variables
 	private String population;
@@ -56,9 +64,22 @@ public class StatisticsTask implements ITask {
 	private String[] vcfFilenames;
 	private LineWriter excludedSnpsWriter;
 	private String legendFile;
+	private String legendIndex;
 	private int refSamples;
 	private String build;
 	private HashSet<RangeEntry> ranges;
+	private RangeIndex rangeIndex;
+	private boolean byteParser = false;
+	private int threads = 1;
+	private int pipelineThreads = 0;
+	private int decompressionThreads = 1;
+	private int compressionThreads = 1;
+	private int compressionLevel = ParallelBlockCompressedOutputStream.DEFAULT_COMPRESSION_LEVEL;
+	private boolean chunkIndex = false;
+	private boolean regionReader = true;
+
+	// prefix of the chrX split files, parallel workers use their own files
+	private String chrXPrefix = "";
 
 	// overall stats
 	private int overallChunks;
@@ -102,6 +123,9 @@ public class StatisticsTask implements ITask {
 
 		// MAF file for QC report
 		LineWriter mafWriter = new LineWriter(mafFile);
+		if (isMafBinary()) {
+			mafBinaryWriter = new MafBinaryWriter(MafBinaryWriter.getBinaryFilename(mafFile));
+		}
 
 		// excluded chunks
 		String excludedChunkFile = FileUtil.path(statDir, "chunks-excluded.txt");
@@ -119,48 +143,37 @@ public class StatisticsTask implements ITask {
 		typedOnlyWriter.write("#Position", false);
 
 		// chrX haploid samples
-		HashSet<String> hapSamples = new HashSet<String>();
+		Set<String> hapSamples = Collections.synchronizedSet(new HashSet<String>());
 
-		int i = 0;
-		for (String vcfFilename : vcfFilenames) {
+		if (threads > 1 && vcfFilenames.length > 1) {
 
-			i++;
-			if (progressListener != null) {
-				progressListener.progress(getName() + " [" + i + "/" + vcfFilenames.length + "]\n\n" + "Analyze file "
-						+ FileUtil.getFilename(vcfFilename) + "...");
-			}
+			processFilesParallel(progressListener, mafWriter, excludedChunkWriter, typedOnlyWriter, chrXInfoWriter,
+					hapSamples);
 
-			VcfFile myvcfFile = VcfFileUtil.load(vcfFilename, chunkSize, true);
-
-			String chromosome = myvcfFile.getChromosome();
+		} else {
 
-			if (VcfFileUtil.isChrMT(chromosome)) {
-				myvcfFile.setPhased(true);
-			}
+			int i = 0;
+			for (String vcfFilename : vcfFilenames) {
 
-			if (VcfFileUtil.isChrX(chromosome)) {
+				i++;
+				if (progressListener != null) {
+					progressListener.progress(getName() + " [" + i + "/" + vcfFilenames.length + "]\n\n"
+							+ "Analyze file " + FileUtil.getFilename(vcfFilename) + "...");
+				}
 
-				// split to PAR1, PAR2 and nonPAR
-				List<String> splits = prepareChrX(myvcfFile.getVcfFilename(), myvcfFile.isPhased(), chrXInfoWriter,
+				processVcfFile(vcfFilename, mafWriter, excludedChunkWriter, typedOnlyWriter, chrXInfoWriter,
 						hapSamples);
 
-				for (String split : splits) {
-					VcfFile _myvcfFile = VcfFileUtil.load(split, chunkSize, true);
-
-					_myvcfFile.setChrX(true);
-
-					// chrX
-					processFile(_myvcfFile, mafWriter, excludedSnpsWriter, excludedChunkWriter, typedOnlyWriter);
-				}
-			} else {
-				// chr1-22
-				processFile(myvcfFile, mafWriter, excludedSnpsWriter, excludedChunkWriter, typedOnlyWriter);
-
 			}
 		}
 
 		mafWriter.close();
 
+		if (mafBinaryWriter != null) {
+			mafBinaryWriter.close();
+			mafBinaryWriter = null;
+		}
+
 		excludedChunkWriter.close();
 
 		chrXInfoWriter.close();
@@ -185,14 +198,252 @@ public class StatisticsTask implements ITask {
 
 	}
 
+	private void processVcfFile(String vcfFilename, LineWriter mafWriter, LineWriter excludedChunkWriter,
+			LineWriter typedOnlyWriter, LineWriter chrXInfoWriter, Set<String> hapSamples)
+			throws IOException, InterruptedException {
+
+		VcfFile myvcfFile = VcfFileUtil.load(vcfFilename, chunkSize, true, decompressionThreads);
+
+		// no SNP of this file can be inside a range of the reference panel
+		if (rangeIndex != null && myvcfFile.getNoSnps() > 0 && !rangeIndex.hasRanges(myvcfFile.getRawChromosome())) {
+			return;
+		}
+
+		String chromosome = myvcfFile.getChromosome();
+
+		if (VcfFileUtil.isChrMT(chromosome)) {
+			myvcfFile.setPhased(true);
+		}
+
+		if (VcfFileUtil.isChrX(chromosome)) {
+
+			// split to PAR1, PAR2 and nonPAR
+			List<String> splits = prepareChrX(myvcfFile.getVcfFilename(), myvcfFile.isPhased(), chrXInfoWriter,
+					hapSamples);
+
+			for (String split : splits) {
+				VcfFile _myvcfFile = VcfFileUtil.load(split, chunkSize, true, decompressionThreads);
+
+				_myvcfFile.setChrX(true);
+
+				// chrX
+				processFile(_myvcfFile, mafWriter, excludedSnpsWriter, excludedChunkWriter, typedOnlyWriter);
+			}
+		} else {
+			// chr1-22
+			processFile(myvcfFile, mafWriter, excludedSnpsWriter, excludedChunkWriter, typedOnlyWriter);
+
+		}
+	}
+
+	/**
+	 * Processes all files on a bounded worker pool. Every file gets its own task
+	 * instance with its own temporary output files. Counters and outputs are
+	 * merged in input order, so the results are the same as in serial mode.
+	 */
+	private void processFilesParallel(final ITaskProgressListener progressListener, LineWriter mafWriter,
+			LineWriter excludedChunkWriter, LineWriter typedOnlyWriter, LineWriter chrXInfoWriter,
+			final Set<String> hapSamples) throws IOException, InterruptedException {
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, vcfFilenames.length));
+
+		final AtomicInteger started = new AtomicInteger();
+		List<StatisticsTask> workers = new Vector<StatisticsTask>();
+		List<Future<StatisticsTask>> futures = new Vector<Future<StatisticsTask>>();
+
+		try {
+
+			for (int i = 0; i < vcfFilenames.length; i++) {
+
+				final String vcfFilename = vcfFilenames[i];
+				final String prefix = getWorkerPrefix(i);
+				final StatisticsTask worker = createWorker();
+				worker.chrXPrefix = "qc_worker_" + i + ".";
+				workers.add(worker);
+
+				futures.add(executor.submit(new Callable<StatisticsTask>() {
+
+					@Override
+					public StatisticsTask call() throws Exception {
+
+						if (progressListener != null) {
+							int number = started.incrementAndGet();
+							synchronized (progressListener) {
+								progressListener.progress(getName() + " [" + number + "/" + vcfFilenames.length + "]\n\n"
+										+ "Analyze file " + FileUtil.getFilename(vcfFilename) + "...");
+							}
+						}
+
+						LineWriter mafWriter = new LineWriter(prefix + ".maf.txt");
+						LineWriter excludedSnpsWriter = new LineWriter(prefix + ".snps-excluded.txt");
+						LineWriter excludedChunkWriter = new LineWriter(prefix + ".chunks-excluded.txt");
+						LineWriter typedOnlyWriter = new LineWriter(prefix + ".typed-only.txt");
+						LineWriter chrXInfoWriter = new LineWriter(prefix + ".chrX-info.txt");
+
+						worker.setExcludedSnpsWriter(excludedSnpsWriter);
+						if (isMafBinary()) {
+							worker.mafBinaryWriter = new MafBinaryWriter(prefix + ".maf.bin");
+						}
+
+						try {
+							worker.processVcfFile(vcfFilename, mafWriter, excludedChunkWriter, typedOnlyWriter,
+									chrXInfoWriter, hapSamples);
+						} finally {
+							mafWriter.close();
+							excludedSnpsWriter.close();
+							excludedChunkWriter.close();
+							typedOnlyWriter.close();
+							chrXInfoWriter.close();
+							if (worker.mafBinaryWriter != null) {
+								worker.mafBinaryWriter.close();
+							}
+						}
+
+						return worker;
+					}
+
+				}));
+			}
+
+			for (int i = 0; i < futures.size(); i++) {
+
+				try {
+					futures.get(i).get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException) {
+						throw (IOException) cause;
+					}
+					if (cause instanceof InterruptedException) {
+						throw (InterruptedException) cause;
+					}
+					throw new IOException(cause);
+				}
+
+				merge(workers.get(i));
+
+				String prefix = getWorkerPrefix(i);
+				appendAndDelete(prefix + ".maf.txt", mafWriter);
+				if (mafBinaryWriter != null) {
+					mafBinaryWriter.append(prefix + ".maf.bin");
+					FileUtil.deleteFile(prefix + ".maf.bin");
+				}
+				appendAndDelete(prefix + ".snps-excluded.txt", excludedSnpsWriter);
+				appendAndDelete(prefix + ".chunks-excluded.txt", excludedChunkWriter);
+				appendAndDelete(prefix + ".typed-only.txt", typedOnlyWriter);
+				appendAndDelete(prefix + ".chrX-info.txt", chrXInfoWriter);
+
+			}
+
+		} finally {
+			executor.shutdownNow();
+			// chunksDir is uploaded, temporary files of failed or merged
+			// workers are removed
+			for (int i = 0; i < vcfFilenames.length; i++) {
+				deleteWorkerFiles(getWorkerPrefix(i));
+			}
+		}
+
+	}
+
+	private String getWorkerPrefix(int worker) {
+		return FileUtil.path(chunksDir, "qc_worker_" + worker);
+	}
+
+	private void deleteWorkerFiles(String prefix) {
+		for (String suffix : new String[] { ".maf.txt", ".maf.bin", ".snps-excluded.txt", ".chunks-excluded.txt",
+				".typed-only.txt", ".chrX-info.txt" }) {
+			FileUtil.deleteFile(prefix + suffix);
+		}
+		for (String region : new String[] { X_NON_PAR, X_PAR1, X_PAR2 }) {
+			FileUtil.deleteFile(prefix + "." + region + ".vcf.gz");
+			FileUtil.deleteFile(prefix + "." + region + ".vcf.gz.tbi");
+		}
+	}
+
+	private StatisticsTask createWorker() {
+		StatisticsTask worker = new StatisticsTask();
+		worker.setSampleCallrate(sampleCallrate);
+		worker.setMinSnps(minSnps);
+		worker.setReferenceOverlap(referenceOverlap);
+		worker.setMixedGenotypeschrX(mixedGenotypeschrX);
+		worker.setChunkFileDir(chunkFileDir);
+		worker.setChunksDir(chunksDir);
+		worker.setStatDir(statDir);
+		worker.setMafFile(mafFile);
+		worker.setMafFormat(mafFormat);
+		worker.setPopulation(population);
+		worker.setAlleleFrequencyCheck(alleleFrequencyCheck);
+		worker.setChunkSize(chunkSize);
+		worker.setPhasingWindow(phasingWindow);
+		worker.setLegendFile(legendFile);
+		worker.setLegendIndex(legendIndex);
+		worker.setRefSamples(refSamples);
+		worker.setBuild(build);
+		worker.setRanges(ranges);
+		worker.setByteParser(byteParser);
+		worker.setPipelineThreads(pipelineThreads);
+		worker.setDecompressionThreads(decompressionThreads);
+		worker.setCompressionThreads(compressionThreads);
+		worker.setCompressionLevel(compressionLevel);
+		worker.setChunkIndex(chunkIndex);
+		worker.setRegionReader(regionReader);
+		return worker;
+	}
+
+	private void merge(StatisticsTask worker) {
+		overallChunks += worker.overallChunks;
+		notFoundInLegend += worker.notFoundInLegend;
+		foundInLegend += worker.foundInLegend;
+		alleleMismatch += worker.alleleMismatch;
+		alleleSwitch += worker.alleleSwitch;
+		strandFlipSimple += worker.strandFlipSimple;
+		complicatedGenotypes += worker.complicatedGenotypes;
+		strandFlipAndAlleleSwitch += worker.strandFlipAndAlleleSwitch;
+		match += worker.match;
+		lowCallRate += worker.lowCallRate;
+		filtered += worker.filtered;
+		overallSnps += worker.overallSnps;
+		monomorphic += worker.monomorphic;
+		alternativeAlleles += worker.alternativeAlleles;
+		noSnps += worker.noSnps;
+		duplicates += worker.duplicates;
+		filterFlag += worker.filterFlag;
+		invalidAlleles += worker.invalidAlleles;
+		multiallelicSites += worker.multiallelicSites;
+		removedChunksSnps += worker.removedChunksSnps;
+		removedChunksOverlap += worker.removedChunksOverlap;
+		removedChunksCallRate += worker.removedChunksCallRate;
+		chrXMissingRate = chrXMissingRate || worker.chrXMissingRate;
+		chrXPloidyError = chrXPloidyError || worker.chrXPloidyError;
+	}
+
+	private void appendAndDelete(String filename, LineWriter writer) throws IOException {
+		LineReader reader = new LineReader(filename);
+		while (reader.next()) {
+			writer.write(reader.get());
+		}
+		reader.close();
+		FileUtil.deleteFile(filename);
+	}
+
 	public void processFile(VcfFile myvcfFile, LineWriter mafWriter, LineWriter excludedSnpsWriter,
 			LineWriter excludedChunkWriter, LineWriter typedOnlyWriter) throws IOException, InterruptedException {
 
-		Map<Integer, VcfChunk> chunks = new ConcurrentHashMap<Integer, VcfChunk>();
+		ChunkWindow window = new ChunkWindow(phasingWindow);
 
 		String filename = myvcfFile.getVcfFilename();
 
-		FastVCFFileReader vcfReader = new FastVCFFileReader(filename);
+		FastVCFFileReader vcfReader = null;
+		if (regionReader && rangeIndex != null && myvcfFile.getNoSnps() > 0
+				&& new File(myvcfFile.getIndexFilename()).exists()) {
+			// read only records inside the ranges
+			String rawContig = myvcfFile.getRawChromosome();
+			vcfReader = new FastVCFFileReader(filename, rawContig, rangeIndex.getStarts(rawContig),
+					rangeIndex.getEnds(rawContig));
+		} else {
+			vcfReader = new FastVCFFileReader(filename, byteParser, pipelineThreads, decompressionThreads);
+		}
 		List<String> header = vcfReader.getFileHeader();
 
 		String contig = myvcfFile.getChromosome();
@@ -209,7 +460,7 @@ public class StatisticsTask implements ITask {
 
 		String metafile = FileUtil.path(chunkFileDir, contig);
 		LineWriter metafileWriter = new LineWriter(metafile);
-		LegendFileReader legendReader = getReader(myvcfFile.getChromosome());
+		ILegendReader legendReader = getReader(myvcfFile.getChromosome());
 
 		int samples = myvcfFile.getNoSamples();
 
@@ -220,13 +471,14 @@ public class StatisticsTask implements ITask {
 				chunkNumber = chunkNumber - 1;
 			}
 
-			// init current chunk only once
-			if (chunks.get(chunkNumber) == null) {
-				int chunkStart = chunkNumber * chunkSize + 1;
-				int chunkEnd = chunkStart + chunkSize - 1;
+			// init current chunk only once, chunks outside of all ranges are
+			// never opened
+			int chunkStart = chunkNumber * chunkSize + 1;
+			int chunkEnd = chunkStart + chunkSize - 1;
+			if (!window.isOpen(chunkStart) && !isOutsideRanges(snp.getContig(), chunkStart, chunkEnd)) {
 				VcfChunk chunk = initChunk(contig, chunkStart, chunkEnd, myvcfFile.isPhased(), snp.getNSamples(),
 						header);
-				chunks.put(chunkNumber, chunk);
+				window.open(chunk);
 			}
 
 			int nextChunkNumber = chunkNumber + 1;
@@ -235,41 +487,44 @@ public class StatisticsTask implements ITask {
 
 			// is in the extended start of the next chunk?
 			if (extendedStart >= 1 && snp.getStart() >= extendedStart) {
-				if (chunks.get(nextChunkNumber) == null) {
-					int nextChunkEnd = nextChunkStart + chunkSize - 1;
+				int nextChunkEnd = nextChunkStart + chunkSize - 1;
+				if (!window.isOpen(nextChunkStart)
+						&& !isOutsideRanges(snp.getContig(), nextChunkStart, nextChunkEnd)) {
 					VcfChunk nextChunk = initChunk(contig, nextChunkStart, nextChunkEnd, myvcfFile.isPhased(),
 							snp.getNSamples(), vcfReader.getFileHeader());
-					chunks.put(nextChunkNumber, nextChunk);
+					window.open(nextChunk);
 				}
 			}
 
-			// load reference snp
-			LegendEntry refSnp = legendReader.findByPosition(snp.getStart());
+			// load reference snp, SNPs outside of all ranges are skipped by
+			// processLine
+			LegendEntry refSnp = null;
+			if (rangeIndex == null || rangeIndex.contains(snp.getContig(), snp.getStart())) {
+				refSnp = legendReader.findByPosition(snp.getStart());
+			}
 
-			for (VcfChunk openChunk : chunks.values()) {
-				if (snp.getStart() <= openChunk.getEnd() + phasingWindow) {
-					processLine(snp, refSnp, samples, openChunk.vcfChunkWriter, openChunk, mafWriter,
-							excludedSnpsWriter, typedOnlyWriter);
-				} else {
-					// close open chunks
-					openChunk.vcfChunkWriter.close();
-					chunkSummary(openChunk, metafileWriter, excludedChunkWriter);
-					chunks.values().remove(openChunk);
-				}
+			// close chunks that end before this SNP
+			for (VcfChunk closedChunk : window.close(snp.getStart())) {
+				closedChunk.vcfChunkWriter.close();
+				chunkSummary(closedChunk, metafileWriter, excludedChunkWriter);
 			}
 
+			processLine(snp, refSnp, samples, window, mafWriter, excludedSnpsWriter, typedOnlyWriter);
+
 		}
 		legendReader.close();
 		vcfReader.close();
 
 		// close all open chunks
-		for (VcfChunk openChunk : chunks.values()) {
+		for (VcfChunk openChunk : window.getChunks()) {
 			openChunk.vcfChunkWriter.close();
 			if (openChunk.lastPos >= openChunk.getStart()) {
 				// System.out.println("Chunks " + open);
 				chunkSummary(openChunk, metafileWriter, excludedChunkWriter);
 			} else {
 				new File(openChunk.getVcfFilename()).delete();
+				// index written by the chunk writer
+				new File(openChunk.getVcfFilename() + ".tbi").delete();
 				overallChunks--;
 			}
 		}
@@ -282,6 +537,13 @@ public class StatisticsTask implements ITask {
 
 	}
 
+	// true if no SNP of the chunk including its phasing window can be inside a
+	// range of the reference panel
+	private boolean isOutsideRanges(String chromosome, int chunkStart, int chunkEnd) {
+		return rangeIndex != null
+				&& !rangeIndex.overlaps(chromosome, chunkStart - phasingWindow, chunkEnd + phasingWindow);
+	}
+
 	private VcfChunk initChunk(String chr, int chunkStart, int chunkEnd, boolean phased, int samples,
 			List<String> header) throws IOException {
 		overallChunks++;
@@ -303,7 +565,8 @@ public class StatisticsTask implements ITask {
 			chunk.snpsPerSampleCount[i] = 0;
 		}
 
-		BGzipLineWriter writer = new BGzipLineWriter(chunk.getVcfFilename());
+		BGzipLineWriter writer = new BGzipLineWriter(chunk.getVcfFilename(), chunkIndex, compressionThreads,
+				compressionLevel);
 		for (String headerLine : header) {
 			writer.write(headerLine);
 		}
@@ -314,34 +577,28 @@ public class StatisticsTask implements ITask {
 
 	}
 
-	private void processLine(MinimalVariantContext snp, LegendEntry refSnp, int samples, BGzipLineWriter vcfWriter,
-			VcfChunk chunk, LineWriter mafWriter, LineWriter excludedSnpsWriter, LineWriter typedOnlyWriter)
+	/**
+	 * Classifies a SNP once and writes it to all open chunks that contain it
+	 * in their extended region. Statistics are only counted for the chunk
+	 * that contains the SNP.
+	 */
+	private void processLine(MinimalVariantContext snp, LegendEntry refSnp, int samples, ChunkWindow window,
+			LineWriter mafWriter, LineWriter excludedSnpsWriter, LineWriter typedOnlyWriter)
 			throws IOException, InterruptedException {
 
-		if (ranges != null) {
-			
-			boolean inRange = false;
-			
-			for (RangeEntry range : ranges) {
-
-				if (snp.getContig().equals(range.getChromosome()) && snp.getStart() >= range.getStart()
-						&& snp.getStart() <= range.getEnd()) {
-					inRange = true;
-				}
-			}
-
-			if (!inRange) {
-				return;
-			}
+		if (window.isEmpty()) {
+			return;
 		}
 
-		int extendedStart = Math.max(chunk.getStart() - phasingWindow, 1);
-		int extendedEnd = chunk.getEnd() + phasingWindow;
+		if (rangeIndex != null && !rangeIndex.contains(snp.getContig(), snp.getStart())) {
+			return;
+		}
 
 		String ref = snp.getReferenceAllele();
 		int position = snp.getStart();
 
-		boolean insideChunk = position >= chunk.getStart() && position <= chunk.getEnd();
+		VcfChunk chunk = window.getChunk(position);
+		boolean insideChunk = chunk != null;
 
 		if (snp.getAlternateAllele().contains(",")) {
 			if (insideChunk) {
@@ -366,7 +623,7 @@ public class StatisticsTask implements ITask {
 
 		// count duplicates
 
-		if ((chunk.lastPos == snp.getStart() && chunk.lastPos > 0)) {
+		if ((window.getLastPosition() == snp.getStart() && window.getLastPosition() > 0)) {
 
 			if (insideChunk) {
 				duplicates++;
@@ -374,14 +631,14 @@ public class StatisticsTask implements ITask {
 				filtered++;
 			}
 
-			chunk.lastPos = snp.getStart();
+			window.setLastPosition(snp.getStart());
 			return;
 
 		}
 
 		// update last pos only when not filtered
 		if (!snp.isFiltered()) {
-			chunk.lastPos = snp.getStart();
+			window.setLastPosition(snp.getStart());
 		}
 
 		// filter flag
@@ -439,7 +696,7 @@ public class StatisticsTask implements ITask {
 
 				notFoundInLegend++;
 				chunk.notFoundInLegendChunk++;
-				vcfWriter.write(snp.getRawLine());
+				chunk.vcfChunkWriter.write(snp.getRawLine());
 				typedOnlyWriter.write(snp.toString());
 			}
 
@@ -453,45 +710,36 @@ public class StatisticsTask implements ITask {
 			char legendRef = refSnp.getAlleleA();
 			char legendAlt = refSnp.getAlleleB();
 
+			switch (GenomicTools.classify(snp, refSnp)) {
+
 			/** simple match of ref/alt in study and legend file **/
-			if (GenomicTools.match(snp, refSnp)) {
+			case MATCH:
 
 				if (insideChunk) {
 					match++;
 				}
-
-			}
+				break;
 
 			/** count A/T C/G genotypes **/
-			else if (GenomicTools.complicatedGenotypes(snp, refSnp)) {
+			case COMPLICATED_GENOTYPES:
 
 				if (insideChunk) {
-
 					complicatedGenotypes++;
-
 				}
-
-			}
+				break;
 
 			/**
 			 * simple allele switch check; ignore A/T C/G from above
 			 **/
-			else if (GenomicTools.alleleSwitch(snp, refSnp)) {
+			case ALLELE_SWITCH:
 
 				if (insideChunk) {
-
 					alleleSwitch++;
-					/*
-					 * logWriter.write("Allele switch" + snp.getID() + "\t" + chr + ":"+
-					 * snp.getStart() + "\t" + "ref: " + legendRef + "/" + legendAlt + "; data: " +
-					 * studyRef + "/" + studyAlt + ")");
-					 */
 				}
-
-			}
+				break;
 
 			/** simple strand swaps **/
-			else if (GenomicTools.strandFlip(snp, refSnp)) {
+			case STRAND_FLIP:
 
 				if (insideChunk) {
 
@@ -502,9 +750,7 @@ public class StatisticsTask implements ITask {
 				}
 				return;
 
-			}
-
-			else if (GenomicTools.strandFlipAndAlleleSwitch(snp, refSnp)) {
+			case STRAND_FLIP_AND_ALLELE_SWITCH:
 
 				if (insideChunk) {
 
@@ -514,13 +760,10 @@ public class StatisticsTask implements ITask {
 							snp + "\t" + "Strand flip and Allele switch" + "\t" + "Ref:" + legendRef + "/" + legendAlt);
 
 				}
-
 				return;
 
-			}
-
 			// filter allele mismatches
-			else if (GenomicTools.alleleMismatch(snp, refSnp)) {
+			case ALLELE_MISMATCH:
 
 				if (insideChunk) {
 					alleleMismatch++;
@@ -529,6 +772,7 @@ public class StatisticsTask implements ITask {
 							.write(snp + "\t" + "Allele mismatch" + "\t" + "Ref:" + legendRef + "/" + legendAlt);
 				}
 				return;
+
 			}
 
 			// filter low call rate
@@ -547,26 +791,32 @@ public class StatisticsTask implements ITask {
 				// allele-frequency check
 				if (alleleFrequencyCheck && refSnp.hasFrequencies()) {
 					SnpStats statistics = GenomicTools.calculateAlleleFreq(snp, refSnp, refSamples);
-					mafWriter.write(snp + "\t" + statistics.toString());
+					if (isMafText()) {
+						mafWriter.write(snp + "\t" + statistics.toString());
+					}
+					if (mafBinaryWriter != null) {
+						mafBinaryWriter.write(statistics);
+					}
 				}
 				overallSnps++;
 				chunk.overallSnpsChunk++;
 			}
 
 			// write SNPs
-			if (position >= extendedStart && position <= extendedEnd) {
+			for (VcfChunk openChunk : window.getChunks()) {
 
-				vcfWriter.write(snp.getRawLine());
-				chunk.validSnpsChunk++;
+				int extendedStart = Math.max(openChunk.getStart() - phasingWindow, 1);
+				int extendedEnd = openChunk.getEnd() + phasingWindow;
 
-				// check if all samples have
-				// enough SNPs
-				if (insideChunk) {
+				if (position >= extendedStart && position <= extendedEnd) {
 
-					for (int i = 0; i < snp.getNSamples(); i++) {
-						if (snp.isCalled(i)) {
-							chunk.snpsPerSampleCount[i] += 1;
-						}
+					openChunk.vcfChunkWriter.write(snp.getRawLine());
+					openChunk.validSnpsChunk++;
+
+					// check if all samples have
+					// enough SNPs
+					if (openChunk == chunk) {
+						snp.addCalledTo(chunk.snpsPerSampleCount);
 					}
 				}
 			}
@@ -625,32 +875,34 @@ public class StatisticsTask implements ITask {
 
 	}
 
+	/**
+	 * Splits chrX into PAR1, nonPAR and PAR2 files. Lines are copied without
+	 * decoding them into VariantContexts; ploidy and mixed genotypes of nonPAR
+	 * sites are counted directly on the raw bytes.
+	 */
 	public List<String> prepareChrX(String filename, boolean phased, LineWriter chrXInfoWriter,
-			HashSet<String> hapSamples) throws IOException {
+			Set<String> hapSamples) throws IOException {
 
 		List<String> paths = new Vector<String>();
-		String nonPar = FileUtil.path(chunksDir, X_NON_PAR + ".vcf.gz");
-		VariantContextWriter vcfChunkWriterNonPar = new VariantContextWriterBuilder().setOutputFile(nonPar)
-				.setOption(Options.INDEX_ON_THE_FLY).setOption(Options.ALLOW_MISSING_FIELDS_IN_HEADER)
-				.setOutputFileType(OutputType.BLOCK_COMPRESSED_VCF).build();
-
-		String par1 = FileUtil.path(chunksDir, X_PAR1 + ".vcf.gz");
-		VariantContextWriter vcfChunkWriterPar1 = new VariantContextWriterBuilder().setOutputFile(par1)
-				.setOption(Options.INDEX_ON_THE_FLY).setOption(Options.ALLOW_MISSING_FIELDS_IN_HEADER)
-				.setOutputFileType(OutputType.BLOCK_COMPRESSED_VCF).build();
-
-		String par2 = FileUtil.path(chunksDir, X_PAR2 + ".vcf.gz");
-		VariantContextWriter vcfChunkWriterPar2 = new VariantContextWriterBuilder().setOutputFile(par2)
-				.setOption(Options.INDEX_ON_THE_FLY).setOption(Options.ALLOW_MISSING_FIELDS_IN_HEADER)
-				.setOutputFileType(OutputType.BLOCK_COMPRESSED_VCF).build();
-
-		VCFFileReader vcfReader = new VCFFileReader(new File(filename), true);
-
-		VCFHeader header = vcfReader.getFileHeader();
-		vcfChunkWriterNonPar.writeHeader(header);
-		vcfChunkWriterPar1.writeHeader(header);
-		vcfChunkWriterPar2.writeHeader(header);
-
+		String nonPar = FileUtil.path(chunksDir, chrXPrefix + X_NON_PAR + ".vcf.gz");
+		String par1 = FileUtil.path(chunksDir, chrXPrefix + X_PAR1 + ".vcf.gz");
+		String par2 = FileUtil.path(chunksDir, chrXPrefix + X_PAR2 + ".vcf.gz");
+
+		// indices are created when the splits are loaded
+		FileUtil.deleteFile(nonPar + ".tbi");
+		FileUtil.deleteFile(par1 + ".tbi");
+		FileUtil.deleteFile(par2 + ".tbi");
+
+		BGzipLineWriter vcfChunkWriterNonPar = new BGzipLineWriter(nonPar, false, compressionThreads,
+				compressionLevel);
+		BGzipLineWriter vcfChunkWriterPar1 = new BGzipLineWriter(par1, false, compressionThreads,
+				compressionLevel);
+		BGzipLineWriter vcfChunkWriterPar2 = new BGzipLineWriter(par2, false, compressionThreads,
+				compressionLevel);
+
+		String[] samples = new String[0];
+		int[] ploidy = null;
+		boolean[] mixed = null;
 		int mixedGenotypes[] = null;
 		int count = 0;
 
@@ -662,42 +914,68 @@ public class StatisticsTask implements ITask {
 			nonParEnd = 155701383;
 		}
 
-		VCFCodec codec = new VCFCodec();
-		codec.setVCFHeader(vcfReader.getFileHeader(), VCFHeaderVersion.VCF4_1);
-		LineReader reader = new LineReader(filename);
+		VCFLineByteParser parser = new VCFLineByteParser(0);
+		VcfLineByteReader reader = new VcfLineByteReader(VcfFileUtil.openInputStream(filename, decompressionThreads));
 
-		while (reader.next()) {
+		try {
+
+			while (reader.next()) {
+
+				byte[] buffer = reader.getBuffer();
+				int offset = reader.getLineOffset();
+				int length = reader.getLineLength();
 
-			String lineString = reader.get();
+				if (length == 0) {
+					continue;
+				}
+
+				String lineString = new String(buffer, offset, length, StandardCharsets.UTF_8);
+
+				if (lineString.startsWith("#")) {
 
-			if (!lineString.startsWith("#")) {
+					if (lineString.startsWith("#CHROM")) {
+						String[] tiles = lineString.split("\t");
+						samples = new String[Math.max(tiles.length - 9, 0)];
+						System.arraycopy(tiles, tiles.length - samples.length, samples, 0, samples.length);
+						ploidy = new int[samples.length];
+						mixed = new boolean[samples.length];
+					}
+
+					vcfChunkWriterNonPar.write(lineString);
+					vcfChunkWriterPar1.write(lineString);
+					vcfChunkWriterPar2.write(lineString);
+					continue;
+
+				}
 
 				String tiles[] = lineString.split("\t", 6);
+				if (tiles.length < 6) {
+					throw new IOException("The provided VCF file is not correct tab-delimited");
+				}
+				String contig = tiles[0];
+				int position = Integer.parseInt(tiles[1]);
 				String ref = tiles[3];
 				String alt = tiles[4];
 
 				// filter invalid alleles
 				if (!GenomicTools.isValid(ref) || !GenomicTools.isValid(alt)) {
-					excludedSnpsWriter.write(tiles[0] + ":" + tiles[1] + ":" + ref + ":" + alt);
+					excludedSnpsWriter.write(contig + ":" + tiles[1] + ":" + ref + ":" + alt);
 					invalidAlleles++;
 					filtered++;
 					continue;
 				}
 
-				// now decode, since it's a valid VCF
-				VariantContext line = codec.decode(lineString);
-
-				if (line.getContig().equals("23")) {
-					line = new VariantContextBuilder(line).chr("X").make();
+				if (contig.equals("23")) {
+					contig = "X";
+					lineString = contig + lineString.substring(2);
+				} else if (contig.equals("chr23")) {
+					contig = "chrX";
+					lineString = contig + lineString.substring(5);
 				}
 
-				else if (line.getContig().equals("chr23")) {
-					line = new VariantContextBuilder(line).chr("chrX").make();
-				}
-
-				if (line.getStart() < nonParStart) {
+				if (position < nonParStart) {
 
-					vcfChunkWriterPar1.add(line);
+					vcfChunkWriterPar1.write(lineString);
 
 					if (!paths.contains(par1)) {
 						paths.add(par1);
@@ -705,15 +983,31 @@ public class StatisticsTask implements ITask {
 
 				}
 
-				else if (line.getStart() >= nonParStart && line.getStart() <= nonParEnd) {
+				else if (position >= nonParStart && position <= nonParEnd) {
 
 					count++;
 
-					checkPloidy(header.getGenotypeSamples(), line, phased, chrXInfoWriter, hapSamples);
+					if (ploidy == null) {
+						throw new IOException("The provided VCF file has no header.");
+					}
+
+					int nSamples = parser.scanGenotypes(buffer, offset, length, ploidy, mixed);
+					if (nSamples != samples.length) {
+						throw new IOException("Line " + contig + ":" + position + ": different number of samples.");
+					}
 
-					mixedGenotypes = checkMixedGenotypes(mixedGenotypes, line);
+					checkPloidy(samples, ploidy, contig, position, chrXInfoWriter, hapSamples);
 
-					vcfChunkWriterNonPar.add(line);
+					if (mixedGenotypes == null) {
+						mixedGenotypes = new int[nSamples];
+					}
+					for (int i = 0; i < nSamples; i++) {
+						if (mixed[i]) {
+							mixedGenotypes[i]++;
+						}
+					}
+
+					vcfChunkWriterNonPar.write(lineString);
 
 					if (!paths.contains(nonPar)) {
 						paths.add(nonPar);
@@ -723,7 +1017,7 @@ public class StatisticsTask implements ITask {
 
 				else {
 
-					vcfChunkWriterPar2.add(line);
+					vcfChunkWriterPar2.write(lineString);
 
 					if (!paths.contains(par2)) {
 						paths.add(par2);
@@ -733,6 +1027,14 @@ public class StatisticsTask implements ITask {
 
 			}
 
+		} finally {
+
+			reader.close();
+
+			vcfChunkWriterPar1.close();
+			vcfChunkWriterPar2.close();
+			vcfChunkWriterNonPar.close();
+
 		}
 
 		if (mixedGenotypes != null) {
@@ -746,59 +1048,30 @@ public class StatisticsTask implements ITask {
 			}
 		}
 
-		vcfReader.close();
-		reader.close();
-
-		vcfChunkWriterPar1.close();
-		vcfChunkWriterPar2.close();
-		vcfChunkWriterNonPar.close();
-
 		return paths;
 	}
 
-	// mixed genotype: ./1; 1/.;
-	private int[] checkMixedGenotypes(int[] mixedGenotypes, VariantContext line) {
-
-		if (mixedGenotypes == null) {
-
-			mixedGenotypes = new int[line.getNSamples()];
-			for (int i = 0; i < line.getNSamples(); i++) {
-				mixedGenotypes[i] = 0;
-			}
-		}
-
-		for (int i = 0; i < line.getNSamples(); i++) {
-			Genotype genotype = line.getGenotype(i);
-
-			if (genotype.isMixed()) {
-				mixedGenotypes[i] += 1;
-			}
-
-		}
-		return mixedGenotypes;
-	}
-
-	public void checkPloidy(List<String> samples, VariantContext snp, boolean isPhased, LineWriter chrXInfoWriter,
-			HashSet<String> hapSamples) throws IOException {
+	private void checkPloidy(String[] samples, int[] ploidy, String contig, int position,
+			LineWriter chrXInfoWriter, Set<String> hapSamples) throws IOException {
 
-		for (final String name : samples) {
+		for (int i = 0; i < samples.length; i++) {
 
-			Genotype genotype = snp.getGenotype(name);
+			String name = samples[i];
 
-			if (hapSamples.contains(name) && genotype.getPloidy() != 1) {
-				chrXInfoWriter.write(name + "\t" + snp.getContig() + ":" + snp.getStart());
+			if (ploidy[i] != 1 && hapSamples.contains(name)) {
+				chrXInfoWriter.write(name + "\t" + contig + ":" + position);
 				this.chrXPloidyError = true;
 
 			}
 
-			if (genotype.getPloidy() == 1) {
+			if (ploidy[i] == 1) {
 				hapSamples.add(name);
 			}
 
 		}
 	}
 
-	private LegendFileReader getReader(String _chromosome) throws IOException, InterruptedException {
+	private ILegendReader getReader(String _chromosome) throws IOException, InterruptedException {
 
 		// one file for all chrX legends
 		if (VcfFileUtil.isChrX(_chromosome)) {
@@ -814,11 +1087,35 @@ public class StatisticsTask implements ITask {
 
 		}
 
-		LegendFileReader legendReader = new LegendFileReader(myLegendFile, population);
-		legendReader.createIndex();
-		legendReader.initSearch();
+		LegendIndexCache cache = LegendIndexCache.getInstance();
+
+		// use compiled legend file of the reference panel, outdated files are
+		// ignored
+		if (legendIndex != null) {
+			String myLegendIndex = FileUtil.path(legendIndex.replaceAll("\\$chr", _chromosome));
+			if (LegendIndex.isAvailable(myLegendFile, myLegendIndex)) {
+				if (cache.isEnabled()) {
+					return cache.open(myLegendIndex, population, true);
+				}
+				return new LegendIndex(myLegendIndex, population);
+			}
+		}
+
+		// use precomputed binary index if available
+		if (LegendIndex.isAvailable(myLegendFile)) {
+			if (cache.isEnabled()) {
+				return cache.open(LegendIndex.getIndexFilename(myLegendFile), population, true);
+			}
+			return new LegendIndex(LegendIndex.getIndexFilename(myLegendFile), population);
+		}
 
-		return legendReader;
+		// parse legend file once and share it with other jobs
+		if (cache.isEnabled()) {
+			return cache.open(myLegendFile, population, false);
+		}
+
+		// vcf file and legend file are sorted: merge instead of building an index
+		return new LegendFileCursor(myLegendFile, population, decompressionThreads);
 
 	}
 
@@ -854,6 +1151,10 @@ public class StatisticsTask implements ITask {
 		this.legendFile = legendFile;
 	}
 
+	public void setLegendIndex(String legendIndex) {
+		this.legendIndex = legendIndex;
+	}
+
 	public void setRefSamples(int refSamples) {
 		this.refSamples = refSamples;
 	}
@@ -1032,6 +1333,101 @@ public class StatisticsTask implements ITask {
 
 	public void setRanges(HashSet<RangeEntry> ranges) {
 		this.ranges = ranges;
+		this.rangeIndex = ranges != null ? new RangeIndex(ranges) : null;
+	}
+
+	public boolean isByteParser() {
+		return byteParser;
+	}
+
+	public void setByteParser(boolean byteParser) {
+		this.byteParser = byteParser;
+	}
+
+	public boolean isRegionReader() {
+		return regionReader;
+	}
+
+	/**
+	 * If true (default), files of panels with ranges are read with their tabix
+	 * index and only records inside the ranges are parsed. Otherwise the whole
+	 * file is scanned.
+	 */
+	public void setRegionReader(boolean regionReader) {
+		this.regionReader = regionReader;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getPipelineThreads() {
+		return pipelineThreads;
+	}
+
+	public void setPipelineThreads(int pipelineThreads) {
+		this.pipelineThreads = pipelineThreads;
+	}
+
+	public int getDecompressionThreads() {
+		return decompressionThreads;
+	}
+
+	public void setDecompressionThreads(int decompressionThreads) {
+		this.decompressionThreads = decompressionThreads;
+	}
+
+	public int getCompressionThreads() {
+		return compressionThreads;
+	}
+
+	public void setCompressionThreads(int compressionThreads) {
+		this.compressionThreads = compressionThreads;
+	}
+
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	public boolean isChunkIndex() {
+		return chunkIndex;
+	}
+
+	/**
+	 * Builds the tabix index of every chunk while it is written, so the
+	 * imputation pipeline needs no extra pass over the chunk.
+	 */
+	public void setChunkIndex(boolean chunkIndex) {
+		this.chunkIndex = chunkIndex;
+	}
+
+	public String getMafFormat() {
+		return mafFormat;
+	}
+
+	/**
+	 * Sets the format of the maf file: text (mafFile), binary (mafFile +
+	 * ".bin", see {@link MafBinaryWriter}) or both. The report reads the
+	 * binary file if available. In binary mode the text file stays empty.
+	 */
+	public void setMafFormat(String mafFormat) {
+		this.mafFormat = mafFormat;
+	}
+
+	private boolean isMafText() {
+		return !MAF_FORMAT_BINARY.equals(mafFormat);
+	}
+
+	private boolean isMafBinary() {
+		return MAF_FORMAT_BINARY.equals(mafFormat) || MAF_FORMAT_BOTH.equals(mafFormat);
 	}
 
 }
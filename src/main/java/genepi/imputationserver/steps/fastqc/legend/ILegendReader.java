@@ -0,0 +1,11 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import java.io.IOException;
+
+public interface ILegendReader {
+
+	public LegendEntry findByPosition(int position) throws IOException;
+
+	public void close() throws IOException;
+
+}
@@ -0,0 +1,189 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import java.io.IOException;
+
+import genepi.imputationserver.steps.vcf.VcfFileUtil;
+import genepi.io.text.LineReader;
+
+/**
+ * Reads a sorted legend file sequentially and answers lookups for ascending
+ * positions (merge-join with a sorted VCF file). Only the current line is
+ * kept in memory. A lookup for a smaller position than the previous one
+ * restarts the scan from the beginning of the file.
+ */
+public class LegendFileCursor implements ILegendReader {
+
+	private String filename;
+
+	private String population;
+
+	private int decompressionThreads = 1;
+
+	private LineReader reader;
+
+	private int idCol = -1;
+	private int posCol = -1;
+	private int a0Col = -1;
+	private int a1Col = -1;
+	private int popCol = -1;
+
+	// next unread line of the legend file
+	private String nextLine = null;
+
+	private int nextPosition = -1;
+
+	// result of the last lookup
+	private int lastPosition = -1;
+
+	private LegendEntry lastEntry = null;
+
+	private LegendEntry entry = new LegendEntry();
+
+	public LegendFileCursor(String filename, String population) throws IOException {
+		this(filename, population, 1);
+	}
+
+	public LegendFileCursor(String filename, String population, int decompressionThreads) throws IOException {
+		this.filename = filename;
+		this.population = population;
+		this.decompressionThreads = decompressionThreads;
+		open();
+	}
+
+	@Override
+	public LegendEntry findByPosition(int position) throws IOException {
+
+		if (position == lastPosition) {
+			return lastEntry;
+		}
+
+		if (position < lastPosition) {
+			reader.close();
+			open();
+		}
+
+		lastPosition = position;
+
+		while (nextLine != null && nextPosition < position) {
+			advance();
+		}
+
+		// duplicates: the last one wins
+		String line = null;
+		while (nextLine != null && nextPosition == position) {
+			line = nextLine;
+			advance();
+		}
+
+		if (line == null) {
+			lastEntry = null;
+			return null;
+		}
+
+		String[] tiles = line.split(" ");
+
+		entry.setRsId(tiles[idCol]);
+		entry.setAlleleA(tiles[a0Col].charAt(0));
+		entry.setAlleleB(tiles[a1Col].charAt(0));
+		entry.setType("-");
+
+		float aaf = 0;
+
+		if (popCol != -1 && !tiles[popCol].equals(".")) {
+			aaf = Float.parseFloat(tiles[popCol]);
+			entry.setFrequencies(true);
+		} else {
+			entry.setFrequencies(false);
+		}
+
+		entry.setFrequencyA(1 - aaf);
+		entry.setFrequencyB(aaf);
+
+		lastEntry = entry;
+		return entry;
+
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private void open() throws IOException {
+
+		reader = VcfFileUtil.createLineReader(filename, decompressionThreads);
+		nextLine = null;
+		nextPosition = -1;
+		lastPosition = -1;
+		lastEntry = null;
+
+		// parse header
+		while (reader.next()) {
+			String line = reader.get();
+			if (line.startsWith("id")) {
+				String[] tiles = line.split(" ");
+				for (int i = 0; i < tiles.length; i++) {
+					String tile = tiles[i];
+					if (tile.equals("id")) {
+						idCol = i;
+					}
+					if (tile.equals("position")) {
+						posCol = i;
+					}
+					if (tile.equals("a0")) {
+						a0Col = i;
+					}
+					if (tile.equals("a1")) {
+						a1Col = i;
+					}
+					if (tile.equals(population + ".aaf")) {
+						popCol = i;
+					}
+				}
+				break;
+			}
+		}
+
+		if (posCol == -1) {
+			throw new IOException("Legend file '" + filename + "' has no position column.");
+		}
+
+		advance();
+
+	}
+
+	private void advance() throws IOException {
+
+		if (!reader.next()) {
+			nextLine = null;
+			return;
+		}
+
+		nextLine = reader.get();
+		int position = parsePosition(nextLine);
+
+		if (position < nextPosition) {
+			throw new IOException("Legend File is not sorted.");
+		}
+
+		nextPosition = position;
+
+	}
+
+	// parses the position column without splitting the whole line
+	private int parsePosition(String line) throws IOException {
+		int start = 0;
+		for (int i = 0; i < posCol; i++) {
+			start = line.indexOf(' ', start) + 1;
+			if (start == 0) {
+				throw new IOException("Legend file '" + filename + "': invalid line '" + line + "'");
+			}
+		}
+		int end = line.indexOf(' ', start);
+		if (end == -1) {
+			end = line.length();
+		}
+		return Integer.parseInt(line.substring(start, end));
+	}
+
+}
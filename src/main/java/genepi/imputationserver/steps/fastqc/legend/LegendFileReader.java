@@ -15,7 +15,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
-public class LegendFileReader extends AbstractLineReader<String> {
+public class LegendFileReader extends AbstractLineReader<String> implements ILegendReader {
 
 	private Map<Integer, Integer> index = new HashMap<Integer, Integer>();
 
@@ -116,6 +116,7 @@ public class LegendFileReader extends AbstractLineReader<String> {
 		myIn = new BufferedReader(new InputStreamReader(in2));
 	}
 
+	@Override
 	public LegendEntry findByPosition(int position) throws IOException {
 
 		String line = findLineByPosition(position);
@@ -0,0 +1,456 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import genepi.io.FileUtil;
+import genepi.io.text.LineReader;
+
+/**
+ * Binary, memory-mapped index of a legend file. The file stores all positions
+ * as a sorted int column, both alleles packed in one byte and one float
+ * column with the alternate allele frequency of each population.
+ * <p>
+ * Layout: magic, version, number of sites, number of populations, population
+ * names, positions (int[n]), alleles (byte[n], padded to 4 bytes), one
+ * float[n] per population (NaN if not available).
+ * <p>
+ * An index is not thread-safe, but {@link #LegendIndex(LegendIndex)} creates
+ * a cheap view that shares the columns with the original index.
+ */
+public class LegendIndex implements ILegendReader {
+
+	public static final String EXTENSION = ".lidx";
+
+	private static final int MAGIC = 0x4c474958; // LGIX
+
+	private static final int VERSION = 1;
+
+	// alleles are encoded in four bits, all other characters are stored as
+	// UNKNOWN
+	private static final String ALLELES = "ACGTN-.*<DIacgt";
+
+	private static final char UNKNOWN = '?';
+
+	private static final int NO_POPULATION = -1;
+
+	private String filename;
+
+	private int size;
+
+	private List<String> populations = new Vector<String>();
+
+	private IntBuffer positions;
+
+	private ByteBuffer alleles;
+
+	private FloatBuffer frequencies;
+
+	private LegendEntry entry = new LegendEntry();
+
+	private int lastIndex = -1;
+
+	private LegendIndex() {
+
+	}
+
+	/**
+	 * Creates a new reader that shares all columns with the given index.
+	 */
+	public LegendIndex(LegendIndex index) {
+		filename = index.filename;
+		size = index.size;
+		populations = index.populations;
+		positions = index.positions.duplicate();
+		alleles = index.alleles.duplicate();
+		if (index.frequencies != null) {
+			frequencies = index.frequencies.duplicate();
+		}
+	}
+
+	public LegendIndex(String filename, String population) throws IOException {
+
+		this.filename = filename;
+
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+
+			FileChannel channel = file.getChannel();
+
+			if (file.readInt() != MAGIC) {
+				throw new IOException("File '" + filename + "' is not a legend index.");
+			}
+			int version = file.readInt();
+			if (version != VERSION) {
+				throw new IOException("Legend index '" + filename + "' has unsupported version " + version + ".");
+			}
+
+			size = file.readInt();
+			int populationCount = file.readInt();
+			for (int i = 0; i < populationCount; i++) {
+				populations.add(file.readUTF());
+			}
+
+			long positionsOffset = file.getFilePointer();
+			long allelesOffset = positionsOffset + 4L * size;
+			long frequenciesOffset = allelesOffset + padding(size);
+
+			positions = channel.map(MapMode.READ_ONLY, positionsOffset, 4L * size).asIntBuffer();
+			alleles = channel.map(MapMode.READ_ONLY, allelesOffset, size);
+
+			int column = population != null ? populations.indexOf(population) : NO_POPULATION;
+			if (column != NO_POPULATION) {
+				frequencies = channel.map(MapMode.READ_ONLY, frequenciesOffset + 4L * size * column, 4L * size)
+						.asFloatBuffer();
+			}
+
+		} finally {
+			// mapped buffers stay valid after the channel is closed
+			file.close();
+		}
+
+	}
+
+	/**
+	 * Returns the index file of the given legend file.
+	 */
+	public static String getIndexFilename(String legendFilename) {
+		return legendFilename + EXTENSION;
+	}
+
+	/**
+	 * Returns true if an index exists for the legend file and it is newer than
+	 * the legend file.
+	 */
+	public static boolean isAvailable(String legendFilename) {
+		return isAvailable(legendFilename, getIndexFilename(legendFilename));
+	}
+
+	/**
+	 * Returns true if the index file exists and it is newer than the legend
+	 * file. Older indexes were built from an outdated legend file.
+	 */
+	public static boolean isAvailable(String legendFilename, String indexFilename) {
+		File legend = new File(legendFilename);
+		File index = new File(indexFilename);
+		return index.exists() && index.lastModified() >= legend.lastModified();
+	}
+
+	@Override
+	public LegendEntry findByPosition(int position) {
+
+		int index = findIndex(position);
+
+		if (index < 0) {
+			return null;
+		}
+
+		if (index != lastIndex) {
+
+			byte packed = alleles.get(index);
+			entry.setRsId(null);
+			entry.setAlleleA(decode((packed >> 4) & 0x0f));
+			entry.setAlleleB(decode(packed & 0x0f));
+			entry.setType("-");
+
+			float aaf = 0;
+			if (frequencies != null && !Float.isNaN(frequencies.get(index))) {
+				aaf = frequencies.get(index);
+				entry.setFrequencies(true);
+			} else {
+				entry.setFrequencies(false);
+			}
+			entry.setFrequencyA(1 - aaf);
+			entry.setFrequencyB(aaf);
+
+			lastIndex = index;
+
+		}
+
+		return entry;
+
+	}
+
+	/**
+	 * Returns the index of the last site with this position or -1.
+	 */
+	public int findIndex(int position) {
+
+		int low = 0;
+		int high = size - 1;
+		int found = -1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int value = positions.get(middle);
+			if (value < position) {
+				low = middle + 1;
+			} else if (value > position) {
+				high = middle - 1;
+			} else {
+				// duplicates: the last one wins
+				found = middle;
+				low = middle + 1;
+			}
+		}
+
+		return found;
+
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of bytes used by the columns of this index.
+	 */
+	public long getMemorySize() {
+		return (long) size * (frequencies != null ? 9 : 5);
+	}
+
+	public List<String> getPopulations() {
+		return populations;
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	@Override
+	public void close() {
+		// mapped memory is released by the garbage collector
+		lastIndex = -1;
+	}
+
+	/**
+	 * Parses a (gzipped) legend file into an in-memory index. Only the
+	 * frequencies of the population are parsed, all columns are trimmed to the
+	 * number of sites.
+	 */
+	public static LegendIndex load(String legendFilename, String population) throws IOException {
+
+		LegendColumns columns = parse(legendFilename, population, false);
+
+		LegendIndex index = new LegendIndex();
+		index.filename = legendFilename;
+		index.size = columns.size;
+		index.populations = columns.populations;
+		index.positions = IntBuffer.wrap(Arrays.copyOf(columns.positions, columns.size));
+		index.alleles = ByteBuffer.wrap(Arrays.copyOf(columns.alleles, columns.size));
+		if (columns.frequencies.length > 0) {
+			index.frequencies = FloatBuffer.wrap(Arrays.copyOf(columns.frequencies[0], columns.size));
+		}
+		return index;
+
+	}
+
+	/**
+	 * Creates a binary index from a (gzipped) legend file.
+	 */
+	public static void build(String legendFilename, String indexFilename) throws IOException {
+
+		LegendColumns columns = parse(legendFilename, null, true);
+		int size = columns.size;
+		int[] positions = columns.positions;
+		byte[] alleles = columns.alleles;
+		float[][] frequencies = columns.frequencies;
+		List<String> populations = columns.populations;
+
+		// write to temp file first, concurrent jobs should never see a
+		// partial index
+		String tempFilename = indexFilename + ".tmp";
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tempFilename), 1024 * 1024));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(size);
+		out.writeInt(populations.size());
+		for (String population : populations) {
+			out.writeUTF(population);
+		}
+		for (int i = 0; i < size; i++) {
+			out.writeInt(positions[i]);
+		}
+		out.write(alleles, 0, size);
+		for (int i = size; i < padding(size); i++) {
+			out.writeByte(0);
+		}
+		for (int i = 0; i < frequencies.length; i++) {
+			for (int j = 0; j < size; j++) {
+				out.writeFloat(frequencies[i][j]);
+			}
+		}
+		out.close();
+
+		File indexFile = new File(indexFilename);
+		FileUtil.deleteFile(indexFilename);
+		if (!new File(tempFilename).renameTo(indexFile)) {
+			throw new IOException("Could not write legend index '" + indexFilename + "'.");
+		}
+
+	}
+
+	// parses the frequencies of all populations or only of the given one
+	private static LegendColumns parse(String legendFilename, String population, boolean allPopulations)
+			throws IOException {
+
+		LineReader reader = new LineReader(legendFilename);
+
+		int posCol = -1;
+		int a0Col = -1;
+		int a1Col = -1;
+		List<String> populations = new Vector<String>();
+		List<Integer> populationCols = new Vector<Integer>();
+
+		int size = 0;
+		int[] positions = new int[1024 * 1024];
+		byte[] alleles = new byte[positions.length];
+		float[][] frequencies = null;
+
+		int oldPosition = -1;
+
+		while (reader.next()) {
+
+			String line = reader.get();
+
+			if (line.startsWith("id")) {
+
+				// parse header
+				String[] tiles = line.split(" ");
+				for (int i = 0; i < tiles.length; i++) {
+					String tile = tiles[i];
+					if (tile.equals("position")) {
+						posCol = i;
+					}
+					if (tile.equals("a0")) {
+						a0Col = i;
+					}
+					if (tile.equals("a1")) {
+						a1Col = i;
+					}
+					if (tile.endsWith(".aaf")) {
+						String name = tile.substring(0, tile.length() - ".aaf".length());
+						populations.add(name);
+						if (allPopulations || name.equals(population)) {
+							populationCols.add(i);
+						}
+					}
+				}
+
+				if (posCol == -1 || a0Col == -1 || a1Col == -1) {
+					reader.close();
+					throw new IOException("Legend file '" + legendFilename + "' has no position, a0 or a1 column.");
+				}
+
+				frequencies = new float[populationCols.size()][positions.length];
+				continue;
+
+			}
+
+			if (frequencies == null) {
+				reader.close();
+				throw new IOException("Legend file '" + legendFilename + "' has no header.");
+			}
+
+			String[] tiles = line.split(" ");
+			int position = Integer.parseInt(tiles[posCol]);
+			if (oldPosition > position) {
+				reader.close();
+				throw new IOException("Legend File is not sorted.");
+			}
+			oldPosition = position;
+
+			if (size == positions.length) {
+				int capacity = positions.length * 2;
+				positions = grow(positions, capacity);
+				alleles = grow(alleles, capacity);
+				for (int i = 0; i < frequencies.length; i++) {
+					frequencies[i] = grow(frequencies[i], capacity);
+				}
+			}
+
+			positions[size] = position;
+			alleles[size] = (byte) ((encode(tiles[a0Col].charAt(0)) << 4) | encode(tiles[a1Col].charAt(0)));
+			for (int i = 0; i < frequencies.length; i++) {
+				String value = tiles[populationCols.get(i)];
+				frequencies[i][size] = value.equals(".") ? Float.NaN : Float.parseFloat(value);
+			}
+			size++;
+
+		}
+		reader.close();
+
+		if (frequencies == null) {
+			throw new IOException("Legend file '" + legendFilename + "' has no header.");
+		}
+
+		LegendColumns columns = new LegendColumns();
+		columns.size = size;
+		columns.positions = positions;
+		columns.alleles = alleles;
+		columns.frequencies = frequencies;
+		columns.populations = populations;
+		return columns;
+
+	}
+
+	private static int padding(int size) {
+		return (size + 3) & ~3;
+	}
+
+	private static int encode(char allele) {
+		int code = ALLELES.indexOf(allele);
+		return code != -1 ? code : ALLELES.length();
+	}
+
+	private static char decode(int code) {
+		return code < ALLELES.length() ? ALLELES.charAt(code) : UNKNOWN;
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		int[] result = new int[capacity];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	private static byte[] grow(byte[] array, int capacity) {
+		byte[] result = new byte[capacity];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	private static float[] grow(float[] array, int capacity) {
+		float[] result = new float[capacity];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	static class LegendColumns {
+
+		private int size;
+
+		private int[] positions;
+
+		private byte[] alleles;
+
+		// one column per parsed population
+		private float[][] frequencies;
+
+		private List<String> populations;
+
+	}
+
+}
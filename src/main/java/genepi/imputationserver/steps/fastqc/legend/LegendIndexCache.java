@@ -0,0 +1,176 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Process-wide cache of legend indexes. Concurrent QC runs against the same
+ * reference panel share one index per legend file and population. Entries
+ * are reference counted and only evicted (least recently used first) if they
+ * are not in use and the cache exceeds its size limit.
+ */
+public class LegendIndexCache {
+
+	private static LegendIndexCache instance = null;
+
+	private long maxSize = 0;
+
+	private long size = 0;
+
+	// access-ordered: first entry is the least recently used
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	public static synchronized LegendIndexCache getInstance() {
+		if (instance == null) {
+			instance = new LegendIndexCache();
+		}
+		return instance;
+	}
+
+	public synchronized void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		evict();
+	}
+
+	/**
+	 * Increases the size limit if the given limit is larger. Jobs with
+	 * different settings share the cache, so a job never shrinks it.
+	 */
+	public synchronized void ensureMaxSize(long maxSize) {
+		if (maxSize > this.maxSize) {
+			setMaxSize(maxSize);
+		}
+	}
+
+	public synchronized long getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized int getEntries() {
+		return entries.size();
+	}
+
+	public boolean isEnabled() {
+		return getMaxSize() > 0;
+	}
+
+	/**
+	 * Returns a reader for the legend file. The file is either a compiled
+	 * legend index (memory-mapped) or a text legend file (parsed into memory).
+	 * The reader has to be closed to release the index.
+	 */
+	public ILegendReader open(String filename, String population, boolean compiled) throws IOException {
+
+		File file = new File(filename);
+		String key = file.getAbsolutePath() + "|" + population + "|" + file.lastModified();
+
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null) {
+				entry = new Entry(key);
+				entries.put(key, entry);
+			}
+			entry.references++;
+		}
+
+		LegendIndex index;
+		try {
+			// only one thread loads an index, others wait for it
+			synchronized (entry) {
+				if (entry.index == null) {
+					if (compiled) {
+						entry.index = new LegendIndex(filename, population);
+					} else {
+						entry.index = LegendIndex.load(filename, population);
+					}
+					synchronized (this) {
+						size += entry.index.getMemorySize();
+					}
+				}
+				index = entry.index;
+			}
+		} catch (IOException e) {
+			release(entry);
+			throw e;
+		}
+
+		synchronized (this) {
+			evict();
+		}
+
+		return new CachedLegendReader(new LegendIndex(index), entry);
+
+	}
+
+	private synchronized void release(Entry entry) {
+		entry.references--;
+		if (entry.index == null && entry.references == 0) {
+			// loading failed
+			entries.remove(entry.key);
+		}
+		evict();
+	}
+
+	// removes unused entries until the cache fits into maxSize
+	private void evict() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (size > maxSize && iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (entry.references == 0 && entry.index != null) {
+				size -= entry.index.getMemorySize();
+				iterator.remove();
+			}
+		}
+	}
+
+	static class Entry {
+
+		private String key;
+
+		private LegendIndex index;
+
+		private int references = 0;
+
+		public Entry(String key) {
+			this.key = key;
+		}
+
+	}
+
+	class CachedLegendReader implements ILegendReader {
+
+		private LegendIndex index;
+
+		private Entry entry;
+
+		private boolean closed = false;
+
+		public CachedLegendReader(LegendIndex index, Entry entry) {
+			this.index = index;
+			this.entry = entry;
+		}
+
+		@Override
+		public LegendEntry findByPosition(int position) throws IOException {
+			return index.findByPosition(position);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				index.close();
+				release(entry);
+			}
+		}
+
+	}
+
+}
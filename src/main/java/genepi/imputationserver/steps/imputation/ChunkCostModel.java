@@ -0,0 +1,87 @@
+package genepi.imputationserver.steps.imputation;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Vector;
+
+import genepi.imputationserver.steps.vcf.VcfChunk;
+
+/**
+ * Estimates the runtime of a chunk. Phasing scales with the typed sites,
+ * imputation with the reference sites of the chunk region (panel density
+ * times chunk length), both scale with the number of samples. Map tasks
+ * are scheduled by decreasing cost, so the long running tasks (e.g. chr1) do
+ * not start last.
+ */
+public class ChunkCostModel {
+
+	private int samples;
+
+	private double panelDensity;
+
+	/**
+	 * @param panelDensity
+	 *            reference panel sites per base pair
+	 */
+	public ChunkCostModel(int samples, double panelDensity) {
+		this.samples = samples;
+		this.panelDensity = panelDensity;
+	}
+
+	public double getCost(VcfChunk chunk) {
+		// chunk files without statistics: fall back to all snps
+		int sites = chunk.getInReference() > 0 ? chunk.getInReference() : chunk.getSnps();
+		double referenceSites = panelDensity * (chunk.getEnd() - chunk.getStart() + 1);
+		return (double) samples * (sites + referenceSites);
+	}
+
+	public double getCost(List<VcfChunk> chunks) {
+		double cost = 0;
+		for (VcfChunk chunk : chunks) {
+			cost += getCost(chunk);
+		}
+		return cost;
+	}
+
+	/**
+	 * Splits the chunks of a chromosome into map tasks of consecutive chunks
+	 * (ordered by position), so adjacent chunks stay in the same task.
+	 */
+	public List<List<VcfChunk>> createTasks(List<VcfChunk> chunks, int chunksPerTask) {
+		List<VcfChunk> sorted = new Vector<VcfChunk>(chunks);
+		Collections.sort(sorted, new PositionComparator());
+		int size = Math.max(chunksPerTask, 1);
+		List<List<VcfChunk>> tasks = new Vector<List<VcfChunk>>();
+		for (int i = 0; i < sorted.size(); i += size) {
+			tasks.add(new Vector<VcfChunk>(sorted.subList(i, Math.min(i + size, sorted.size()))));
+		}
+		return tasks;
+	}
+
+	/**
+	 * Sorts the tasks by decreasing cost.
+	 */
+	public void sort(List<List<VcfChunk>> tasks) {
+		Collections.sort(tasks, new CostComparator());
+	}
+
+	class CostComparator implements Comparator<List<VcfChunk>> {
+
+		@Override
+		public int compare(List<VcfChunk> o1, List<VcfChunk> o2) {
+			return Double.compare(getCost(o2), getCost(o1));
+		}
+
+	}
+
+	static class PositionComparator implements Comparator<VcfChunk> {
+
+		@Override
+		public int compare(VcfChunk o1, VcfChunk o2) {
+			return Integer.compare(o1.getStart(), o2.getStart());
+		}
+
+	}
+
+}
@@ -1,7 +1,10 @@
 package genepi.imputationserver.steps.imputation;
 
 import java.io.IOException;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.Vector;
 
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.io.Text;
@@ -33,6 +36,13 @@ public class ImputationJob extends HadoopJob {
 
 	public static final String PHASING_ONLY = "PHASING_ONLY";
 
+	public static final String CHROMOSOMES = "MINIMAC_CHROMOSOMES";
+
+	public static final String CHROMOSOMES_PHASING = "MINIMAC_CHROMOSOMES_PHASING";
+
+	// marks a chrX region that failed in a job for all chromosomes
+	public static final String FAILED_REGION_SUFFIX = ".failed";
+
 	private String refPanelHdfs;
 
 	private String logFilename;
@@ -45,6 +55,13 @@ public class ImputationJob extends HadoopJob {
 
 	private String binariesHDFS;
 
+	private int chunksPerTask = 1;
+
+	// one job for all chromosomes, reference panels are patterns with $chr
+	private List<String> chromosomes = new Vector<String>();
+
+	private List<String> chromosomesPhasing = new Vector<String>();
+
 	public ImputationJob(String name, Log log) {
 		super(name, log);
 		set("mapred.task.timeout", "10368000000");
@@ -60,7 +77,8 @@ public class ImputationJob extends HadoopJob {
 	@Override
 	public void setupJob(Job job) {
 
-		NLineInputFormat.setNumLinesPerSplit(job, 1);
+		// adjacent chunks share the setup of one map task
+		NLineInputFormat.setNumLinesPerSplit(job, chunksPerTask);
 
 		job.setMapperClass(ImputationMapper.class);
 		job.setInputFormatClass(NLineInputFormat.class);
@@ -89,12 +107,14 @@ public class ImputationJob extends HadoopJob {
 		distribute(binariesHDFS, cache);
 
 		// distributed refpanels
-		if (HdfsUtil.exists(refPanelHdfs)) {
-			log.info("Add Minimac reference panel  " + refPanelHdfs + " to distributed cache...");
-			cache.addFile(refPanelHdfs);
-		} else {
-			log.error("Minimac reference panel " + refPanelHdfs + " not found.");
-			throw new IOException("Minimac reference panel " + refPanelHdfs + " not found.");
+		for (String refPanel : resolve(refPanelHdfs, chromosomes)) {
+			if (HdfsUtil.exists(refPanel)) {
+				log.info("Add Minimac reference panel  " + refPanel + " to distributed cache...");
+				cache.addFile(refPanel);
+			} else {
+				log.error("Minimac reference panel " + refPanel + " not found.");
+				throw new IOException("Minimac reference panel " + refPanel + " not found.");
+			}
 		}
 
 		// add minimac map file to cache
@@ -120,17 +140,37 @@ public class ImputationJob extends HadoopJob {
 
 		// add Eagle Refpanel File for this chromosome to cache
 		if (refPanelEagleHDFS != null) {
-			if (!HdfsUtil.exists(refPanelEagleHDFS)) {
-				throw new IOException("Eagle Reference Panel " + refPanelEagleHDFS + " not found.");
+			for (String refPanelEagle : resolve(refPanelEagleHDFS, chromosomesPhasing)) {
+				if (!HdfsUtil.exists(refPanelEagle)) {
+					throw new IOException("Eagle Reference Panel " + refPanelEagle + " not found.");
+				}
+				log.info("Add Eagle reference  " + refPanelEagle + " do distributed cache...");
+				cache.addFile(refPanelEagle);
+				log.info("Add Eagle reference  index " + refPanelEagle + ".csi to distributed cache...");
+				cache.addFile(refPanelEagle + ".csi");
 			}
-			log.info("Add Eagle reference  " + refPanelEagleHDFS + " do distributed cache...");
-			cache.addFile(refPanelEagleHDFS);
-			log.info("Add Eagle reference  index " + refPanelEagleHDFS + ".csi to distributed cache...");
-			cache.addFile(refPanelEagleHDFS + ".csi");
 		}
 
 	}
 
+	// all files of a pattern, chromosomes can share a file (e.g. X regions)
+	private Set<String> resolve(String pattern, List<String> selected) {
+		Set<String> files = new LinkedHashSet<String>();
+		if (chromosomes.isEmpty()) {
+			// job for a single chromosome
+			files.add(pattern);
+			return files;
+		}
+		for (String chromosome : selected) {
+			files.add(resolvePattern(pattern, chromosome));
+		}
+		return files;
+	}
+
+	public static String resolvePattern(String pattern, String chr) {
+		return pattern.replaceAll("\\$chr", chr);
+	}
+
 	protected void distribute(String hdfs, CacheStore cache) throws IOException {
 		if (HdfsUtil.exists(hdfs)) {
 			List<String> files = HdfsUtil.getFiles(hdfs, "");
@@ -209,4 +249,21 @@ public class ImputationJob extends HadoopJob {
 		this.binariesHDFS = binariesHDFS;
 	}
 
+	public void setChunksPerTask(int chunksPerTask) {
+		this.chunksPerTask = chunksPerTask;
+	}
+
+	/**
+	 * Adds a chromosome to a job over several chromosomes. Reference panel
+	 * locations are resolved per chromosome by the mapper.
+	 */
+	public void addChromosome(String chromosome, boolean phasing) {
+		chromosomes.add(chromosome);
+		set(CHROMOSOMES, String.join(",", chromosomes));
+		if (phasing) {
+			chromosomesPhasing.add(chromosome);
+			set(CHROMOSOMES_PHASING, String.join(",", chromosomesPhasing));
+		}
+	}
+
 }
\ No newline at end of file
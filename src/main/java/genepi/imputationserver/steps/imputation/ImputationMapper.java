@@ -1,9 +1,18 @@
 package genepi.imputationserver.steps.imputation;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
 
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
@@ -26,25 +35,36 @@ public class ImputationMapper extends Mapper<LongWritable, Text, Text, Text> {
 
 	private ImputationPipeline pipeline;
 
+	// one pipeline per chromosome, if the job imputes all chromosomes
+	private Map<String, ImputationPipeline> pipelines;
+
 	public String folder;
 
 	private String output;
 
-	private String refFilename = "";
-
 	private String mapMinimacFilename;
 
 	private String mapEagleFilename = "";
 
-	private String refEagleFilename = null;
-
 	private String build = "hg19";
 
 	private double minR2 = 0;
 
 	private boolean phasingOnly = false;
 
-	private String refEagleIndexFilename;
+	private String minimacCommand;
+
+	private String minimacParams;
+
+	private String eagleCommand;
+
+	private String eagleParams;
+
+	private int phasingWindow;
+
+	private int minimacWindow;
+
+	private CacheStore cache;
 
 	private boolean debugging;
 
@@ -52,11 +72,19 @@ public class ImputationMapper extends Mapper<LongWritable, Text, Text, Text> {
 
 	private String hdfsPath;
 
+	private String jobName;
+
+	private StagedExecutor<ChunkTask> executor;
+
+	// failed chrX regions, their chunks are skipped
+	private Set<String> failedRegions = Collections.synchronizedSet(new HashSet<String>());
+
 	protected void setup(Context context) throws IOException, InterruptedException {
 
 		HdfsUtil.setDefaultConfiguration(context.getConfiguration());
 
 		log = new Log(context);
+		jobName = context.getJobName();
 
 		// get parameters
 		ParameterStore parameters = new ParameterStore(context);
@@ -83,11 +111,11 @@ public class ImputationMapper extends Mapper<LongWritable, Text, Text, Text> {
 		String hdfsPathMinimacMap = parameters.get(ImputationJob.MAP_MINIMAC);
 		String hdfsPathMapEagle = parameters.get(ImputationJob.MAP_EAGLE_HDFS);
 		String hdfsRefEagle = parameters.get(ImputationJob.REF_PANEL_EAGLE_HDFS);
+		String chromosomes = parameters.get(ImputationJob.CHROMOSOMES);
+		String chromosomesPhasing = parameters.get(ImputationJob.CHROMOSOMES_PHASING);
 
 		// get cached files
-		CacheStore cache = new CacheStore(context.getConfiguration());
-		String referencePanel = FileUtil.getFilename(hdfsPath);
-		refFilename = cache.getFile(referencePanel);
+		cache = new CacheStore(context.getConfiguration());
 
 		if (hdfsPathMinimacMap != null) {
 			System.out.println("Minimac map file hdfs: " + hdfsPathMinimacMap);
@@ -104,14 +132,9 @@ public class ImputationMapper extends Mapper<LongWritable, Text, Text, Text> {
 			String mapEagle = FileUtil.getFilename(hdfsPathMapEagle);
 			mapEagleFilename = cache.getFile(mapEagle);
 		}
-		if (hdfsRefEagle != null) {
-			refEagleFilename = cache.getFile(FileUtil.getFilename(hdfsRefEagle));
-			refEagleIndexFilename = cache.getFile(FileUtil.getFilename(hdfsRefEagle + ".csi"));
-		}
 
-		String minimacCommand = cache.getFile("Minimac4");
-		String eagleCommand = cache.getFile("eagle");
-		String tabixCommand = cache.getFile("tabix");
+		minimacCommand = cache.getFile("Minimac4");
+		eagleCommand = cache.getFile("eagle");
 
 		// create temp directory
 		DefaultPreferenceStore store = new DefaultPreferenceStore(context.getConfiguration());
@@ -123,14 +146,6 @@ public class ImputationMapper extends Mapper<LongWritable, Text, Text, Text> {
 			throw new IOException(folder + " is not writable!");
 		}
 
-		// create symbolic link --> index file is in the same folder as data
-		if (refEagleFilename != null) {
-			Files.createSymbolicLink(Paths.get(FileUtil.path(folder, "ref.bcf")), Paths.get(refEagleFilename));
-			Files.createSymbolicLink(Paths.get(FileUtil.path(folder, "ref.bcf.csi")), Paths.get(refEagleIndexFilename));
-			// update reference path to symbolic link
-			refEagleFilename = FileUtil.path(folder, "ref.bcf");
-		}
-
 		// read debugging flag
 		String debuggingString = store.getString("debugging");
 		if (debuggingString == null || debuggingString.equals("false")) {
@@ -139,31 +154,75 @@ public class ImputationMapper extends Mapper<LongWritable, Text, Text, Text> {
 			debugging = true;
 		}
 
-		int phasingWindow = Integer.parseInt(store.getString("phasing.window"));
+		phasingWindow = Integer.parseInt(store.getString("phasing.window"));
 
-		int window = Integer.parseInt(store.getString("minimac.window"));
+		minimacWindow = Integer.parseInt(store.getString("minimac.window"));
 
-		String minimacParams = store.getString("minimac.command");
-		String eagleParams = store.getString("eagle.command");
+		minimacParams = store.getString("minimac.command");
+		eagleParams = store.getString("eagle.command");
 
-		
-		// config pipeline
-		pipeline = new ImputationPipeline();
-		pipeline.setMinimacCommand(minimacCommand, minimacParams);
-		pipeline.setEagleCommand(eagleCommand, eagleParams);
-		pipeline.setTabixCommand(tabixCommand);
-		pipeline.setPhasingWindow(phasingWindow);
-		pipeline.setBuild(build);
-		pipeline.setMinimacWindow(window);
+		if (chromosomes == null) {
+			pipeline = createPipeline(hdfsPath, hdfsRefEagle, "ref");
+		} else {
+			// one job for all chromosomes: resolve their reference panels
+			List<String> phasing = new Vector<String>();
+			if (chromosomesPhasing != null) {
+				phasing = Arrays.asList(chromosomesPhasing.split(","));
+			}
+			pipelines = new HashMap<String, ImputationPipeline>();
+			for (String chromosome : chromosomes.split(",")) {
+				String refEagle = null;
+				if (hdfsRefEagle != null && phasing.contains(chromosome)) {
+					refEagle = ImputationJob.resolvePattern(hdfsRefEagle, chromosome);
+				}
+				pipelines.put(chromosome, createPipeline(ImputationJob.resolvePattern(hdfsPath, chromosome),
+						refEagle, "ref_" + chromosome));
+			}
+		}
+
+		// overlap phasing, imputation and upload of the chunks of this task
+		if ("true".equals(store.getString("imputation.staged"))) {
+			int phasingThreads = Integer.parseInt(store.getString("imputation.staged.phasing.threads"));
+			int imputationThreads = Integer.parseInt(store.getString("imputation.staged.imputation.threads"));
+			int uploadThreads = Integer.parseInt(store.getString("imputation.staged.upload.threads"));
+
+			executor = new StagedExecutor<ChunkTask>(phasingThreads + imputationThreads + uploadThreads);
+			executor.addStage("phasing", phasingThreads, new StagedExecutor.Stage<ChunkTask>() {
+				@Override
+				public boolean process(ChunkTask task) throws Exception {
+					return phase(task);
+				}
+			});
+			executor.addStage("imputation", imputationThreads, new StagedExecutor.Stage<ChunkTask>() {
+				@Override
+				public boolean process(ChunkTask task) throws Exception {
+					return impute(task);
+				}
+			});
+			executor.addStage("upload", uploadThreads, new StagedExecutor.Stage<ChunkTask>() {
+				@Override
+				public boolean process(ChunkTask task) throws Exception {
+					upload(task);
+					return true;
+				}
+			});
+		}
 
 	}
 
 	@Override
 	protected void cleanup(Context context) throws IOException, InterruptedException {
-		// delete temp directory
-		log.close();
-		FileUtil.deleteDirectory(folder);
-		System.out.println("Delete temp folder.");
+		try {
+			// wait for chunks in progress
+			if (executor != null) {
+				executor.await();
+			}
+		} finally {
+			// delete temp directory
+			log.close();
+			FileUtil.deleteDirectory(folder);
+			System.out.println("Delete temp folder.");
+		}
 	}
 
 	public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
@@ -174,91 +233,278 @@ public class ImputationMapper extends Mapper<LongWritable, Text, Text, Text> {
 				return;
 			}
 
-			long startTotal = System.currentTimeMillis();
+			ChunkTask task = new ChunkTask(new VcfChunk(value.toString()));
 
-			VcfChunk chunk = new VcfChunk(value.toString());
+			if (executor != null) {
+				// phasing, imputation and upload overlap with other chunks
+				executor.submit(task);
+			} else if (phase(task) && impute(task)) {
+				upload(task);
+			}
 
-			VcfChunkOutput outputChunk = new VcfChunkOutput(chunk, folder);
+		} catch (Exception e) {
+			if (!debugging) {
+				System.out.println("Mapper Task failed.");
+				e.printStackTrace();
+				if (executor != null) {
+					executor.shutdown();
+					executor = null;
+				}
+				cleanup(context);
+			}
+			throw e;
+		}
+	}
+
+	private boolean phase(ChunkTask task) throws IOException, InterruptedException {
+
+		if (isRegionFailed(task.chunk)) {
+			return false;
+		}
+
+		try {
 
-			HdfsUtil.get(chunk.getVcfFilename(), outputChunk.getVcfFilename());
+			task.start = System.currentTimeMillis();
+			task.output = new VcfChunkOutput(task.chunk, folder);
+
+			HdfsUtil.get(task.chunk.getVcfFilename(), task.output.getVcfFilename());
+			if (HdfsUtil.exists(task.chunk.getVcfFilename() + ".tbi")) {
+				HdfsUtil.get(task.chunk.getVcfFilename() + ".tbi", task.output.getVcfFilename() + ".tbi");
+			}
 
-			pipeline.setRefFilename(refFilename);
-			pipeline.setMapMinimac(mapMinimacFilename);
-			pipeline.setMapEagleFilename(mapEagleFilename);
-			pipeline.setRefEagleFilename(refEagleFilename);
-			pipeline.setPhasingOnly(phasingOnly);
+			return checkSuccess(task, getPipeline(task.chunk).phase(task.chunk, task.output, task.statistics));
+
+		} catch (IOException | RuntimeException e) {
+			return dropRegion(task, e);
+		}
+
+	}
 
-			boolean succesful = pipeline.execute(chunk, outputChunk);
-			ImputationStatistic statistics = pipeline.getStatistic();
+	private boolean impute(ChunkTask task) throws IOException, InterruptedException {
 
-			if (!succesful) {
+		if (isRegionFailed(task.chunk)) {
+			return false;
+		}
+
+		try {
+			return checkSuccess(task, getPipeline(task.chunk).impute(task.output, task.statistics));
+		} catch (IOException | RuntimeException e) {
+			return dropRegion(task, e);
+		}
+
+	}
+
+	private boolean checkSuccess(ChunkTask task, boolean succesful) throws IOException {
+		if (!succesful) {
+			if (isDroppable(task.chunk)) {
+				return dropRegion(task, null);
+			}
+			synchronized (log) {
 				log.stop("Phasing/Imputation failed!", "");
-				return;
 			}
+			deleteChunkFiles(task.chunk);
+		}
+		return succesful;
+	}
+
+	// a job for all chromosomes drops failed chrX regions like the separate
+	// chrX jobs, the step deletes their output after the job
+	private boolean isDroppable(VcfChunk chunk) {
+		return pipelines != null && chunk.getChromosome().startsWith("X.");
+	}
+
+	private boolean isRegionFailed(VcfChunk chunk) throws IOException {
+		if (!isDroppable(chunk)) {
+			return false;
+		}
+		if (failedRegions.contains(chunk.getChromosome())) {
+			deleteChunkFiles(chunk);
+			return true;
+		}
+		// failed in another task
+		if (HdfsUtil.exists(getFailedRegionMarker(chunk))) {
+			failedRegions.add(chunk.getChromosome());
+			deleteChunkFiles(chunk);
+			return true;
+		}
+		return false;
+	}
+
+	private boolean dropRegion(ChunkTask task, Exception e) throws IOException {
+
+		if (!isDroppable(task.chunk)) {
+			if (e instanceof IOException) {
+				throw (IOException) e;
+			}
+			throw (RuntimeException) e;
+		}
+
+		System.out.println("Chunk " + task.chunk + " failed. Drop region " + task.chunk.getChromosome() + ".");
+		if (e != null) {
+			e.printStackTrace();
+		}
+
+		if (failedRegions.add(task.chunk.getChromosome())) {
+			HdfsUtil.create(getFailedRegionMarker(task.chunk)).close();
+		}
+		deleteChunkFiles(task.chunk);
+		return false;
 
-			if (phasingOnly) {
+	}
 
-				long start = System.currentTimeMillis();
+	private String getFailedRegionMarker(VcfChunk chunk) {
+		return HdfsUtil.path(output, chunk.getChromosome() + ImputationJob.FAILED_REGION_SUFFIX);
+	}
 
-				// store vcf file (remove header)
-				BgzipSplitOutputStream outData = new BgzipSplitOutputStream(
-						HdfsUtil.create(HdfsUtil.path(output, chunk + ".phased.vcf.gz")));
+	private void upload(ChunkTask task) throws IOException {
 
-				BgzipSplitOutputStream outHeader = new BgzipSplitOutputStream(
-						HdfsUtil.create(HdfsUtil.path(output, chunk + ".header.dose.vcf.gz")));
+		if (isRegionFailed(task.chunk)) {
+			return;
+		}
 
-				FileMerger.splitPhasedIntoHeaderAndData(outputChunk.getPhasedVcfFilename(), outHeader, outData, chunk);
-				long end = System.currentTimeMillis();
+		try {
+			uploadChunk(task);
+		} catch (IOException | RuntimeException e) {
+			dropRegion(task, e);
+		}
 
-				statistics.setImportTime((end - start) / 1000);
+	}
 
-			} else {
-				if (minR2 > 0) {
-					// filter by r2
-					String filteredInfoFilename = outputChunk.getInfoFilename() + "_filtered";
-					filterInfoFileByR2(outputChunk.getInfoFilename(), filteredInfoFilename, minR2);
-					HdfsUtil.put(filteredInfoFilename, HdfsUtil.path(output, chunk + ".info"));
-
-				} else {
-					HdfsUtil.put(outputChunk.getInfoFilename(), HdfsUtil.path(output, chunk + ".info"));
-				}
+	private void uploadChunk(ChunkTask task) throws IOException {
+
+		VcfChunk chunk = task.chunk;
+		VcfChunkOutput outputChunk = task.output;
+		ImputationStatistic statistics = task.statistics;
 
-				long start = System.currentTimeMillis();
+		if (phasingOnly) {
 
-				// store vcf file (remove header)
-				BgzipSplitOutputStream outData = new BgzipSplitOutputStream(
-						HdfsUtil.create(HdfsUtil.path(output, chunk + ".data.dose.vcf.gz")));
+			long start = System.currentTimeMillis();
 
-				BgzipSplitOutputStream outHeader = new BgzipSplitOutputStream(
-						HdfsUtil.create(HdfsUtil.path(output, chunk + ".header.dose.vcf.gz")));
+			// store vcf file (remove header)
+			BgzipSplitOutputStream outData = new BgzipSplitOutputStream(
+					HdfsUtil.create(HdfsUtil.path(getOutput(chunk), chunk + ".phased.vcf.gz")));
 
-				FileMerger.splitIntoHeaderAndData(outputChunk.getImputedVcfFilename(), outHeader, outData, minR2);
-				long end = System.currentTimeMillis();
+			BgzipSplitOutputStream outHeader = new BgzipSplitOutputStream(
+					HdfsUtil.create(HdfsUtil.path(getOutput(chunk), chunk + ".header.dose.vcf.gz")));
 
-				statistics.setImportTime((end - start) / 1000);
+			FileMerger.splitPhasedIntoHeaderAndData(outputChunk.getPhasedVcfFilename(), outHeader, outData, chunk);
+			long end = System.currentTimeMillis();
 
-				System.out.println("Time filter and put: " + (end - start) + " ms");
+			statistics.setImportTime((end - start) / 1000);
 
+		} else {
+			if (minR2 > 0) {
+				// filter by r2
+				String filteredInfoFilename = outputChunk.getInfoFilename() + "_filtered";
+				filterInfoFileByR2(outputChunk.getInfoFilename(), filteredInfoFilename, minR2);
+				HdfsUtil.put(filteredInfoFilename, HdfsUtil.path(getOutput(chunk), chunk + ".info"));
+
+			} else {
+				HdfsUtil.put(outputChunk.getInfoFilename(), HdfsUtil.path(getOutput(chunk), chunk + ".info"));
 			}
 
-			InetAddress addr = java.net.InetAddress.getLocalHost();
-			String hostname = addr.getHostName();
+			long start = System.currentTimeMillis();
+
+			// store vcf file (remove header)
+			BgzipSplitOutputStream outData = new BgzipSplitOutputStream(
+					HdfsUtil.create(HdfsUtil.path(getOutput(chunk), chunk + ".data.dose.vcf.gz")));
+
+			BgzipSplitOutputStream outHeader = new BgzipSplitOutputStream(
+					HdfsUtil.create(HdfsUtil.path(getOutput(chunk), chunk + ".header.dose.vcf.gz")));
+
+			FileMerger.splitIntoHeaderAndData(outputChunk.getImputedVcfFilename(), outHeader, outData, minR2);
+			long end = System.currentTimeMillis();
+
+			statistics.setImportTime((end - start) / 1000);
+
+			System.out.println("Time filter and put: " + (end - start) + " ms");
+
+		}
+
+		InetAddress addr = java.net.InetAddress.getLocalHost();
+		String hostname = addr.getHostName();
+
+		long endTotal = System.currentTimeMillis();
 
-			long endTotal = System.currentTimeMillis();
+		long timeTotal = (endTotal - task.start) / 1000;
 
-			long timeTotal = (endTotal - startTotal) / 1000;
+		String refPanel = ImputationJob.resolvePattern(hdfsPath, chunk.getChromosome());
 
-			log.info(context.getJobName() + "\t" + hdfsPath + "\t" + hostname + "\t" + chunk + "\t"
+		synchronized (log) {
+			log.info(jobName + "\t" + refPanel + "\t" + hostname + "\t" + chunk + "\t"
 					+ statistics.getPhasingTime() + "\t" + statistics.getImputationTime() + "\t"
 					+ statistics.getImportTime() + "\t" + timeTotal);
+		}
 
-		} catch (Exception e) {
-			if (!debugging) {
-				System.out.println("Mapper Task failed.");
-				e.printStackTrace();
-				cleanup(context);
+		// a task processes several chunks, free the disk space
+		deleteChunkFiles(chunk);
+
+	}
+
+	private ImputationPipeline createPipeline(String hdfsRef, String hdfsRefEagle, String name)
+			throws IOException {
+
+		String refFilename = cache.getFile(FileUtil.getFilename(hdfsRef));
+
+		String refEagleFilename = null;
+		if (hdfsRefEagle != null) {
+			refEagleFilename = cache.getFile(FileUtil.getFilename(hdfsRefEagle));
+			String refEagleIndexFilename = cache.getFile(FileUtil.getFilename(hdfsRefEagle + ".csi"));
+
+			// create symbolic link --> index file is in the same folder as data
+			Files.createSymbolicLink(Paths.get(FileUtil.path(folder, name + ".bcf")), Paths.get(refEagleFilename));
+			Files.createSymbolicLink(Paths.get(FileUtil.path(folder, name + ".bcf.csi")),
+					Paths.get(refEagleIndexFilename));
+			// update reference path to symbolic link
+			refEagleFilename = FileUtil.path(folder, name + ".bcf");
+		}
+
+		// config pipeline
+		ImputationPipeline imputationPipeline = new ImputationPipeline();
+		imputationPipeline.setMinimacCommand(minimacCommand, minimacParams);
+		imputationPipeline.setEagleCommand(eagleCommand, eagleParams);
+		imputationPipeline.setPhasingWindow(phasingWindow);
+		imputationPipeline.setBuild(build);
+		imputationPipeline.setMinimacWindow(minimacWindow);
+		imputationPipeline.setRefFilename(refFilename);
+		imputationPipeline.setMapMinimac(mapMinimacFilename);
+		imputationPipeline.setMapEagleFilename(mapEagleFilename);
+		imputationPipeline.setRefEagleFilename(refEagleFilename);
+		imputationPipeline.setPhasingOnly(phasingOnly);
+		return imputationPipeline;
+
+	}
+
+	private ImputationPipeline getPipeline(VcfChunk chunk) throws IOException {
+		if (pipelines == null) {
+			return pipeline;
+		}
+		ImputationPipeline chromosomePipeline = pipelines.get(chunk.getChromosome());
+		if (chromosomePipeline == null) {
+			throw new IOException("No reference panel set for chromosome " + chunk.getChromosome() + ".");
+		}
+		return chromosomePipeline;
+	}
+
+	// a job for all chromosomes writes one folder per chromosome
+	private String getOutput(VcfChunk chunk) {
+		if (pipelines == null) {
+			return output;
+		}
+		return HdfsUtil.path(output, chunk.getChromosome());
+	}
+
+	private void deleteChunkFiles(VcfChunk chunk) {
+		if (debugging) {
+			return;
+		}
+		File[] files = new File(folder).listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().startsWith(chunk.getId() + ".")) {
+					file.delete();
+				}
 			}
-			throw e;
 		}
 	}
 
@@ -299,4 +545,21 @@ public class ImputationMapper extends Mapper<LongWritable, Text, Text, Text> {
 		writerInfo.close();
 
 	}
+
+	static class ChunkTask {
+
+		private VcfChunk chunk;
+
+		private VcfChunkOutput output;
+
+		private ImputationStatistic statistics = new ImputationStatistic();
+
+		private long start;
+
+		public ChunkTask(VcfChunk chunk) {
+			this.chunk = chunk;
+		}
+
+	}
+
 }
@@ -11,6 +11,7 @@ import org.codehaus.groovy.control.CompilationFailedException;
 import genepi.hadoop.command.Command;
 import genepi.imputationserver.steps.vcf.VcfChunk;
 import genepi.imputationserver.steps.vcf.VcfChunkOutput;
+import genepi.imputationserver.steps.vcf.VcfFileUtil;
 import genepi.io.FileUtil;
 import groovy.text.SimpleTemplateEngine;
 
@@ -30,8 +31,6 @@ public class ImputationPipeline {
 	
 	private String eagleParams;
 	
-	private String tabixCommand;
-	
 	private int minimacWindow;
 	
 	private int phasingWindow;
@@ -54,6 +53,20 @@ public class ImputationPipeline {
 
 	public boolean execute(VcfChunk chunk, VcfChunkOutput output) throws InterruptedException, IOException {
 
+		// one pipeline executes all chunks of a map task
+		statistic = new ImputationStatistic();
+
+		return phase(chunk, output, statistic) && impute(output, statistic);
+
+	}
+
+	/**
+	 * Creates the index and phases the chunk (if needed). Phasing and
+	 * imputation of different chunks can run at the same time.
+	 */
+	public boolean phase(VcfChunk chunk, VcfChunkOutput output, ImputationStatistic statistic)
+			throws InterruptedException, IOException {
+
 		System.out.println("Starting pipeline for chunk " + chunk + " [Phased: " + chunk.isPhased() + "]...");
 
 		if (!new File(refFilename).exists()) {
@@ -71,14 +84,14 @@ public class ImputationPipeline {
 			output.setChromosome("X");
 		}
 
-		// create tabix index
-		Command tabix = new Command(tabixCommand);
-		tabix.setSilent(false);
-		tabix.setParams(output.getVcfFilename());
-		System.out.println("Command: " + tabix.getExecutedCommand());
-		if (tabix.execute() != 0) {
-			System.out.println("Error during index creation: " + tabix.getStdOut());
-			return false;
+		// create tabix index, unless it was created with the chunk
+		if (!new File(output.getVcfFilename() + ".tbi").exists()) {
+			try {
+				VcfFileUtil.createIndex(output.getVcfFilename());
+			} catch (IOException e) {
+				System.out.println("Error during index creation: " + e.getMessage());
+				return false;
+			}
 		}
 
 		if (chunk.isPhased()) {
@@ -109,13 +122,22 @@ public class ImputationPipeline {
 			}
 
 		}
-		
+
+		return true;
+
+	}
+
+	/**
+	 * Imputes the phased chunk, skipped in phasing-only mode.
+	 */
+	public boolean impute(VcfChunkOutput output, ImputationStatistic statistic)
+			throws InterruptedException, IOException {
+
 		if (phasingOnly) {
 			System.out.println("Phasing-only mode, no imputation started.");
 			return true;
 		}
 
-
 		// Imputation
 
 		long time = System.currentTimeMillis();
@@ -214,10 +236,6 @@ public class ImputationPipeline {
 
 	}
 
-	public void setTabixCommand(String tabixCommand) {
-		this.tabixCommand = tabixCommand;
-	}
-
 	public void setRefFilename(String refFilename) {
 		this.refFilename = refFilename;
 	}
@@ -268,7 +286,8 @@ public class ImputationPipeline {
 		return statistic;
 	}
 
-	protected String[] createParams(String template, Map<String, Object> bindings) throws IOException {
+	protected synchronized String[] createParams(String template, Map<String, Object> bindings)
+			throws IOException {
 		
 		try {
 			String outputTemplate = "";
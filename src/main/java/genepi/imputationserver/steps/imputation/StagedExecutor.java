@@ -0,0 +1,119 @@
+package genepi.imputationserver.steps.imputation;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs items through a sequence of stages. Every stage has its own fixed
+ * number of threads, so different items can be in different stages at the
+ * same time (e.g. phase chunk n+1 while chunk n is imputed). The number of
+ * items in all stages is limited, submit blocks until an item has finished.
+ */
+public class StagedExecutor<T> {
+
+	public interface Stage<T> {
+
+		/**
+		 * Processes the item. Returns false to skip all following stages.
+		 */
+		public boolean process(T item) throws Exception;
+
+	}
+
+	private List<Stage<T>> stages = new Vector<Stage<T>>();
+
+	private List<ExecutorService> executors = new Vector<ExecutorService>();
+
+	private Semaphore pending;
+
+	private int maxPending;
+
+	private volatile Throwable error = null;
+
+	public StagedExecutor(int maxPending) {
+		this.maxPending = maxPending;
+		this.pending = new Semaphore(maxPending);
+	}
+
+	public void addStage(final String name, int threads, Stage<T> stage) {
+		stages.add(stage);
+		executors.add(Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable runnable) {
+				count++;
+				Thread thread = new Thread(runnable, name + "-" + count);
+				thread.setDaemon(true);
+				return thread;
+			}
+		}));
+	}
+
+	/**
+	 * Passes the item to the first stage. Blocks if the maximal number of
+	 * items is in progress.
+	 */
+	public void submit(T item) throws IOException, InterruptedException {
+		checkError();
+		pending.acquire();
+		run(item, 0);
+	}
+
+	/**
+	 * Waits until all items passed all stages and stops the threads.
+	 */
+	public void await() throws IOException, InterruptedException {
+		try {
+			pending.acquire(maxPending);
+			pending.release(maxPending);
+			checkError();
+		} finally {
+			shutdown();
+		}
+	}
+
+	public void shutdown() {
+		for (ExecutorService executor : executors) {
+			executor.shutdownNow();
+		}
+	}
+
+	private void run(final T item, final int index) {
+		executors.get(index).execute(new Runnable() {
+			@Override
+			public void run() {
+				boolean next = false;
+				try {
+					// items after a failure are not processed
+					next = error == null && stages.get(index).process(item);
+				} catch (Throwable e) {
+					if (error == null) {
+						error = e;
+					}
+				}
+				if (next && index + 1 < stages.size()) {
+					StagedExecutor.this.run(item, index + 1);
+				} else {
+					pending.release();
+				}
+			}
+		});
+	}
+
+	private void checkError() throws IOException {
+		if (error != null) {
+			if (error instanceof IOException) {
+				throw (IOException) error;
+			}
+			throw new IOException(error);
+		}
+	}
+
+}
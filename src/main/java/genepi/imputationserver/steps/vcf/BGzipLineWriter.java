@@ -1,13 +1,11 @@
 package genepi.imputationserver.steps.vcf;
 
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
-import java.util.zip.GZIPOutputStream;
-
-import htsjdk.samtools.util.BlockCompressedOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 
 public class BGzipLineWriter {
 
@@ -15,8 +13,65 @@ public class BGzipLineWriter {
 
 	private boolean first = true;
 
+	private String filename;
+
+	// tabix index built while writing (optional)
+	private ParallelBlockCompressedOutputStream indexedStream;
+
+	private Charset charset = Charset.defaultCharset();
+
+	private int separatorLength = System.lineSeparator().getBytes(charset).length;
+
+	private long offset = 0;
+
+	private int records = 0;
+
+	private String[] contigs;
+
+	private int[] starts;
+
+	private int[] ends;
+
+	private long[] offsets;
+
 	public BGzipLineWriter(String filename) throws IOException {
-		bw = new BufferedWriter(new OutputStreamWriter(new BlockCompressedOutputStream(new File(filename))));
+		this(filename, false);
+	}
+
+	/**
+	 * @param createIndex
+	 *            writes a tabix index (filename + ".tbi") when the writer is
+	 *            closed. Lines have to be sorted.
+	 */
+	public BGzipLineWriter(String filename, boolean createIndex) throws IOException {
+		this(filename, createIndex, 1, ParallelBlockCompressedOutputStream.DEFAULT_COMPRESSION_LEVEL);
+	}
+
+	/**
+	 * @param compressionThreads
+	 *            if > 1, blocks are deflated on the shared thread pool.
+	 * @param compressionLevel
+	 *            deflate level (0: store only, 1: fastest, 9: best)
+	 */
+	public BGzipLineWriter(String filename, boolean createIndex, int compressionThreads, int compressionLevel)
+			throws IOException {
+		this.filename = filename;
+		if (createIndex) {
+			if (compressionLevel < 0 || compressionLevel > 9) {
+				throw new IllegalArgumentException(
+						"Invalid compression level " + compressionLevel + ". Allowed values: 0-9.");
+			}
+			indexedStream = new ParallelBlockCompressedOutputStream(new FileOutputStream(filename),
+					Math.max(compressionThreads, 1), compressionLevel);
+			bw = new BufferedWriter(new OutputStreamWriter(indexedStream, charset));
+			contigs = new String[1024];
+			starts = new int[1024];
+			ends = new int[1024];
+			offsets = new long[1024];
+		} else {
+			bw = new BufferedWriter(new OutputStreamWriter(VcfFileUtil.createBlockCompressedOutputStream(filename,
+					compressionThreads, compressionLevel)));
+		}
 		first = true;
 	}
 
@@ -25,6 +80,11 @@ public class BGzipLineWriter {
 			first = false;
 		} else {
 			bw.newLine();
+			offset += separatorLength;
+		}
+
+		if (indexedStream != null) {
+			addRecord(line);
 		}
 
 		bw.write(line);
@@ -32,6 +92,59 @@ public class BGzipLineWriter {
 
 	public void close() throws IOException {
 		bw.close();
+
+		if (indexedStream != null) {
+			// blocks are written, all offsets can be resolved
+			TabixIndexBuilder indexBuilder = new TabixIndexBuilder();
+			for (int i = 0; i < records; i++) {
+				indexBuilder.add(contigs[i], starts[i], ends[i], indexedStream.getVirtualOffset(offsets[i]));
+			}
+			indexBuilder.write(filename, indexedStream.getVirtualOffset(indexedStream.getUncompressedOffset()));
+		}
+	}
+
+	private void addRecord(String line) throws IOException {
+
+		long lineOffset = offset;
+		offset += getLength(line);
+
+		if (line.startsWith("#")) {
+			return;
+		}
+
+		int tab1 = line.indexOf('\t');
+		int tab2 = line.indexOf('\t', tab1 + 1);
+		int tab3 = line.indexOf('\t', tab2 + 1);
+		int tab4 = line.indexOf('\t', tab3 + 1);
+		if (tab1 == -1 || tab2 == -1 || tab3 == -1 || tab4 == -1) {
+			throw new IOException("The provided VCF file is not tab-delimited");
+		}
+
+		if (records == offsets.length) {
+			contigs = Arrays.copyOf(contigs, records * 2);
+			starts = Arrays.copyOf(starts, records * 2);
+			ends = Arrays.copyOf(ends, records * 2);
+			offsets = Arrays.copyOf(offsets, records * 2);
+		}
+
+		String contig = line.substring(0, tab1);
+		// share the contig name between records
+		contigs[records] = records > 0 && contigs[records - 1].equals(contig) ? contigs[records - 1] : contig;
+		starts[records] = Integer.parseInt(line.substring(tab1 + 1, tab2));
+		ends[records] = starts[records] + Math.max(tab4 - tab3 - 1, 1) - 1;
+		offsets[records] = lineOffset;
+		records++;
+
+	}
+
+	// number of encoded bytes
+	private int getLength(String line) {
+		for (int i = 0; i < line.length(); i++) {
+			if (line.charAt(i) > 127) {
+				return line.getBytes(charset).length;
+			}
+		}
+		return line.length();
 	}
 
 }
@@ -1,11 +1,18 @@
 package genepi.imputationserver.steps.vcf;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Vector;
 
 import genepi.io.text.LineReader;
+import htsjdk.tribble.readers.TabixReader;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 
@@ -23,19 +30,179 @@ public class FastVCFFileReader extends LineReader {
 
 	private VCFLineParser parser;
 
+	// byte-level mode
+	private VCFLineByteParser byteParser;
+
+	private VcfLineByteReader byteReader;
+
+	private int byteLineNumber = 0;
+
+	private int headerLines = 0;
+
+	// pipeline mode
+	private VcfRecordPipeline pipeline;
+
+	// region mode
+	private TabixReader tabixReader;
+
+	private TabixReader.Iterator regionIterator;
+
+	private String regionContig;
+
+	private int[] regionStarts;
+
+	private int[] regionEnds;
+
+	private int region = -1;
+
 	public FastVCFFileReader(String vcfFilename) throws IOException {
+		this(vcfFilename, false);
+	}
 
-		super(vcfFilename);
-		// load header
-		VCFFileReader reader = new VCFFileReader(new File(vcfFilename), false);
-		VCFHeader header = reader.getFileHeader();
-		samples = header.getGenotypeSamples();
+	public FastVCFFileReader(String vcfFilename, boolean byteLevel) throws IOException {
+		this(vcfFilename, byteLevel, 0);
+	}
+
+	/**
+	 * @param byteLevel
+	 *            if true, records are parsed directly from the decompressed
+	 *            bytes with {@link VCFLineByteParser}.
+	 * @param pipelineThreads
+	 *            if > 0, decompression and parsing run in a
+	 *            {@link VcfRecordPipeline} with this number of parser threads
+	 *            (always byte-level).
+	 */
+	public FastVCFFileReader(String vcfFilename, boolean byteLevel, int pipelineThreads) throws IOException {
+		this(vcfFilename, byteLevel, pipelineThreads, 1);
+	}
+
+	/**
+	 * @param decompressionThreads
+	 *            if > 1, BGZF blocks are inflated in parallel.
+	 */
+	public FastVCFFileReader(String vcfFilename, boolean byteLevel, int pipelineThreads, int decompressionThreads)
+			throws IOException {
+
+		super(openLineStream(vcfFilename, byteLevel || pipelineThreads > 0, decompressionThreads));
+
+		if (byteLevel || pipelineThreads > 0) {
+
+			// header is read from the same stream as the records
+			InputStream in = new BufferedInputStream(VcfFileUtil.openInputStream(vcfFilename, decompressionThreads));
+			samples = readHeader(in, this.header);
+			headerLines = this.header.size();
+			byteLineNumber = headerLines;
+			samplesCount = samples.size();
+			variantContext = new MinimalVariantContext(samplesCount);
+
+			if (pipelineThreads > 0) {
+				pipeline = new VcfRecordPipeline(in, samplesCount, pipelineThreads, this.header);
+			} else {
+				byteReader = new VcfLineByteReader(in);
+				byteParser = new VCFLineByteParser(samplesCount);
+			}
+
+		} else {
+
+			// load header
+			VCFFileReader reader = new VCFFileReader(new File(vcfFilename), false);
+			VCFHeader header = reader.getFileHeader();
+			samples = header.getGenotypeSamples();
+			samplesCount = samples.size();
+			variantContext = new MinimalVariantContext(samplesCount);
+			reader.close();
+
+			parser = new VCFLineParser(samplesCount);
+
+		}
+
+	}
+
+	/**
+	 * Reads only records that start inside one of the regions. The regions
+	 * have to be sorted and disjoint (1-based, inclusive). Records are read
+	 * with the tabix index of the file, so only blocks overlapping the regions
+	 * are decompressed.
+	 */
+	public FastVCFFileReader(String vcfFilename, String contig, int[] starts, int[] ends) throws IOException {
+
+		// records are read with the tabix reader, the line based reader is not
+		// used
+		super(openLineStream(vcfFilename, true, 1));
+
+		// header is read once, only its blocks are decompressed
+		InputStream in = new BufferedInputStream(VcfFileUtil.openInputStream(vcfFilename));
+		try {
+			samples = readHeader(in, this.header);
+		} finally {
+			in.close();
+		}
+		headerLines = this.header.size();
 		samplesCount = samples.size();
 		variantContext = new MinimalVariantContext(samplesCount);
-		reader.close();
-
 		parser = new VCFLineParser(samplesCount);
 
+		tabixReader = new TabixReader(vcfFilename);
+		regionContig = contig;
+		regionStarts = starts;
+		regionEnds = ends;
+
+	}
+
+	// line based reader is only used in text mode
+	private static DataInputStream openLineStream(String vcfFilename, boolean byteLevel, int decompressionThreads)
+			throws IOException {
+		if (byteLevel) {
+			return new DataInputStream(new ByteArrayInputStream(new byte[0]));
+		}
+		return new DataInputStream(VcfFileUtil.openInputStream(vcfFilename, decompressionThreads));
+	}
+
+	/**
+	 * Reads all header lines up to and including the #CHROM line and returns
+	 * the sample names. The stream is positioned at the first record.
+	 */
+	public static List<String> readHeader(InputStream in, List<String> header) throws IOException {
+
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+		while (true) {
+
+			int b = in.read();
+
+			if (b != '\n' && b != -1) {
+				line.write(b);
+				continue;
+			}
+
+			String headerLine = new String(line.toByteArray(), StandardCharsets.UTF_8);
+			if (headerLine.endsWith("\r")) {
+				headerLine = headerLine.substring(0, headerLine.length() - 1);
+			}
+			line.reset();
+
+			if (!headerLine.startsWith("#")) {
+				throw new IOException("The provided VCF file contains no #CHROM header line.");
+			}
+
+			header.add(headerLine);
+
+			if (headerLine.startsWith("#CHROM")) {
+				// samples follow the FORMAT column
+				List<String> samples = new Vector<String>();
+				String[] columns = headerLine.split("\t");
+				for (int i = 9; i < columns.length; i++) {
+					samples.add(columns[i]);
+				}
+				return samples;
+			}
+
+			if (b == -1) {
+				throw new IOException("The provided VCF file contains no #CHROM header line.");
+			}
+
+		}
+
 	}
 
 	public List<String> getGenotypedSamples() {
@@ -54,6 +221,104 @@ public class FastVCFFileReader extends LineReader {
 		return samplesCount;
 	}
 
+	@Override
+	public boolean next() throws IOException {
+
+		if (tabixReader != null) {
+			return nextInRegions();
+		}
+
+		if (pipeline != null) {
+
+			if (!pipeline.next()) {
+				return false;
+			}
+
+			variantContext = pipeline.get();
+
+			if (variantContext.getNSamples() != samplesCount) {
+				throw new IOException("Line " + (headerLines + pipeline.getLineNumber()) + ": different number of samples.");
+			}
+
+			snpsCount++;
+			return true;
+
+		}
+
+		if (byteReader == null) {
+			return super.next();
+		}
+
+		while (byteReader.next()) {
+
+			byteLineNumber++;
+
+			byte[] buffer = byteReader.getBuffer();
+			int offset = byteReader.getLineOffset();
+			int length = byteReader.getLineLength();
+
+			if (length == 0) {
+				continue;
+			}
+
+			// not a header line
+			if (buffer[offset] != '#') {
+
+				variantContext = byteParser.parseLine(buffer, offset, length);
+
+				if (variantContext.getNSamples() != samplesCount) {
+					throw new IOException("Line " + byteLineNumber + ": different number of samples.");
+				}
+
+				snpsCount++;
+				return true;
+
+			} else {
+				header.add(new String(buffer, offset, length, StandardCharsets.UTF_8));
+			}
+
+		}
+
+		return false;
+
+	}
+
+	private boolean nextInRegions() throws IOException {
+
+		while (true) {
+
+			String line = regionIterator != null ? regionIterator.next() : null;
+
+			if (line == null) {
+				region++;
+				if (region >= regionStarts.length) {
+					return false;
+				}
+				regionIterator = tabixReader
+						.query(regionContig + ":" + regionStarts[region] + "-" + regionEnds[region]);
+				continue;
+			}
+
+			variantContext = parser.parseLine(line);
+
+			// starts in a previous region
+			if (variantContext.getStart() < regionStarts[region]) {
+				continue;
+			}
+
+			if (variantContext.getNSamples() != samplesCount) {
+				throw new IOException(
+						"Line " + (snpsCount + 1) + " in region " + regionContig + ":" + regionStarts[region] + "-"
+								+ regionEnds[region] + ": different number of samples.");
+			}
+
+			snpsCount++;
+			return true;
+
+		}
+
+	}
+
 	@Override
 	protected void parseLine(String line) throws IOException {
 
@@ -79,4 +344,17 @@ public class FastVCFFileReader extends LineReader {
 		return header;
 	}
 
+	@Override
+	public void close() throws IOException {
+		if (tabixReader != null) {
+			tabixReader.close();
+		} else if (pipeline != null) {
+			pipeline.close();
+		} else if (byteReader != null) {
+			byteReader.close();
+		} else {
+			super.close();
+		}
+	}
+
 }
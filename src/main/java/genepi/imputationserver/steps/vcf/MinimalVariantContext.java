@@ -1,5 +1,7 @@
 package genepi.imputationserver.steps.vcf;
 
+import java.nio.charset.StandardCharsets;
+
 public class MinimalVariantContext {
 
 	public final static String NO_FILTERS = "";
@@ -24,16 +26,23 @@ public class MinimalVariantContext {
 
 	private String rawLine;
 
+	private byte[] rawBuffer;
+
+	private int rawOffset;
+
+	private int rawLength;
+
 	private String filters;
 
-	private boolean[] genotypes;
+	// called/not-called flag per sample, 64 samples per word
+	private long[] genotypes;
 
 	private String id = null;
 
 	private String genotype = null;
 
 	public MinimalVariantContext(int samples) {
-		genotypes = new boolean[samples];
+		genotypes = new long[(samples + 63) >>> 6];
 	}
 
 	public int getHetCount() {
@@ -121,10 +130,27 @@ public class MinimalVariantContext {
 
 	public void setRawLine(String rawLine) {
 		this.rawLine = rawLine;
+		this.rawBuffer = null;
+		this.id = null;
+	}
+
+	/**
+	 * Sets the raw line as a byte window. The String is only created when
+	 * {@link #getRawLine()} is called, the buffer must not change until then.
+	 */
+	public void setRawLine(byte[] buffer, int offset, int length) {
+		this.rawLine = null;
+		this.rawBuffer = buffer;
+		this.rawOffset = offset;
+		this.rawLength = length;
 		this.id = null;
 	}
 
 	public String getRawLine() {
+		if (rawLine == null && rawBuffer != null) {
+			rawLine = new String(rawBuffer, rawOffset, rawLength, StandardCharsets.UTF_8);
+			rawBuffer = null;
+		}
 		return rawLine;
 	}
 
@@ -154,12 +180,46 @@ public class MinimalVariantContext {
 	}
 
 	public void setCalled(int sample, boolean called) {
-		genotypes[sample] = called;
+		if (called) {
+			genotypes[sample >>> 6] |= 1L << sample;
+		} else {
+			genotypes[sample >>> 6] &= ~(1L << sample);
+		}
 		this.id = null;
 	}
 
 	public boolean isCalled(int sample) {
-		return genotypes[sample];
+		return (genotypes[sample >>> 6] & (1L << sample)) != 0;
+	}
+
+	/**
+	 * Increments the counter of every called sample. Works on whole words, so
+	 * fully called or fully missing blocks of 64 samples need no bit tests.
+	 */
+	public void addCalledTo(int[] counts) {
+		int samples = Math.min(nSamples, counts.length);
+		int words = (samples + 63) >>> 6;
+		for (int w = 0; w < words; w++) {
+			long word = genotypes[w];
+			int base = w << 6;
+			if (word == 0) {
+				continue;
+			}
+			if (word == -1L && base + 64 <= samples) {
+				for (int i = base; i < base + 64; i++) {
+					counts[i]++;
+				}
+				continue;
+			}
+			while (word != 0) {
+				int sample = base + Long.numberOfTrailingZeros(word);
+				if (sample >= samples) {
+					break;
+				}
+				counts[sample]++;
+				word &= word - 1;
+			}
+		}
 	}
 
 	public String getGenotype() {
@@ -0,0 +1,315 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a BGZF file (bgzip, .vcf.gz) and inflates its blocks on several
+ * threads. Compressed blocks are read ahead on the calling thread, inflated
+ * by a thread pool and returned in file order, so the stream can be used
+ * wherever a decompressed stream of the file is expected.
+ * <p>
+ * {@link #getFilePointer()} returns BGZF virtual file offsets, which are
+ * needed to build a tabix index while reading the file.
+ */
+public class ParallelBlockCompressedInputStream extends InputStream {
+
+	private static final int HEADER_LENGTH = 18;
+
+	private static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+	private InputStream in;
+
+	private ExecutorService executor;
+
+	private Queue<Future<Block>> blocks = new ArrayDeque<Future<Block>>();
+
+	private int readAhead;
+
+	private boolean eof = false;
+
+	private byte[] current = new byte[0];
+
+	private int position = 0;
+
+	// compressed offset of the current block
+	private long currentAddress = 0;
+
+	// compressed offset of the next block that will be read
+	private long address = 0;
+
+	private byte[] lineBuffer = new byte[1024];
+
+	private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater(true);
+		}
+	};
+
+	public ParallelBlockCompressedInputStream(InputStream in, int threads) {
+		this.in = new BufferedInputStream(in, MAX_BLOCK_SIZE);
+		this.readAhead = threads * 4;
+		executor = Executors.newFixedThreadPool(threads, new VcfRecordPipeline.DaemonThreadFactory("bgzf-inflater"));
+	}
+
+	/**
+	 * Returns true if the file starts with a BGZF block header.
+	 */
+	public static boolean isBlockCompressed(String filename) throws IOException {
+		InputStream in = new FileInputStream(filename);
+		try {
+			byte[] header = new byte[HEADER_LENGTH];
+			int count = 0;
+			while (count < HEADER_LENGTH) {
+				int read = in.read(header, count, HEADER_LENGTH - count);
+				if (read == -1) {
+					return false;
+				}
+				count += read;
+			}
+			return (header[0] & 0xff) == 31 && (header[1] & 0xff) == 139 && header[2] == 8
+					&& (header[3] & 4) != 0 && header[12] == 'B' && header[13] == 'C';
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		return current[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		int count = Math.min(length, current.length - position);
+		System.arraycopy(current, position, buffer, offset, count);
+		position += count;
+		return count;
+	}
+
+	/**
+	 * Reads the next line without line break or returns null at the end of
+	 * the file.
+	 */
+	public String readLine() throws IOException {
+
+		int length = 0;
+		boolean found = false;
+
+		while (!found && fill()) {
+			int end = position;
+			while (end < current.length && current[end] != '\n') {
+				end++;
+			}
+			found = end < current.length;
+			int count = end - position;
+			if (length + count > lineBuffer.length) {
+				byte[] newBuffer = new byte[Math.max(lineBuffer.length * 2, length + count)];
+				System.arraycopy(lineBuffer, 0, newBuffer, 0, length);
+				lineBuffer = newBuffer;
+			}
+			System.arraycopy(current, position, lineBuffer, length, count);
+			length += count;
+			position = found ? end + 1 : end;
+		}
+
+		if (!found && length == 0) {
+			return null;
+		}
+
+		// ignore windows line breaks
+		if (length > 0 && lineBuffer[length - 1] == '\r') {
+			length--;
+		}
+		return new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+
+	}
+
+	/**
+	 * Returns the virtual file offset (compressed block offset << 16 | offset
+	 * in uncompressed block) of the next byte.
+	 */
+	public long getFilePointer() throws IOException {
+		if (!fill()) {
+			return address << 16;
+		}
+		return (currentAddress << 16) | position;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return current.length - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		executor.shutdownNow();
+		blocks.clear();
+		in.close();
+	}
+
+	// makes sure that the current block has unread bytes
+	private boolean fill() throws IOException {
+
+		while (position >= current.length) {
+
+			// keep the pool busy
+			while (!eof && blocks.size() < readAhead) {
+				final long blockAddress = address;
+				final byte[] block = readBlock();
+				if (block == null) {
+					eof = true;
+				} else {
+					blocks.add(executor.submit(new Callable<Block>() {
+						@Override
+						public Block call() throws Exception {
+							return new Block(blockAddress, inflate(block));
+						}
+					}));
+				}
+			}
+
+			Future<Block> next = blocks.poll();
+			if (next == null) {
+				return false;
+			}
+
+			try {
+				Block block = next.get();
+				current = block.data;
+				currentAddress = block.address;
+				position = 0;
+			} catch (InterruptedException e) {
+				throw new IOException("Decompression interrupted", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+
+		}
+
+		return true;
+
+	}
+
+	// reads one compressed block including header and footer
+	private byte[] readBlock() throws IOException {
+
+		byte[] header = new byte[HEADER_LENGTH];
+		int count = readFully(header, 0, HEADER_LENGTH);
+		if (count == 0) {
+			return null;
+		}
+		if (count < HEADER_LENGTH) {
+			throw new EOFException("Premature end of BGZF file");
+		}
+
+		if ((header[0] & 0xff) != 31 || (header[1] & 0xff) != 139 || header[2] != 8 || (header[3] & 4) == 0) {
+			throw new IOException("Invalid BGZF block header");
+		}
+
+		int extraLength = readShort(header, 10);
+		if (extraLength != 6 || header[12] != 'B' || header[13] != 'C') {
+			throw new IOException("Invalid BGZF block header: BC subfield not found");
+		}
+
+		int blockSize = readShort(header, 16) + 1;
+		if (blockSize < HEADER_LENGTH + 8 || blockSize > MAX_BLOCK_SIZE) {
+			throw new IOException("Invalid BGZF block size: " + blockSize);
+		}
+
+		byte[] block = new byte[blockSize];
+		System.arraycopy(header, 0, block, 0, HEADER_LENGTH);
+		if (readFully(block, HEADER_LENGTH, blockSize - HEADER_LENGTH) < blockSize - HEADER_LENGTH) {
+			throw new EOFException("Premature end of BGZF file");
+		}
+		address += blockSize;
+
+		return block;
+
+	}
+
+	private static byte[] inflate(byte[] block) throws IOException {
+
+		int uncompressedSize = readInt(block, block.length - 4);
+		byte[] data = new byte[uncompressedSize];
+		if (uncompressedSize == 0) {
+			return data;
+		}
+
+		Inflater inflater = INFLATER.get();
+		inflater.reset();
+		inflater.setInput(block, HEADER_LENGTH, block.length - HEADER_LENGTH - 8);
+		try {
+			int inflated = inflater.inflate(data, 0, uncompressedSize);
+			if (inflated != uncompressedSize) {
+				throw new IOException("Corrupt BGZF block: expected " + uncompressedSize + " bytes, inflated "
+						+ inflated + " bytes");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt BGZF block", e);
+		}
+		return data;
+
+	}
+
+	private int readFully(byte[] buffer, int offset, int length) throws IOException {
+		int count = 0;
+		while (count < length) {
+			int read = in.read(buffer, offset + count, length - count);
+			if (read == -1) {
+				break;
+			}
+			count += read;
+		}
+		return count;
+	}
+
+	private static int readShort(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8);
+	}
+
+	private static int readInt(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8) | ((buffer[offset + 2] & 0xff) << 16)
+				| ((buffer[offset + 3] & 0xff) << 24);
+	}
+
+	static class Block {
+
+		private long address;
+
+		private byte[] data;
+
+		public Block(long address, byte[] data) {
+			this.address = address;
+			this.data = data;
+		}
+
+	}
+
+}
@@ -0,0 +1,344 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a BGZF file (bgzip, .vcf.gz) and deflates its blocks on a thread
+ * pool that is shared by all streams. The pool has one thread per core, each
+ * stream deflates at most the requested number of blocks at a time. The
+ * caller fills uncompressed blocks, compressed blocks are written in file
+ * order. Counterpart of {@link ParallelBlockCompressedInputStream}.
+ */
+public class ParallelBlockCompressedOutputStream extends OutputStream {
+
+	// same block size as bgzip
+	public static final int BLOCK_SIZE = 0xff00;
+
+	public static final int DEFAULT_COMPRESSION_LEVEL = 5;
+
+	private static final int HEADER_LENGTH = 18;
+
+	private static final int FOOTER_LENGTH = 8;
+
+	private static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+	private static final byte[] EOF_BLOCK = new byte[] { 31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 66,
+			67, 2, 0, 27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
+	private static final int SHARED_THREADS = Runtime.getRuntime().availableProcessors();
+
+	private static ThreadPoolExecutor sharedExecutor = null;
+
+	private OutputStream out;
+
+	private ExecutorService executor;
+
+	private Queue<Future<byte[]>> blocks = new ArrayDeque<Future<byte[]>>();
+
+	private int maxPendingBlocks;
+
+	// blocks of this stream that are deflated at the same time
+	private Semaphore runningBlocks;
+
+	private int level;
+
+	private byte[] buffer = new byte[BLOCK_SIZE];
+
+	private int position = 0;
+
+	private boolean closed = false;
+
+	// uncompressed offset and file address of every block, used to resolve
+	// virtual file offsets (tabix)
+	private long[] blockStarts = new long[64];
+
+	private long[] blockAddresses = new long[64];
+
+	private int submittedBlocks = 0;
+
+	private int writtenBlocks = 0;
+
+	private long blockStart = 0;
+
+	private long address = 0;
+
+	private static final ThreadLocal<Compressor> COMPRESSOR = new ThreadLocal<Compressor>() {
+		@Override
+		protected Compressor initialValue() {
+			return new Compressor();
+		}
+	};
+
+	public ParallelBlockCompressedOutputStream(OutputStream out, int threads) {
+		this(out, threads, DEFAULT_COMPRESSION_LEVEL);
+	}
+
+	public ParallelBlockCompressedOutputStream(OutputStream out, int threads, int level) {
+		this.out = new BufferedOutputStream(out, MAX_BLOCK_SIZE);
+		this.executor = getSharedExecutor();
+		this.maxPendingBlocks = threads * 4;
+		this.runningBlocks = new Semaphore(Math.max(threads, 1));
+		this.level = level;
+	}
+
+	/**
+	 * Returns the deflater pool that is shared by all streams. The pool is
+	 * created once with one thread per core and never resized.
+	 */
+	static synchronized ExecutorService getSharedExecutor() {
+		if (sharedExecutor == null) {
+			sharedExecutor = new ThreadPoolExecutor(SHARED_THREADS, SHARED_THREADS, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new VcfRecordPipeline.DaemonThreadFactory("bgzf-deflater"));
+			// idle threads are released
+			sharedExecutor.allowCoreThreadTimeOut(true);
+		}
+		return sharedExecutor;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (position == buffer.length) {
+			submitBlock();
+		}
+		buffer[position++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] data, int offset, int length) throws IOException {
+		while (length > 0) {
+			if (position == buffer.length) {
+				submitBlock();
+			}
+			int count = Math.min(length, buffer.length - position);
+			System.arraycopy(data, offset, buffer, position, count);
+			position += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * Compresses the current block and writes all pending blocks.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (position > 0) {
+			submitBlock();
+		}
+		while (!blocks.isEmpty()) {
+			writeNextBlock();
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			flush();
+			out.write(EOF_BLOCK);
+		} finally {
+			for (Future<byte[]> block : blocks) {
+				block.cancel(true);
+			}
+			blocks.clear();
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns the number of uncompressed bytes written to this stream.
+	 */
+	public long getUncompressedOffset() {
+		return blockStart + position;
+	}
+
+	/**
+	 * Returns the BGZF virtual file offset of an uncompressed offset. The
+	 * block containing the offset has to be written, i.e. the offset is only
+	 * resolved after the stream is flushed or closed.
+	 */
+	public long getVirtualOffset(long offset) {
+
+		if (offset == blockStart && position == 0 && writtenBlocks == submittedBlocks) {
+			// end of all written data
+			return address << 16;
+		}
+
+		// last block that starts before or at the offset
+		int low = 0;
+		int high = submittedBlocks - 1;
+		int found = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (blockStarts[middle] <= offset) {
+				found = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		if (found == -1 || found >= writtenBlocks || offset >= blockStart) {
+			throw new IllegalStateException("Offset " + offset + " is not written yet.");
+		}
+
+		return (blockAddresses[found] << 16) | (offset - blockStarts[found]);
+
+	}
+
+	private void submitBlock() throws IOException {
+
+		// limit memory, wait for the oldest block
+		while (blocks.size() >= maxPendingBlocks) {
+			writeNextBlock();
+		}
+
+		try {
+			runningBlocks.acquire();
+		} catch (InterruptedException e) {
+			throw new IOException("Compression interrupted", e);
+		}
+
+		final byte[] data = buffer;
+		final int length = position;
+		final int compressionLevel = level;
+		blocks.add(executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				try {
+					return COMPRESSOR.get().compress(data, length, compressionLevel);
+				} finally {
+					runningBlocks.release();
+				}
+			}
+		}));
+
+		if (submittedBlocks == blockStarts.length) {
+			blockStarts = Arrays.copyOf(blockStarts, submittedBlocks * 2);
+			blockAddresses = Arrays.copyOf(blockAddresses, submittedBlocks * 2);
+		}
+		blockStarts[submittedBlocks++] = blockStart;
+		blockStart += length;
+
+		buffer = new byte[BLOCK_SIZE];
+		position = 0;
+
+	}
+
+	private void writeNextBlock() throws IOException {
+		try {
+			byte[] block = blocks.poll().get();
+			out.write(block);
+			blockAddresses[writtenBlocks++] = address;
+			address += block.length;
+		} catch (InterruptedException e) {
+			throw new IOException("Compression interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Deflater and buffers of one pool thread.
+	 */
+	static class Compressor {
+
+		private Deflater deflater = null;
+
+		private int deflaterLevel = -1;
+
+		private Deflater noCompression = new Deflater(Deflater.NO_COMPRESSION, true);
+
+		private CRC32 crc = new CRC32();
+
+		private byte[] output = new byte[MAX_BLOCK_SIZE];
+
+		public byte[] compress(byte[] data, int length, int level) throws IOException {
+
+			if (deflater == null || deflaterLevel != level) {
+				if (deflater != null) {
+					deflater.end();
+				}
+				deflater = new Deflater(level, true);
+				deflaterLevel = level;
+			}
+
+			int maxCompressedLength = MAX_BLOCK_SIZE - HEADER_LENGTH - FOOTER_LENGTH;
+
+			int compressedLength = deflate(deflater, data, length, maxCompressedLength);
+			if (compressedLength == -1) {
+				// data does not compress, store it
+				compressedLength = deflate(noCompression, data, length, maxCompressedLength);
+				if (compressedLength == -1) {
+					throw new IOException("BGZF block does not fit into " + MAX_BLOCK_SIZE + " bytes");
+				}
+			}
+
+			crc.reset();
+			crc.update(data, 0, length);
+
+			int blockSize = HEADER_LENGTH + compressedLength + FOOTER_LENGTH;
+			byte[] block = new byte[blockSize];
+			block[0] = 31;
+			block[1] = (byte) 139;
+			block[2] = 8;
+			block[3] = 4;
+			block[9] = (byte) 255;
+			block[10] = 6;
+			block[12] = 'B';
+			block[13] = 'C';
+			block[14] = 2;
+			writeShort(block, 16, blockSize - 1);
+			System.arraycopy(output, 0, block, HEADER_LENGTH, compressedLength);
+			writeInt(block, HEADER_LENGTH + compressedLength, (int) crc.getValue());
+			writeInt(block, HEADER_LENGTH + compressedLength + 4, length);
+			return block;
+
+		}
+
+		// returns -1 if the data does not fit into maxLength bytes
+		private int deflate(Deflater deflater, byte[] data, int length, int maxLength) {
+			deflater.reset();
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			int compressedLength = deflater.deflate(output, 0, maxLength);
+			return deflater.finished() ? compressedLength : -1;
+		}
+
+		private static void writeShort(byte[] buffer, int offset, int value) {
+			buffer[offset] = (byte) value;
+			buffer[offset + 1] = (byte) (value >> 8);
+		}
+
+		private static void writeInt(byte[] buffer, int offset, int value) {
+			buffer[offset] = (byte) value;
+			buffer[offset + 1] = (byte) (value >> 8);
+			buffer[offset + 2] = (byte) (value >> 16);
+			buffer[offset + 3] = (byte) (value >> 24);
+		}
+
+	}
+
+}
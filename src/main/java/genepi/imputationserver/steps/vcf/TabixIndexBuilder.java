@@ -0,0 +1,94 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+
+/**
+ * Builds a tabix index (.tbi) for a bgzipped VCF file while the file is
+ * read. Records have to be added in file order together with the virtual
+ * file offset of their first byte.
+ */
+public class TabixIndexBuilder {
+
+	private TabixIndexCreator creator = new TabixIndexCreator(TabixFormat.VCF);
+
+	private Set<String> contigs = new HashSet<String>();
+
+	private String lastContig = null;
+
+	private int lastStart = 0;
+
+	public void add(String contig, int start, String ref, long filePointer) throws IOException {
+		add(contig, start, start + Math.max(ref.length(), 1) - 1, filePointer);
+	}
+
+	public void add(String contig, int start, int end, long filePointer) throws IOException {
+
+		if (!contig.equals(lastContig)) {
+			if (contigs.contains(contig)) {
+				throw new IOException("the file out of order at " + contig + ":" + start);
+			}
+			contigs.add(contig);
+			lastContig = contig;
+		} else if (start < lastStart) {
+			throw new IOException("the file out of order at " + contig + ":" + start);
+		}
+		lastStart = start;
+
+		creator.addFeature(new Record(contig, start, end), filePointer);
+
+	}
+
+	/**
+	 * Writes the index to vcfFilename + ".tbi".
+	 *
+	 * @param endPointer
+	 *            virtual file offset after the last record
+	 */
+	public void write(String vcfFilename, long endPointer) throws IOException {
+		Index index = creator.finalizeIndex(endPointer);
+		index.writeBasedOnFeatureFile(new File(vcfFilename));
+	}
+
+	static class Record implements Feature {
+
+		private String contig;
+
+		private int start;
+
+		private int end;
+
+		public Record(String contig, int start, int end) {
+			this.contig = contig;
+			this.start = start;
+			this.end = end;
+		}
+
+		public String getChr() {
+			return contig;
+		}
+
+		public String getContig() {
+			return contig;
+		}
+
+		@Override
+		public int getStart() {
+			return start;
+		}
+
+		@Override
+		public int getEnd() {
+			return end;
+		}
+
+	}
+
+}
@@ -0,0 +1,298 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte-level counterpart of {@link VCFLineParser}. Parses a VCF record
+ * directly from a byte window and fills the {@link MinimalVariantContext}
+ * without splitting the line into Strings. The raw line is decoded lazily,
+ * only when it is written to a chunk file.
+ */
+public class VCFLineByteParser {
+
+	private static final int COLUMNS = 10;
+
+	private static final byte[] PASS = "PASS".getBytes(StandardCharsets.US_ASCII);
+
+	// cached one-character alleles (A, C, G, T, ...)
+	private static final String[] SINGLE_CHARS = new String[128];
+
+	static {
+		for (int i = 0; i < SINGLE_CHARS.length; i++) {
+			SINGLE_CHARS[i] = String.valueOf((char) i);
+		}
+	}
+
+	// start offsets of the first ten columns
+	private int[] columns = new int[COLUMNS];
+
+	private byte[] lastContigBytes = new byte[0];
+
+	private String lastContig = null;
+
+	private MinimalVariantContext variantContext;
+
+	public VCFLineByteParser(int samples) {
+		variantContext = new MinimalVariantContext(samples);
+	}
+
+	public MinimalVariantContext parseLine(byte[] buffer, int offset, int length) throws IOException {
+		return parseLine(buffer, offset, length, variantContext);
+	}
+
+	/**
+	 * Parses the line into the given variant context instead of the parser's
+	 * own instance. Used when several records have to be kept at once.
+	 */
+	public MinimalVariantContext parseLine(byte[] buffer, int offset, int length,
+			MinimalVariantContext variantContext) throws IOException {
+
+		int end = offset + length;
+
+		findColumns(buffer, offset, end);
+
+		String chromosome = parseContig(buffer, columns[0], columns[1] - 1);
+		int position = parsePosition(buffer, columns[1], columns[2] - 1);
+		String ref = parseAllele(buffer, columns[3], columns[4] - 1);
+		String alt = parseAllele(buffer, columns[4], columns[5] - 1);
+
+		int tileGT = findGenotypeTile(buffer);
+
+		int homRefCount = 0;
+		int homVarCount = 0;
+		int hetCount = 0;
+		int noCallCount = 0;
+		int samplesInLineCount = 0;
+
+		int i = columns[9];
+		while (i < end) {
+			int countR = 0;
+			int countV = 0;
+			int countNo = 0;
+			int tile = 0;
+			// count genotypes for one sample
+			while (i < end && buffer[i] != '\t') {
+				byte c = buffer[i];
+				if (c == ':') {
+					tile++;
+				} else if (tile == tileGT) {
+					if (c == '1') {
+						countV++;
+					} else if (c == '0') {
+						countR++;
+					} else if (c == '.') {
+						countNo++;
+					}
+				}
+				i++;
+			}
+			// check if it is hom or het
+			if (countR == 2 || (countR == 1 && countV == 0)) {
+				homRefCount++;
+			} else if (countV == 2 || (countV == 1 && countR == 0)) {
+				homVarCount++;
+			} else if (countV == 1 && countR == 1) {
+				hetCount++;
+			}
+			i++;
+
+			if (countNo == 2 || (countNo == 1 && countV == 0 && countR == 0)) {
+				noCallCount++;
+				variantContext.setCalled(samplesInLineCount, false);
+			} else {
+				variantContext.setCalled(samplesInLineCount, true);
+			}
+
+			samplesInLineCount++;
+		}
+
+		// update variant context
+		variantContext.setContig(chromosome);
+		variantContext.setStart(position);
+		variantContext.setReferenceAllele(ref);
+		variantContext.setAlternateAllele(alt);
+		variantContext.setHetCount(hetCount);
+		variantContext.setHomRefCount(homRefCount);
+		variantContext.setHomVarCount(homVarCount);
+		variantContext.setNoCallCount(noCallCount);
+		variantContext.setNSamples(samplesInLineCount);
+		variantContext.setRawLine(buffer, offset, length);
+
+		int filterStart = columns[6];
+		int filterLength = columns[7] - 1 - filterStart;
+		if (isPassOrMissing(buffer, filterStart, filterLength)) {
+			variantContext.setFilters(null);
+		} else {
+			variantContext.setFilters(new String(buffer, filterStart, filterLength, StandardCharsets.UTF_8));
+		}
+
+		return variantContext;
+	}
+
+	/**
+	 * Scans the GT field of all samples without parsing the rest of the
+	 * record. ploidy[i] is set to the number of alleles of sample i, mixed[i]
+	 * to true if some but not all of its alleles are missing (e.g. ./1).
+	 *
+	 * @return the number of samples
+	 */
+	public int scanGenotypes(byte[] buffer, int offset, int length, int[] ploidy, boolean[] mixed)
+			throws IOException {
+
+		int end = offset + length;
+
+		findColumns(buffer, offset, end);
+		int tileGT = findGenotypeTile(buffer);
+
+		int samplesInLineCount = 0;
+
+		int i = columns[9];
+		while (i < end) {
+
+			if (samplesInLineCount == ploidy.length) {
+				throw new IOException("Line has more than " + ploidy.length + " samples.");
+			}
+
+			int alleles = 0;
+			int called = 0;
+			int missing = 0;
+			int tile = 0;
+			boolean newAllele = true;
+			// count alleles for one sample
+			while (i < end && buffer[i] != '\t') {
+				byte c = buffer[i];
+				if (c == ':') {
+					tile++;
+				} else if (tile == tileGT) {
+					if (c == '/' || c == '|') {
+						newAllele = true;
+					} else if (newAllele) {
+						newAllele = false;
+						alleles++;
+						if (c == '.') {
+							missing++;
+						} else {
+							called++;
+						}
+					}
+				}
+				i++;
+			}
+			i++;
+
+			ploidy[samplesInLineCount] = alleles;
+			mixed[samplesInLineCount] = called > 0 && missing > 0;
+			samplesInLineCount++;
+
+		}
+
+		return samplesInLineCount;
+
+	}
+
+	// records the start offsets of the first ten columns
+	private void findColumns(byte[] buffer, int offset, int end) throws IOException {
+
+		columns[0] = offset;
+		int column = 1;
+		for (int i = offset; i < end && column < COLUMNS; i++) {
+			if (buffer[i] == '\t') {
+				columns[column] = i + 1;
+				column++;
+			}
+		}
+
+		if (column < COLUMNS) {
+			throw new IOException("The provided VCF file is not correct tab-delimited");
+		}
+
+	}
+
+	// returns the index of GT in the FORMAT column
+	private int findGenotypeTile(byte[] buffer) throws IOException {
+
+		int formatStart = columns[8];
+		int formatEnd = columns[9] - 1;
+		int k = -1;
+		for (int i = formatStart; i < formatEnd - 1; i++) {
+			if (buffer[i] == 'G' && buffer[i + 1] == 'T') {
+				k = i;
+				break;
+			}
+		}
+
+		if (k == -1) {
+			throw new IOException("No GT field found in FORMAT column.");
+		}
+
+		int tileGT = 0;
+		for (int i = formatStart; i < k; i++) {
+			if (buffer[i] == ':') {
+				tileGT++;
+			}
+		}
+		return tileGT;
+
+	}
+
+	private String parseContig(byte[] buffer, int start, int end) {
+		// contig is the same for all lines of a file, reuse last String
+		int length = end - start;
+		if (lastContig != null && length == lastContigBytes.length) {
+			boolean equal = true;
+			for (int i = 0; i < length; i++) {
+				if (buffer[start + i] != lastContigBytes[i]) {
+					equal = false;
+					break;
+				}
+			}
+			if (equal) {
+				return lastContig;
+			}
+		}
+		lastContigBytes = new byte[length];
+		System.arraycopy(buffer, start, lastContigBytes, 0, length);
+		lastContig = new String(lastContigBytes, StandardCharsets.UTF_8);
+		return lastContig;
+	}
+
+	private int parsePosition(byte[] buffer, int start, int end) {
+		if (start == end) {
+			throw new NumberFormatException("For input string: \"\"");
+		}
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException(
+						"For input string: \"" + new String(buffer, start, end - start, StandardCharsets.UTF_8) + "\"");
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private String parseAllele(byte[] buffer, int start, int end) {
+		if (end - start == 1 && buffer[start] >= 0) {
+			return SINGLE_CHARS[buffer[start]];
+		}
+		return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+	}
+
+	private boolean isPassOrMissing(byte[] buffer, int start, int length) {
+		if (length == 1) {
+			return buffer[start] == '.';
+		}
+		if (length != PASS.length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (buffer[start + i] != PASS[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -1,9 +1,12 @@
 package genepi.imputationserver.steps.vcf;
 
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collections;
 import java.util.HashSet;
@@ -19,24 +22,69 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
 import genepi.hadoop.HdfsUtil;
-import genepi.hadoop.command.Command;
 import genepi.io.FileUtil;
 import genepi.io.text.LineReader;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
 import htsjdk.variant.vcf.VCFFileReader;
 
 public class VcfFileUtil {
 
-	public static String TABIX_PATH = "bin/";
+	public static OutputStream createBlockCompressedOutputStream(String filename) throws IOException {
+		return createBlockCompressedOutputStream(filename, 1,
+				ParallelBlockCompressedOutputStream.DEFAULT_COMPRESSION_LEVEL);
+	}
 
-	public static void setTabixBinary(String binaries) {
-		TABIX_PATH = binaries;
+	/**
+	 * Creates an intermediate BGZF file (chunks, liftOver and chrX splits)
+	 * with the given compression level (0: store only, 1: fastest, 9: best).
+	 * Blocks are deflated on a shared thread pool if more than one
+	 * compression thread is set.
+	 */
+	public static OutputStream createBlockCompressedOutputStream(String filename, int compressionThreads,
+			int compressionLevel) throws IOException {
+		if (compressionLevel < 0 || compressionLevel > 9) {
+			throw new IllegalArgumentException(
+					"Invalid compression level " + compressionLevel + ". Allowed values: 0-9.");
+		}
+		if (compressionThreads > 1) {
+			return new ParallelBlockCompressedOutputStream(new FileOutputStream(filename), compressionThreads,
+					compressionLevel);
+		}
+		return new BlockCompressedOutputStream(new File(filename), compressionLevel);
 	}
-	
-	public static String getBinary(){
-		return TABIX_PATH;
+
+	public static InputStream openInputStream(String filename) throws IOException {
+		return openInputStream(filename, 1);
 	}
-	
+
+	/**
+	 * Opens a (compressed) VCF file. BGZF files are inflated in parallel if
+	 * more than one decompression thread is set.
+	 */
+	public static InputStream openInputStream(String filename, int decompressionThreads) throws IOException {
+		if (decompressionThreads > 1 && ParallelBlockCompressedInputStream.isBlockCompressed(filename)) {
+			return new ParallelBlockCompressedInputStream(new FileInputStream(filename), decompressionThreads);
+		}
+		return FileUtil.decompressStream(new FileInputStream(filename));
+	}
+
+	public static LineReader createLineReader(String filename) throws IOException {
+		return createLineReader(filename, 1);
+	}
+
+	public static LineReader createLineReader(String filename, int decompressionThreads) throws IOException {
+		if (decompressionThreads > 1) {
+			return new LineReader(new DataInputStream(openInputStream(filename, decompressionThreads)));
+		}
+		return new LineReader(filename);
+	}
+
 	public static VcfFile load(String vcfFilename, int chunksize, boolean createIndex) throws IOException {
+		return load(vcfFilename, chunksize, createIndex, 1);
+	}
+
+	public static VcfFile load(String vcfFilename, int chunksize, boolean createIndex, int decompressionThreads)
+			throws IOException {
 
 		Set<Integer> chunks = new HashSet<Integer>();
 		Set<String> chromosomes = new HashSet<String>();
@@ -52,117 +100,148 @@ public class VcfFileUtil {
 
 			reader.close();
 
-			LineReader lineReader = new LineReader(vcfFilename);
+			// build index while scanning the file
+			boolean buildIndex = createIndex && !new File(vcfFilename + ".tbi").exists();
+			boolean blockCompressed = ParallelBlockCompressedInputStream.isBlockCompressed(vcfFilename);
+
+			ParallelBlockCompressedInputStream bgzfReader = null;
+			TabixIndexBuilder indexBuilder = null;
+			LineReader lineReader = null;
+			if (buildIndex && blockCompressed) {
+				bgzfReader = new ParallelBlockCompressedInputStream(new FileInputStream(vcfFilename),
+						Math.max(decompressionThreads, 1));
+				indexBuilder = new TabixIndexBuilder();
+			} else {
+				lineReader = createLineReader(vcfFilename, decompressionThreads);
+			}
 
 			boolean phased = true;
 			boolean phasedAutodetect = true;
 			boolean firstLine = true;
-			while (lineReader.next()) {
+			try {
+
+				while (true) {
 
-				String line = lineReader.get();
+					String line = null;
+					long filePointer = 0;
+					if (bgzfReader != null) {
+						filePointer = bgzfReader.getFilePointer();
+						line = bgzfReader.readLine();
+					} else if (lineReader.next()) {
+						line = lineReader.get();
+					}
+					if (line == null) {
+						break;
+					}
 
-				if (!line.startsWith("#")) {
+					if (!line.startsWith("#")) {
 
-					String tiles[] = line.split("\t", 10);
+						String tiles[] = line.split("\t", 10);
 
-					if (tiles.length < 3) {
-						throw new IOException("The provided VCF file is not tab-delimited");
-					}
+						if (tiles.length < 3) {
+							throw new IOException("The provided VCF file is not tab-delimited");
+						}
 
-					String chromosome = tiles[0];
-					rawChromosomes.add(chromosome);
-					chromosome = chromosome.replaceAll("chr", "");
-					int position = Integer.parseInt(tiles[1]);
+						String chromosome = tiles[0];
+						rawChromosomes.add(chromosome);
+						chromosome = chromosome.replaceAll("chr", "");
+						int position = Integer.parseInt(tiles[1]);
 
-					if (phased) {
-						boolean containsSymbol = tiles[9].contains("/");
+						if (phased) {
+							boolean containsSymbol = tiles[9].contains("/");
+
+							if (containsSymbol) {
+								phased = false;
+							}
 
-						if (containsSymbol) {
-							phased = false;
 						}
 
-					}
+						if (firstLine) {
+							boolean containsSymbol = tiles[9].contains("/") || tiles[9].contains(".");
 
-					if (firstLine) {
-						boolean containsSymbol = tiles[9].contains("/") || tiles[9].contains(".");
+							if (!containsSymbol) {
+								phasedAutodetect = true;
+							} else {
+								phasedAutodetect = false;
+							}
+							firstLine = false;
 
-						if (!containsSymbol) {
-							phasedAutodetect = true;
-						} else {
-							phasedAutodetect = false;
 						}
-						firstLine = false;
 
-					}
+						// TODO: check that all are phased
+						// context.getGenotypes().get(0).isPhased();
+						chromosomes.add(chromosome);
+						if (chromosomes.size() > 1) {
+							throw new IOException(
+									"The provided VCF file contains more than one chromosome. Please split your input VCF file by chromosome");
+						}
 
-					// TODO: check that all are phased
-					// context.getGenotypes().get(0).isPhased();
-					chromosomes.add(chromosome);
-					if (chromosomes.size() > 1) {
-						throw new IOException(
-								"The provided VCF file contains more than one chromosome. Please split your input VCF file by chromosome");
-					}
+						String ref = tiles[3];
+						String alt = tiles[4];
 
-					String ref = tiles[3];
-					String alt = tiles[4];
+						if (ref.equals(alt)) {
+							throw new IOException("The provided VCF file is malformed at variation " + tiles[2]
+									+ ": reference allele (" + ref + ") and alternate allele  (" + alt + ") are the same.");
+						}
 
-					if (ref.equals(alt)) {
-						throw new IOException("The provided VCF file is malformed at variation " + tiles[2]
-								+ ": reference allele (" + ref + ") and alternate allele  (" + alt + ") are the same.");
-					}
+						if (indexBuilder != null) {
+							try {
+								indexBuilder.add(tiles[0], position, ref, filePointer);
+							} catch (IOException e) {
+								throw new IOException(
+										"The provided VCF file is malformed. Error during index creation: " + e.getMessage());
+							}
+						}
 
-					int chunk = position / chunksize;
-					if (position % chunksize == 0) {
-						chunk = chunk - 1;
-					}
-					chunks.add(chunk);
-					noSnps++;
+						int chunk = position / chunksize;
+						if (position % chunksize == 0) {
+							chunk = chunk - 1;
+						}
+						chunks.add(chunk);
+						noSnps++;
 
-				} else {
+					} else {
 
-					if (line.startsWith("#CHROM")) {
+						if (line.startsWith("#CHROM")) {
 
-						String[] tiles = line.split("\t");
+							String[] tiles = line.split("\t");
 
-						// check sample names, stop when not unique
-						HashSet<String> samples = new HashSet<>();
+							// check sample names, stop when not unique
+							HashSet<String> samples = new HashSet<>();
 
-						for (int i = 0; i < tiles.length; i++) {
+							for (int i = 0; i < tiles.length; i++) {
 
-							String sample = tiles[i];
+								String sample = tiles[i];
 
-							if (samples.contains(sample)) {
-								reader.close();
-								throw new IOException("Two individuals or more have the following ID: " + sample);
+								if (samples.contains(sample)) {
+									reader.close();
+									throw new IOException("Two individuals or more have the following ID: " + sample);
+								}
+								samples.add(sample);
 							}
-							samples.add(sample);
 						}
+
 					}
 
 				}
 
-			}
-			lineReader.close();
-
-			// create index
-			if (createIndex && !new File(vcfFilename + ".tbi").exists()) {
+				if (indexBuilder != null) {
+					indexBuilder.write(vcfFilename, bgzfReader.getFilePointer());
+				}
 
-				File command = new File(TABIX_PATH);
-				if (!command.canExecute()){
-					command.setExecutable(true, false);
+			} finally {
+				// also closed if the file is rejected
+				if (bgzfReader != null) {
+					bgzfReader.close();
 				}
-				
-				Command tabix = new Command(TABIX_PATH);
-				tabix.setParams("-f", "-p", "vcf", vcfFilename);
-				tabix.saveStdErr("tabix.output");
-				int returnCode = tabix.execute();
-
-				if (returnCode != 0) {
-					throw new IOException(
-							"The provided VCF file is malformed. Error during index creation: "
-									+ FileUtil.readFileAsString("tabix.output"));
+				if (lineReader != null) {
+					lineReader.close();
 				}
+			}
 
+			if (buildIndex && !blockCompressed) {
+				throw new IOException(
+						"The provided VCF file is malformed. Error during index creation: file is not bgzip compressed");
 			}
 
 			VcfFile pair = new VcfFile();
@@ -337,28 +416,63 @@ public class VcfFileUtil {
 	}
 	
 	public static void createIndex(String vcfFilename, boolean force) throws IOException{
+		createIndex(vcfFilename, force, 1);
+	}
+
+	public static void createIndex(String vcfFilename, boolean force, int decompressionThreads) throws IOException{
 		if (force){
 			if (new File(vcfFilename + ".tbi").exists()){
 				new File(vcfFilename + ".tbi").delete();
 			}
 		}
 		if (!new File(vcfFilename + ".tbi").exists()) {
-			createIndex(vcfFilename);
+			createIndex(vcfFilename, decompressionThreads);
 		}
 	}
 
+	public static void createIndex(String vcfFilename) throws IOException {
+		createIndex(vcfFilename, 1);
+	}
 
-	public static void createIndex(String vcfFilename) throws IOException{
-		Command tabix = new Command(TABIX_PATH);
-		tabix.setParams("-f", "-p", "vcf", vcfFilename);
-		tabix.saveStdErr("tabix.output");
-		int returnCode = tabix.execute();
+	/**
+	 * Creates a tabix index (.tbi) for a bgzipped VCF file.
+	 */
+	public static void createIndex(String vcfFilename, int decompressionThreads) throws IOException {
 
-		if (returnCode != 0) {
-			throw new IOException(
-					"The provided VCF file is malformed. Error during index creation: "
-							+ FileUtil.readFileAsString("tabix.output"));
+		if (!ParallelBlockCompressedInputStream.isBlockCompressed(vcfFilename)) {
+			throw new IOException("The provided VCF file is malformed. Error during index creation: File '"
+					+ vcfFilename + "' is not compressed with bgzip.");
 		}
-		
+
+		ParallelBlockCompressedInputStream reader = new ParallelBlockCompressedInputStream(
+				new FileInputStream(vcfFilename), Math.max(decompressionThreads, 1));
+		TabixIndexBuilder indexBuilder = new TabixIndexBuilder();
+
+		try {
+
+			while (true) {
+				long filePointer = reader.getFilePointer();
+				String line = reader.readLine();
+				if (line == null) {
+					break;
+				}
+				if (line.startsWith("#")) {
+					continue;
+				}
+				String[] tiles = line.split("\t", 6);
+				if (tiles.length < 5) {
+					throw new IOException("The provided VCF file is not tab-delimited");
+				}
+				indexBuilder.add(tiles[0], Integer.parseInt(tiles[1]), tiles[3], filePointer);
+			}
+
+			indexBuilder.write(vcfFilename, reader.getFilePointer());
+
+		} catch (IOException | NumberFormatException e) {
+			throw new IOException("The provided VCF file is malformed. Error during index creation: " + e.getMessage());
+		} finally {
+			reader.close();
+		}
+
 	}
-}
\ No newline at end of file
+}
@@ -18,8 +18,14 @@ public class VcfLiftOverFast {
 
 	public static Vector<String> liftOver(String input, String output, String chainFile, String tempDir)
 			throws IOException {
+		return liftOver(input, output, chainFile, tempDir, 1, 1,
+				ParallelBlockCompressedOutputStream.DEFAULT_COMPRESSION_LEVEL);
+	}
+
+	public static Vector<String> liftOver(String input, String output, String chainFile, String tempDir,
+			int decompressionThreads, int compressionThreads, int compressionLevel) throws IOException {
 
-		LineReader reader = new LineReader(input);
+		LineReader reader = VcfFileUtil.createLineReader(input, decompressionThreads);
 
 		LiftOver liftOver = new LiftOver(new File(chainFile));
 
@@ -27,7 +33,7 @@ public class VcfLiftOverFast {
 
 		SortingCollection<VcfLine> sorter = VcfLineSortingCollection.newInstance(MAX_RECORDS_IN_RAM, tempDir);
 
-		BGzipLineWriter writer = new BGzipLineWriter(output);
+		BGzipLineWriter writer = new BGzipLineWriter(output, false, compressionThreads, compressionLevel);
 		while (reader.next()) {
 			String line = reader.get();
 			if (line.startsWith("#")) {
@@ -87,7 +93,7 @@ public class VcfLiftOverFast {
 		sorter.cleanup();
 
 		// create tabix index
-		VcfFileUtil.createIndex(output, true);
+		VcfFileUtil.createIndex(output, true, decompressionThreads);
 
 		return errors;
 	}
@@ -98,8 +104,6 @@ public class VcfLiftOverFast {
 		// String output =
 		// "/home/lukas/cloud/Genepi/Testdata/imputationserver/chr20.R50.merged.1.330k.recode.hg38.vcf.gz";
 
-		VcfFileUtil.setTabixBinary("files/minimac/bin/tabix");
-
 		String input = "/home/lukas/git/imputationserver-public2/test-data/data/big/chr1-wrayner-filtered-reheader.vcf.gz";
 		String output = "lf.hg38.vcf.gz";
 
@@ -0,0 +1,114 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a (decompressed) VCF stream into lines without creating Strings. The
+ * current line is only valid until the next call of {@link #next()}, because
+ * the underlying buffer is reused.
+ */
+public class VcfLineByteReader {
+
+	public static final int BUFFER_SIZE = 1024 * 1024;
+
+	private InputStream in;
+
+	private byte[] buffer;
+
+	// valid bytes are in [position, limit)
+	private int position = 0;
+
+	private int limit = 0;
+
+	private int lineOffset = 0;
+
+	private int lineLength = 0;
+
+	private boolean eof = false;
+
+	public VcfLineByteReader(InputStream in) {
+		this(in, BUFFER_SIZE);
+	}
+
+	public VcfLineByteReader(InputStream in, int bufferSize) {
+		this.in = in;
+		this.buffer = new byte[bufferSize];
+	}
+
+	public boolean next() throws IOException {
+
+		int scan = position;
+
+		while (true) {
+
+			// find line end in the already buffered data
+			while (scan < limit) {
+				if (buffer[scan] == '\n') {
+					setLine(position, scan);
+					position = scan + 1;
+					return true;
+				}
+				scan++;
+			}
+
+			if (eof) {
+				// last line without line break
+				if (limit > position) {
+					setLine(position, limit);
+					position = limit;
+					return true;
+				}
+				return false;
+			}
+
+			// move remaining bytes to the front or grow buffer for very long lines
+			int remaining = limit - position;
+			if (position > 0) {
+				System.arraycopy(buffer, position, buffer, 0, remaining);
+			} else if (remaining == buffer.length) {
+				byte[] newBuffer = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, newBuffer, 0, remaining);
+				buffer = newBuffer;
+			}
+			scan = remaining;
+			position = 0;
+			limit = remaining;
+
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if (read == -1) {
+				eof = true;
+			} else {
+				limit += read;
+			}
+
+		}
+
+	}
+
+	private void setLine(int start, int end) {
+		// ignore windows line breaks
+		if (end > start && buffer[end - 1] == '\r') {
+			end--;
+		}
+		lineOffset = start;
+		lineLength = end - start;
+	}
+
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	public int getLineOffset() {
+		return lineOffset;
+	}
+
+	public int getLineLength() {
+		return lineLength;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+}
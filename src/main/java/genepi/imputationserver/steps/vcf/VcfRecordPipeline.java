@@ -0,0 +1,312 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Streams VCF records through three stages: a reader thread inflates the
+ * input and collects lines into batches, a pool of parser threads turns
+ * batches into {@link MinimalVariantContext} records and the caller receives
+ * them in file order through a bounded queue.
+ * <p>
+ * Batches are recycled, so a record returned by {@link #get()} is only valid
+ * until the next call of {@link #next()}.
+ */
+public class VcfRecordPipeline {
+
+	public static final int BATCH_SIZE = 512;
+
+	private static final long CLOSE_TIMEOUT = 10000;
+
+	private static final Future<Batch> END = CompletableFuture.completedFuture(null);
+
+	private final int samples;
+
+	private final List<String> header;
+
+	private final VcfLineByteReader reader;
+
+	private final ExecutorService parsers;
+
+	private final BlockingQueue<Future<Batch>> queue;
+
+	private final BlockingQueue<Batch> freeBatches;
+
+	private final ThreadLocal<VCFLineByteParser> parser;
+
+	private Thread readerThread;
+
+	private Batch current;
+
+	private int index = 0;
+
+	private boolean finished = false;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * @param header
+	 *            header lines are added to this list before the first record is
+	 *            available
+	 */
+	public VcfRecordPipeline(InputStream in, final int samples, int parserThreads, List<String> header) {
+
+		this.samples = samples;
+		this.header = header;
+		this.reader = new VcfLineByteReader(in);
+
+		parsers = Executors.newFixedThreadPool(parserThreads, new DaemonThreadFactory("vcf-parser"));
+		queue = new ArrayBlockingQueue<Future<Batch>>(parserThreads * 2);
+
+		// batches in the queue, one in the reader and one at the consumer
+		int batches = parserThreads * 2 + 2;
+		freeBatches = new ArrayBlockingQueue<Batch>(batches);
+		for (int i = 0; i < batches; i++) {
+			freeBatches.add(new Batch());
+		}
+
+		parser = new ThreadLocal<VCFLineByteParser>() {
+			@Override
+			protected VCFLineByteParser initialValue() {
+				return new VCFLineByteParser(samples);
+			}
+		};
+
+		readerThread = new DaemonThreadFactory("vcf-reader").newThread(new Runnable() {
+			@Override
+			public void run() {
+				read();
+			}
+		});
+		readerThread.start();
+
+	}
+
+	public boolean next() throws IOException {
+
+		if (finished) {
+			return false;
+		}
+
+		if (current != null && index + 1 < current.count) {
+			index++;
+			return true;
+		}
+
+		try {
+
+			while (true) {
+
+				if (current != null) {
+					freeBatches.put(current);
+					current = null;
+				}
+
+				Batch batch = queue.take().get();
+
+				if (batch == null) {
+					finished = true;
+					return false;
+				}
+
+				if (batch.count > 0) {
+					current = batch;
+					index = 0;
+					return true;
+				}
+
+				current = batch;
+
+			}
+
+		} catch (InterruptedException e) {
+			throw new IOException("Reading VCF file interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+
+	}
+
+	public MinimalVariantContext get() {
+		return current.records[index];
+	}
+
+	public int getLineNumber() {
+		return current.lineNumbers[index];
+	}
+
+	public void close() throws IOException {
+		closed = true;
+		readerThread.interrupt();
+		parsers.shutdownNow();
+		// the reader thread stops after the current line, the stream is
+		// closed only when it no longer reads from it
+		try {
+			readerThread.join(CLOSE_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		reader.close();
+	}
+
+	private void read() {
+
+		try {
+
+			int lineNumber = 0;
+			boolean inHeader = true;
+			Batch batch = null;
+
+			while (!closed && reader.next()) {
+
+				lineNumber++;
+
+				byte[] buffer = reader.getBuffer();
+				int offset = reader.getLineOffset();
+				int length = reader.getLineLength();
+
+				if (length == 0) {
+					continue;
+				}
+
+				if (inHeader && buffer[offset] == '#') {
+					header.add(new String(buffer, offset, length, StandardCharsets.UTF_8));
+					continue;
+				}
+				inHeader = false;
+
+				if (batch == null) {
+					batch = freeBatches.take();
+					batch.clear();
+				}
+
+				batch.add(buffer, offset, length, lineNumber);
+
+				if (batch.count == BATCH_SIZE) {
+					queue.put(parsers.submit(new ParseTask(batch)));
+					batch = null;
+				}
+
+			}
+
+			if (batch != null) {
+				queue.put(parsers.submit(new ParseTask(batch)));
+			}
+			queue.put(END);
+
+		} catch (InterruptedException e) {
+			// closed by consumer
+		} catch (Throwable e) {
+			// errors are passed to the consumer too, otherwise it waits
+			// forever for the end of the queue
+			if (closed) {
+				return;
+			}
+			try {
+				CompletableFuture<Batch> failed = new CompletableFuture<Batch>();
+				failed.completeExceptionally(e);
+				queue.put(failed);
+			} catch (InterruptedException e1) {
+				// closed by consumer
+			}
+		}
+
+	}
+
+	class ParseTask implements Callable<Batch> {
+
+		private Batch batch;
+
+		public ParseTask(Batch batch) {
+			this.batch = batch;
+		}
+
+		@Override
+		public Batch call() throws Exception {
+			VCFLineByteParser lineParser = parser.get();
+			for (int i = 0; i < batch.count; i++) {
+				if (batch.records[i] == null) {
+					batch.records[i] = new MinimalVariantContext(samples);
+				}
+				lineParser.parseLine(batch.data, batch.offsets[i], batch.lengths[i], batch.records[i]);
+			}
+			return batch;
+		}
+
+	}
+
+	static class Batch {
+
+		private byte[] data = new byte[64 * 1024];
+
+		private int size = 0;
+
+		private int count = 0;
+
+		private int[] offsets = new int[BATCH_SIZE];
+
+		private int[] lengths = new int[BATCH_SIZE];
+
+		private int[] lineNumbers = new int[BATCH_SIZE];
+
+		private MinimalVariantContext[] records = new MinimalVariantContext[BATCH_SIZE];
+
+		public void clear() {
+			size = 0;
+			count = 0;
+		}
+
+		public void add(byte[] buffer, int offset, int length, int lineNumber) {
+			if (size + length > data.length) {
+				byte[] newData = new byte[Math.max(data.length * 2, size + length)];
+				System.arraycopy(data, 0, newData, 0, size);
+				data = newData;
+			}
+			System.arraycopy(buffer, offset, data, size, length);
+			offsets[count] = size;
+			lengths[count] = length;
+			lineNumbers[count] = lineNumber;
+			size += length;
+			count++;
+		}
+
+	}
+
+	static class DaemonThreadFactory implements ThreadFactory {
+
+		private String name;
+
+		private int count = 0;
+
+		public DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public synchronized Thread newThread(Runnable runnable) {
+			count++;
+			Thread thread = new Thread(runnable, name + "-" + count);
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	}
+
+}
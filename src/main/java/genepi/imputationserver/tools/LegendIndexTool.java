@@ -0,0 +1,82 @@
+package genepi.imputationserver.tools;
+
+import java.io.File;
+
+import genepi.base.Tool;
+import genepi.imputationserver.steps.fastqc.legend.LegendIndex;
+
+public class LegendIndexTool extends Tool {
+
+	public static final String[] CHROMOSOMES = { "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13",
+			"14", "15", "16", "17", "18", "19", "20", "21", "22", "X", "MT" };
+
+	public LegendIndexTool(String[] args) {
+		super(args);
+	}
+
+	@Override
+	public void createParameters() {
+		addParameter("legend", "legend file (use $chr for all chromosomes of a panel)");
+		addOptionalParameter("output", "output index file (use $chr, default: legend file + "
+				+ LegendIndex.EXTENSION + ")", Tool.STRING);
+	}
+
+	@Override
+	public void init() {
+		System.out.println("Legend Index Compiler for Michigan Imputation Server");
+		System.out.println("");
+	}
+
+	@Override
+	public int run() {
+
+		String legend = getValue("legend").toString();
+		String output = null;
+		if (getValue("output") != null) {
+			output = getValue("output").toString();
+		}
+
+		try {
+
+			if (!legend.contains("$chr")) {
+				compile(legend, output != null ? output : LegendIndex.getIndexFilename(legend));
+				return 0;
+			}
+
+			int count = 0;
+			for (String chromosome : CHROMOSOMES) {
+				String legendFile = legend.replaceAll("\\$chr", chromosome);
+				if (!new File(legendFile).exists()) {
+					continue;
+				}
+				String indexFile = output != null ? output.replaceAll("\\$chr", chromosome)
+						: LegendIndex.getIndexFilename(legendFile);
+				compile(legendFile, indexFile);
+				count++;
+			}
+
+			if (count == 0) {
+				System.out.println("Error: no legend file found for pattern " + legend + ".");
+				return 1;
+			}
+
+			System.out.println("Compiled " + count + " legend files.");
+			return 0;
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			return 1;
+		}
+
+	}
+
+	private void compile(String legendFile, String indexFile) throws Exception {
+		System.out.println("Compile legend file " + legendFile + "...");
+		LegendIndex.build(legendFile, indexFile);
+		LegendIndex index = new LegendIndex(indexFile, null);
+		System.out.println("  Written " + index.getSize() + " sites with populations " + index.getPopulations()
+				+ " to " + indexFile + ".");
+		index.close();
+	}
+
+}
@@ -0,0 +1,22 @@
+package genepi.imputationserver.util;
+
+/**
+ * Result of the comparison between study alleles and reference alleles. The
+ * order of the checks is match, A/T or C/G genotype, allele switch, strand
+ * flip, strand flip and allele switch, mismatch.
+ */
+public enum AlleleClassification {
+
+	MATCH,
+
+	COMPLICATED_GENOTYPES,
+
+	ALLELE_SWITCH,
+
+	STRAND_FLIP,
+
+	STRAND_FLIP_AND_ALLELE_SWITCH,
+
+	ALLELE_MISMATCH
+
+}
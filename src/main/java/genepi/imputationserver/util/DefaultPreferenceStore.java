@@ -84,6 +84,29 @@ public class DefaultPreferenceStore {
 		defaults.setProperty("hg38Tohg19", "chains/hg38ToHg19.over.chain.gz");
 		defaults.setProperty("hg19Tohg38", "chains/hg19ToHg38.over.chain.gz");
 		defaults.setProperty("sanitycheck", "yes");
+		defaults.setProperty("qc.parser", "text");
+		defaults.setProperty("qc.threads", "1");
+		defaults.setProperty("qc.pipeline.threads", "0");
+		defaults.setProperty("vcf.decompression.threads", "1");
+		defaults.setProperty("vcf.compression.threads", "1");
+		defaults.setProperty("vcf.compression.level", "5");
+		defaults.setProperty("qc.legend.cache", "0");
+		defaults.setProperty("qc.maf.format", "text");
+		defaults.setProperty("qc.chunk.index", "false");
+		defaults.setProperty("qc.region.reader", "true");
+		// one hadoop job for all chromosomes instead of one job per chromosome
+		defaults.setProperty("imputation.single.job", "false");
+		defaults.setProperty("imputation.chunks.per.task", "1");
+		// reference panel sites per base pair, used to schedule expensive chunks first
+		defaults.setProperty("imputation.cost.panel.density", "0.015");
+		// concurrent eagle, minimac and upload processes per map task
+		defaults.setProperty("imputation.staged", "false");
+		defaults.setProperty("imputation.staged.phasing.threads", "1");
+		defaults.setProperty("imputation.staged.imputation.threads", "1");
+		defaults.setProperty("imputation.staged.upload.threads", "1");
+		// qc output cache size in MB, 0 disables the cache
+		defaults.setProperty("qc.cache.dir", "/tmp/qc-cache");
+		defaults.setProperty("qc.cache.size", "0");
 
 		return defaults;
 	}
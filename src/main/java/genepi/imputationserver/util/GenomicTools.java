@@ -8,26 +8,78 @@ import genepi.imputationserver.steps.vcf.MinimalVariantContext;
 
 public class GenomicTools {
 
-	private static final String GC = "GC";
-	private static final String CG = "CG";
-	private static final String TA = "TA";
-	private static final String AT = "AT";
-	private static final String CT = "CT";
-	private static final String GA = "GA";
-	private static final String TC = "TC";
-	private static final String AG = "AG";
-	private static final String GT = "GT";
-	private static final String CA = "CA";
-	private static final String TG = "TG";
-	private static final String AC = "AC";
-	private static final String T = "T";
-	private static final String G = "G";
-	private static final String C = "C";
-	private static final String A = "A";
+	// allele codes used by the lookup table
+	private static final int OTHER = -1;
+
+	private static final int[] CODES = new int[128];
+
+	private static final char[] COMPLEMENT = { 'T', 'G', 'C', 'A' };
+
+	// classification for all combinations of study and reference alleles
+	private static final AlleleClassification[] TABLE = new AlleleClassification[256];
+
+	static {
+		for (int i = 0; i < CODES.length; i++) {
+			CODES[i] = OTHER;
+		}
+		CODES['A'] = 0;
+		CODES['C'] = 1;
+		CODES['G'] = 2;
+		CODES['T'] = 3;
+
+		char[] alleles = { 'A', 'C', 'G', 'T' };
+		for (int i = 0; i < TABLE.length; i++) {
+			TABLE[i] = classify(alleles[(i >> 6) & 3], alleles[(i >> 4) & 3], alleles[(i >> 2) & 3], alleles[i & 3]);
+		}
+	}
 
 	public static boolean isValid(String allele) {
-		return allele.toUpperCase().equals(A) || allele.toUpperCase().equals(C) || allele.toUpperCase().equals(G)
-				|| allele.toUpperCase().equals(T);
+		if (allele.length() != 1) {
+			return false;
+		}
+		switch (allele.charAt(0)) {
+		case 'A':
+		case 'C':
+		case 'G':
+		case 'T':
+		case 'a':
+		case 'c':
+		case 'g':
+		case 't':
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Classifies study alleles against reference alleles with one table
+	 * lookup. Only the first character of each allele is used.
+	 */
+	public static AlleleClassification classify(MinimalVariantContext snp, LegendEntry refEntry) {
+
+		char studyRef = snp.getReferenceAllele().charAt(0);
+		char studyAlt = snp.getAlternateAllele().charAt(0);
+		char legendRef = refEntry.getAlleleA();
+		char legendAlt = refEntry.getAlleleB();
+
+		// strand checks need single base alleles
+		if (snp.getReferenceAllele().length() != 1 || snp.getAlternateAllele().length() != 1) {
+			return classifySimple(studyRef, studyAlt, legendRef, legendAlt);
+		}
+
+		int a = code(studyRef);
+		int b = code(studyAlt);
+		int c = code(legendRef);
+		int d = code(legendAlt);
+
+		if (a == OTHER || b == OTHER || c == OTHER || d == OTHER) {
+			// lower case or other characters: no strand checks possible
+			return classifySimple(studyRef, studyAlt, legendRef, legendAlt);
+		}
+
+		return TABLE[(a << 6) | (b << 4) | (c << 2) | d];
+
 	}
 
 	public static boolean match(MinimalVariantContext snp, LegendEntry refEntry) {
@@ -66,107 +118,102 @@ public class GenomicTools {
 
 	public static boolean strandFlip(MinimalVariantContext snp, LegendEntry refEntry) {
 
-		String studyGenotype = snp.getGenotype();
-		String referenceGenotype = refEntry.getGenotype();
-
-		if (studyGenotype.equals(AC)) {
-
-			return referenceGenotype.equals(TG);
-
-		} else if (studyGenotype.equals(CA)) {
-
-			return referenceGenotype.equals(GT);
-
-		} else if (studyGenotype.equals(AG)) {
-
-			return referenceGenotype.equals(TC);
-
-		} else if (studyGenotype.equals(GA)) {
-
-			return referenceGenotype.equals(CT);
-
-		} else if (studyGenotype.equals(TG)) {
-
-			return referenceGenotype.equals(AC);
-
-		} else if (studyGenotype.equals(GT)) {
-
-			return referenceGenotype.equals(CA);
-
-		} else if (studyGenotype.equals(CT)) {
-
-			return referenceGenotype.equals(GA);
-
-		} else if (studyGenotype.equals(TC)) {
-
-			return referenceGenotype.equals(AG);
-
+		if (!isSingleBase(snp)) {
+			return false;
 		}
 
-		return false;
+		return strandFlip(snp.getReferenceAllele().charAt(0), snp.getAlternateAllele().charAt(0),
+				refEntry.getAlleleA(), refEntry.getAlleleB());
 
 	}
 
 	public static boolean complicatedGenotypes(MinimalVariantContext snp, LegendEntry refEntry) {
 
-		String studyGenotype = snp.getGenotype();
-		String referenceGenotype = refEntry.getGenotype();
-
-		if ((studyGenotype.equals(AT) || studyGenotype.equals(TA))
-				&& (referenceGenotype.equals(AT) || referenceGenotype.equals(TA))) {
-
-			return true;
-
-		} else if ((studyGenotype.equals(CG) || studyGenotype.equals(GC))
-				&& (referenceGenotype.equals(CG) || referenceGenotype.equals(GC))) {
-
-			return true;
-
+		if (!isSingleBase(snp)) {
+			return false;
 		}
-		return false;
+
+		return complicatedGenotypes(snp.getReferenceAllele().charAt(0), snp.getAlternateAllele().charAt(0),
+				refEntry.getAlleleA(), refEntry.getAlleleB());
 	}
 
 	public static boolean strandFlipAndAlleleSwitch(MinimalVariantContext snp, LegendEntry refEntry) {
 
-		String studyGenotype = snp.getGenotype();
-		String referenceGenotype = refEntry.getGenotype();
-
-		if (studyGenotype.equals(AC)) {
-
-			return referenceGenotype.equals(GT);
-
-		} else if (studyGenotype.equals(CA)) {
+		if (!isSingleBase(snp)) {
+			return false;
+		}
 
-			return referenceGenotype.equals(TG);
+		return strandFlipAndAlleleSwitch(snp.getReferenceAllele().charAt(0), snp.getAlternateAllele().charAt(0),
+				refEntry.getAlleleA(), refEntry.getAlleleB());
 
-		} else if (studyGenotype.equals(AG)) {
+	}
 
-			return referenceGenotype.equals(CT);
+	private static AlleleClassification classify(char studyRef, char studyAlt, char legendRef, char legendAlt) {
 
-		} else if (studyGenotype.equals(GA)) {
+		if (studyRef == legendRef && studyAlt == legendAlt) {
+			return AlleleClassification.MATCH;
+		} else if (complicatedGenotypes(studyRef, studyAlt, legendRef, legendAlt)) {
+			return AlleleClassification.COMPLICATED_GENOTYPES;
+		} else if (studyRef == legendAlt && studyAlt == legendRef) {
+			return AlleleClassification.ALLELE_SWITCH;
+		} else if (strandFlip(studyRef, studyAlt, legendRef, legendAlt)) {
+			return AlleleClassification.STRAND_FLIP;
+		} else if (strandFlipAndAlleleSwitch(studyRef, studyAlt, legendRef, legendAlt)) {
+			return AlleleClassification.STRAND_FLIP_AND_ALLELE_SWITCH;
+		}
+		return AlleleClassification.ALLELE_MISMATCH;
 
-			return referenceGenotype.equals(TC);
+	}
 
-		} else if (studyGenotype.equals(TG)) {
+	private static AlleleClassification classifySimple(char studyRef, char studyAlt, char legendRef,
+			char legendAlt) {
 
-			return referenceGenotype.equals(CA);
+		if (studyRef == legendRef && studyAlt == legendAlt) {
+			return AlleleClassification.MATCH;
+		} else if (studyRef == legendAlt && studyAlt == legendRef) {
+			return AlleleClassification.ALLELE_SWITCH;
+		}
+		return AlleleClassification.ALLELE_MISMATCH;
 
-		} else if (studyGenotype.equals(GT)) {
+	}
 
-			return referenceGenotype.equals(AC);
+	// A/T or C/G in study and reference
+	private static boolean complicatedGenotypes(char studyRef, char studyAlt, char legendRef, char legendAlt) {
+		return (isPair(studyRef, studyAlt, 'A', 'T') && isPair(legendRef, legendAlt, 'A', 'T'))
+				|| (isPair(studyRef, studyAlt, 'C', 'G') && isPair(legendRef, legendAlt, 'C', 'G'));
+	}
 
-		} else if (studyGenotype.equals(CT)) {
+	private static boolean strandFlip(char studyRef, char studyAlt, char legendRef, char legendAlt) {
+		return isUnambiguous(studyRef, studyAlt) && legendRef == complement(studyRef)
+				&& legendAlt == complement(studyAlt);
+	}
 
-			return referenceGenotype.equals(AG);
+	private static boolean strandFlipAndAlleleSwitch(char studyRef, char studyAlt, char legendRef, char legendAlt) {
+		return isUnambiguous(studyRef, studyAlt) && legendRef == complement(studyAlt)
+				&& legendAlt == complement(studyRef);
+	}
 
-		} else if (studyGenotype.equals(TC)) {
+	// two different bases that are not A/T or C/G
+	private static boolean isUnambiguous(char ref, char alt) {
+		int a = code(ref);
+		int b = code(alt);
+		return a != OTHER && b != OTHER && a != b && a + b != 3;
+	}
 
-			return referenceGenotype.equals(GA);
+	private static boolean isPair(char ref, char alt, char first, char second) {
+		return (ref == first && alt == second) || (ref == second && alt == first);
+	}
 
-		}
+	private static boolean isSingleBase(MinimalVariantContext snp) {
+		return snp.getReferenceAllele().length() == 1 && snp.getAlternateAllele().length() == 1;
+	}
 
-		return false;
+	private static char complement(char base) {
+		return COMPLEMENT[code(base)];
+	}
 
+	private static int code(char base) {
+		return base < CODES.length ? CODES[base] : OTHER;
 	}
 
 	public static ChiSquareObject chiSquare(MinimalVariantContext snp, LegendEntry refSnp, boolean strandSwap,
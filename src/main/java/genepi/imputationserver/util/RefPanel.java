@@ -25,6 +25,8 @@ public class RefPanel {
 
 	private String legend;
 
+	private String legendIndex;
+
 	private String mapMinimac;
 
 	private String build = "hg19";
@@ -91,6 +93,14 @@ public class RefPanel {
 		this.legend = legend;
 	}
 
+	public String getLegendIndex() {
+		return legendIndex;
+	}
+
+	public void setLegendIndex(String legendIndex) {
+		this.legendIndex = legendIndex;
+	}
+
 	public void setBuild(String build) {
 		this.build = build;
 	}
@@ -91,6 +91,12 @@ public class RefPanelList {
 				panel.setRange(null);
 			}
 
+			if (map.get("legendIndex") != null) {
+				panel.setLegendIndex(map.get("legendIndex").toString());
+			} else {
+				panel.setLegendIndex(null);
+			}
+
 			if (map.get("mapMinimac") != null) {
 				panel.setMapMinimac(map.get("mapMinimac").toString());
 			} else {
@@ -10,12 +10,28 @@ import genepi.imputationserver.steps.ImputationTest;
 import genepi.imputationserver.steps.ImputationChrXTest;
 import genepi.imputationserver.steps.ImputationPipelineTest;
 import genepi.imputationserver.steps.InputValidationTest;
+import genepi.imputationserver.steps.fastqc.ChunkWindowTest;
+import genepi.imputationserver.steps.fastqc.MafBinaryTest;
+import genepi.imputationserver.steps.fastqc.QcOutputCacheTest;
+import genepi.imputationserver.steps.fastqc.RangeIndexTest;
 import genepi.imputationserver.steps.fastqc.VCFLineParserTest;
+import genepi.imputationserver.steps.fastqc.legend.LegendFileCursorTest;
+import genepi.imputationserver.steps.fastqc.legend.LegendIndexTest;
+import genepi.imputationserver.steps.imputation.ChunkCostModelTest;
+import genepi.imputationserver.steps.imputation.StagedExecutorTest;
 import genepi.imputationserver.steps.util.FileMergerTest;
+import genepi.imputationserver.steps.vcf.ParallelBlockCompressedInputStreamTest;
+import genepi.imputationserver.steps.vcf.ParallelBlockCompressedOutputStreamTest;
+import genepi.imputationserver.util.GenomicToolsTest;
 
 @RunWith(Suite.class)
 @SuiteClasses({ InputValidationTest.class, VCFLineParserTest.class, ImputationTest.class, FileMergerTest.class,
-	FastQualityControlTest.class, ImputationPipelineTest.class, ImputationChrXTest.class, ImputationChrMT.class})
+	FastQualityControlTest.class, ImputationPipelineTest.class, ImputationChrXTest.class, ImputationChrMT.class,
+	ParallelBlockCompressedInputStreamTest.class, LegendIndexTest.class,
+	LegendFileCursorTest.class, GenomicToolsTest.class, MafBinaryTest.class,
+	RangeIndexTest.class, ChunkWindowTest.class, ParallelBlockCompressedOutputStreamTest.class,
+	QcOutputCacheTest.class, StagedExecutorTest.class,
+	ChunkCostModelTest.class })
 public class AllTests {
 
 }
@@ -2,15 +2,21 @@ package genepi.imputationserver.steps;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.Test;
 
 import cloudgene.sdk.internal.WorkflowStep;
-import genepi.imputationserver.steps.vcf.VcfFileUtil;
+import genepi.imputationserver.steps.fastqc.MafBinaryReader;
+import genepi.imputationserver.steps.fastqc.MafBinaryWriter;
 import genepi.imputationserver.util.WorkflowTestContext;
 import genepi.io.FileUtil;
 import genepi.io.text.LineReader;
+import genepi.io.text.LineWriter;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFFileReader;
@@ -223,6 +229,149 @@ public class FastQualityControlTest extends TestCase {
 
 	}
 
+	public void testQcStatisticsWithThreads() throws IOException {
+		assertSameOutputAsSerialRun("qc.threads=2");
+	}
+
+	public void testQcStatisticsWithBytePipeline() throws IOException {
+		assertSameOutputAsSerialRun("qc.threads=2", "qc.parser=byte", "qc.pipeline.threads=2");
+	}
+
+	public void testQcStatisticsWithBinaryMaf() throws IOException {
+
+		String configFolder = "test-data/configs/hapmap-3chr";
+		String inputFolder = "test-data/data/simulated-chip-3chr-imputation";
+
+		WorkflowTestContext context = buildContext(inputFolder, "hapmap2");
+		run(context, new FastQualityControlMock(configFolder));
+		String[] expected = FileUtil.readFileAsString(context.getOutput("mafFile")).split("\n");
+
+		String binaryConfigFolder = createConfig(configFolder, "qc.maf.format=binary");
+		context = buildContext(inputFolder, "hapmap2");
+		run(context, new FastQualityControlMock(binaryConfigFolder));
+
+		// text file is not written
+		assertEquals("", FileUtil.readFileAsString(context.getOutput("mafFile")).trim());
+
+		MafBinaryReader reader = new MafBinaryReader(MafBinaryWriter.getBinaryFilename(context.getOutput("mafFile")));
+		assertEquals(expected.length, reader.getSize());
+		for (int i = 0; i < expected.length; i++) {
+			// without snp, overlap and type
+			String[] columns = expected[i].split("\t");
+			String[] binaryColumns = reader.get(i).toString().split("\t");
+			assertEquals(Arrays.asList(columns).subList(1, 11), Arrays.asList(binaryColumns).subList(0, 10));
+		}
+
+		FileUtil.deleteDirectory(binaryConfigFolder);
+
+	}
+
+	public void testQcStatisticsWithRegionReader() throws IOException {
+
+		// two adjacent ranges on chr1, no range on chr3
+		String configFolder = "test-data/configs/hapmap-3chr";
+		String inputFolder = "test-data/data/simulated-chip-3chr-imputation";
+
+		// scans all records
+		String scanConfigFolder = createConfig(configFolder, "qc.region.reader=false");
+		WorkflowTestContext context = buildContext(inputFolder, "hapmap2-region-adjacent");
+		run(context, new FastQualityControlMock(scanConfigFolder));
+		Map<String, String> expected = readOutputs(context);
+		Map<String, Integer> expectedCounters = context.getCounters();
+
+		// reads only the ranges with the tabix index
+		context = buildContext(inputFolder, "hapmap2-region-adjacent");
+		run(context, new FastQualityControlMock(configFolder));
+		Map<String, String> outputs = readOutputs(context);
+
+		assertTrue(outputs.containsKey("1"));
+		assertFalse(outputs.containsKey("3"));
+		assertEquals(expectedCounters, context.getCounters());
+		assertEquals(expected.keySet(), outputs.keySet());
+		for (String name : expected.keySet()) {
+			assertEquals(name, expected.get(name), outputs.get(name));
+		}
+
+		FileUtil.deleteDirectory(scanConfigFolder);
+
+	}
+
+	// compares counters, chunk files, excluded snps and maf file with a serial run
+	private void assertSameOutputAsSerialRun(String... settings) throws IOException {
+
+		String configFolder = "test-data/configs/hapmap-3chr";
+		String inputFolder = "test-data/data/simulated-chip-3chr-imputation";
+
+		WorkflowTestContext context = buildContext(inputFolder, "hapmap2");
+		run(context, new FastQualityControlMock(configFolder));
+		Map<String, String> expected = readOutputs(context);
+
+		String parallelConfigFolder = createConfig(configFolder, settings);
+		context = buildContext(inputFolder, "hapmap2");
+		run(context, new FastQualityControlMock(parallelConfigFolder));
+
+		assertTrue(context.hasInMemory("Excluded sites in total: 3,058"));
+		assertTrue(context.hasInMemory("Remaining sites in total: 117,498"));
+
+		// temporary files of the workers are removed
+		for (File file : new File(context.getOutput("chunksDir")).listFiles()) {
+			assertFalse(file.getName(), file.getName().startsWith("qc_worker_"));
+		}
+
+		Map<String, String> outputs = readOutputs(context);
+		assertEquals(expected.keySet(), outputs.keySet());
+		for (String name : expected.keySet()) {
+			assertEquals(name, expected.get(name), outputs.get(name));
+		}
+
+		FileUtil.deleteDirectory(parallelConfigFolder);
+
+	}
+
+	// copy of the config folder with additional job.config settings
+	private String createConfig(String configFolder, String... settings) throws IOException {
+
+		String folder = "test-data/tmp-config";
+		FileUtil.deleteDirectory(folder);
+		FileUtil.createDirectory(folder);
+
+		LineWriter writer = new LineWriter(FileUtil.path(folder, "job.config"));
+		writer.write(FileUtil.readFileAsString(FileUtil.path(configFolder, "job.config")));
+		for (String setting : settings) {
+			writer.write(setting);
+		}
+		writer.close();
+
+		// panels with absolute paths to the original reference files
+		String refPanels = new File(configFolder, "ref-panels").getAbsolutePath() + "/";
+		writer = new LineWriter(FileUtil.path(folder, "panels.txt"));
+		writer.write(FileUtil.readFileAsString(FileUtil.path(configFolder, "panels.txt")).replaceAll("ref-panels/",
+				refPanels));
+		writer.close();
+
+		return folder;
+
+	}
+
+	private Map<String, String> readOutputs(WorkflowTestContext context) throws IOException {
+
+		Map<String, String> outputs = new HashMap<String, String>();
+
+		// chunk files are named by contig
+		for (File file : new File(context.getOutput("chunkFileDir")).listFiles()) {
+			if (file.isFile() && !file.getName().contains(".")) {
+				outputs.put(file.getName(), FileUtil.readFileAsString(file.getAbsolutePath()));
+			}
+		}
+
+		outputs.put("snps-excluded.txt",
+				FileUtil.readFileAsString(FileUtil.path(context.getOutput("statisticDir"), "snps-excluded.txt")));
+		outputs.put("mafFile", FileUtil.readFileAsString(context.getOutput("mafFile")));
+
+		return outputs;
+
+	}
+
 	public void testCountLinesInChunkMetaFile() throws IOException {
 
 		String configFolder = "test-data/configs/hapmap-chr1";
@@ -446,11 +595,6 @@ public class FastQualityControlTest extends TestCase {
 			return folder;
 		}
 
-		@Override
-		protected void setupTabix(String folder) {
-			VcfFileUtil.setTabixBinary("files/bin/tabix");
-		}
-
 	}
 
 	protected boolean run(WorkflowTestContext context, WorkflowStep step) {
@@ -608,6 +752,40 @@ public class FastQualityControlTest extends TestCase {
 	}
 	
 	@Test
+	public void testLiftOverWarningWithCachedOutputs() throws IOException {
+
+		String configFolder = "test-data/configs/hapmap-chrX-hg38";
+		String inputFolder = "test-data/data/chr23-unphased";
+
+		// maybe git large files?
+		if (!new File(
+				"test-data/configs/hapmap-chrX-hg38/ref-panels/ALL.X.nonPAR.phase1_v3.snps_indels_svs.genotypes.all.noSingleton.recode.hg38.bcf")
+						.exists()) {
+			System.out.println("chrX bcf nonPAR file not available");
+			return;
+		}
+
+		String cacheDir = "test-data/tmp-qc-cache";
+		FileUtil.deleteDirectory(cacheDir);
+		String cacheConfigFolder = createConfig(configFolder, "qc.cache.size=1024", "qc.cache.dir=" + cacheDir);
+		Files.copy(Paths.get(configFolder, "hg19ToHg38.over.chain.gz"),
+				Paths.get(cacheConfigFolder, "hg19ToHg38.over.chain.gz"));
+
+		WorkflowTestContext context = buildContext(inputFolder, "hapmap2");
+		assertTrue(run(context, new FastQualityControlMock(cacheConfigFolder)));
+		assertTrue(context.hasInMemory("Uploaded data is hg19 and reference is hg38."));
+
+		// second job restores the outputs and still warns about the liftover
+		context = buildContext(inputFolder, "hapmap2");
+		assertTrue(run(context, new FastQualityControlMock(cacheConfigFolder)));
+		assertTrue(context.hasInMemory("Quality control outputs restored from cache"));
+		assertTrue(context.hasInMemory("Uploaded data is hg19 and reference is hg38."));
+
+		FileUtil.deleteDirectory(cacheConfigFolder);
+		FileUtil.deleteDirectory(cacheDir);
+
+	}
+
 	public void testChrXPipelineLifting() throws IOException, ZipException {
 
 		String configFolder = "test-data/configs/hapmap-chrX-hg38";
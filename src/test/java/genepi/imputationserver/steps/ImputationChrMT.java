@@ -228,11 +228,6 @@ public class ImputationChrMT {
 			return folder;
 		}
 
-		@Override
-		protected void setupTabix(String folder) {
-			VcfFileUtil.setTabixBinary("files/bin/tabix");
-		}
-
 	}
 
 	class InputValidationMock extends InputValidation {
@@ -250,10 +245,5 @@ public class ImputationChrMT {
 			return folder;
 		}
 
-		@Override
-		protected void setupTabix(String folder) {
-			VcfFileUtil.setTabixBinary("files/bin/tabix");
-		}
-
 	}
 }
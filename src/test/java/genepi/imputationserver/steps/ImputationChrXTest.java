@@ -583,11 +583,6 @@ public class ImputationChrXTest {
 			return folder;
 		}
 
-		@Override
-		protected void setupTabix(String folder) {
-			VcfFileUtil.setTabixBinary("files/bin/tabix");
-		}
-
 	}
 
 	class InputValidationMock extends InputValidation {
@@ -605,10 +600,5 @@ public class ImputationChrXTest {
 			return folder;
 		}
 
-		@Override
-		protected void setupTabix(String folder) {
-			VcfFileUtil.setTabixBinary("files/bin/tabix");
-		}
-
 	}
 }
@@ -13,12 +13,14 @@ import org.junit.Test;
 
 import cloudgene.sdk.internal.WorkflowStep;
 import genepi.hadoop.HdfsUtil;
+import genepi.imputationserver.steps.imputation.ImputationJob;
 import genepi.imputationserver.steps.vcf.VcfFile;
 import genepi.imputationserver.steps.vcf.VcfFileUtil;
 import genepi.imputationserver.util.TestCluster;
 import genepi.imputationserver.util.WorkflowTestContext;
 import genepi.io.FileUtil;
 import genepi.io.text.LineReader;
+import genepi.io.text.LineWriter;
 import net.lingala.zip4j.core.ZipFile;
 import net.lingala.zip4j.exception.ZipException;
 
@@ -95,6 +97,94 @@ public class ImputationTest {
 
 	}
 
+	@Test
+	public void testPipelineWithPhasedInSingleJob() throws IOException, ZipException {
+
+		String configFolder = "test-data/configs/hapmap-chr20";
+		String inputFolder = "test-data/data/chr20-phased";
+
+		// create workflow context
+		WorkflowTestContext context = buildContext(inputFolder, "hapmap2");
+
+		// run qc to create chunkfile
+		QcStatisticsMock qcStats = new QcStatisticsMock(configFolder);
+		boolean result = run(context, qcStats);
+
+		assertTrue(result);
+
+		// add panel to hdfs
+		importRefPanel(FileUtil.path(configFolder, "ref-panels"));
+		importBinaries("files/bin");
+
+		// one job for all chromosomes, two chunks per map task
+		String singleJobConfigFolder = createConfig(configFolder, "imputation.single.job=true",
+				"imputation.chunks.per.task=2");
+		ImputationMinimac3Mock imputation = new ImputationMinimac3Mock(singleJobConfigFolder);
+		result = run(context, imputation);
+		assertTrue(result);
+		assertTrue(context.hasInMemory("Chromosome 20: input data is phased."));
+
+		// chunks of all chromosomes in one file, results in one folder per
+		// chromosome
+		assertTrue(HdfsUtil.exists(HdfsUtil.path(context.getHdfsTemp(), Imputation.ALL_CHROMOSOMES)));
+		assertFalse(HdfsUtil.exists(HdfsUtil.path(context.getHdfsTemp(), "20")));
+		assertTrue(HdfsUtil.exists(HdfsUtil.path("cloudgene-hdfs", "20")));
+		assertFalse(HdfsUtil.exists(HdfsUtil.path("cloudgene-hdfs", Imputation.ALL_CHROMOSOMES)));
+
+		// same results as one job per chromosome
+		CompressionEncryptionMock export = new CompressionEncryptionMock("files");
+		result = run(context, export);
+		assertTrue(result);
+
+		ZipFile zipFile = new ZipFile("test-data/tmp/local/chr_20.zip");
+		if (zipFile.isEncrypted()) {
+			zipFile.setPassword(PASSWORD);
+		}
+		zipFile.extractAll("test-data/tmp");
+
+		VcfFile file = VcfFileUtil.load("test-data/tmp/chr20.dose.vcf.gz", 100000000, false);
+
+		assertEquals("20", file.getChromosome());
+		assertEquals(51, file.getNoSamples());
+		assertEquals(true, file.isPhased());
+		assertEquals(TOTAL_REFPANEL_CHR20_B37 + ONLY_IN_INPUT, file.getNoSnps());
+
+		FileUtil.deleteDirectory(singleJobConfigFolder);
+		FileUtil.deleteDirectory("test-data/tmp");
+
+	}
+
+	@Test
+	public void testDeleteFailedRegions() throws IOException {
+
+		WorkflowTestContext context = buildContext("test-data/data/chr20-phased", "hapmap2");
+
+		String output = "cloudgene-hdfs";
+		String file = FileUtil.path("test-data", "tmp", "chunk.txt");
+		LineWriter writer = new LineWriter(file);
+		writer.write("chunk");
+		writer.close();
+
+		// chr X regions with and without failed marker
+		for (String folder : new String[] { "20", "X.PAR1", "X.nonPAR" }) {
+			HdfsUtil.put(file, HdfsUtil.path(HdfsUtil.path(output, folder), "chunk.txt"));
+		}
+		HdfsUtil.put(file, HdfsUtil.path(output, "X.nonPAR" + ImputationJob.FAILED_REGION_SUFFIX));
+
+		ImputationMinimac3Mock imputation = new ImputationMinimac3Mock("test-data/configs/hapmap-chr20");
+		imputation.setup(context);
+		imputation.deleteFailedRegions(output, context);
+
+		assertTrue(HdfsUtil.exists(HdfsUtil.path(output, "20")));
+		assertTrue(HdfsUtil.exists(HdfsUtil.path(output, "X.PAR1")));
+		assertFalse(HdfsUtil.exists(HdfsUtil.path(output, "X.nonPAR")));
+		assertFalse(HdfsUtil.exists(HdfsUtil.path(output, "X.nonPAR" + ImputationJob.FAILED_REGION_SUFFIX)));
+		assertTrue(context.hasInMemory("Imputation of X.nonPAR failed."));
+
+		FileUtil.deleteDirectory("test-data/tmp");
+
+	}
+
 	@Test
 	public void testPipelineWithPhasedAndEmptyPhasing() throws IOException, ZipException {
 
@@ -1124,6 +1214,29 @@ public class ImputationTest {
 
 	}
 
+	// copy of the config folder with additional job.config settings
+	private String createConfig(String configFolder, String... settings) throws IOException {
+
+		String folder = "test-data/tmp-config";
+		FileUtil.deleteDirectory(folder);
+		FileUtil.createDirectory(folder);
+
+		LineWriter writer = new LineWriter(FileUtil.path(folder, "job.config"));
+		writer.write(FileUtil.readFileAsString(FileUtil.path(configFolder, "job.config")));
+		for (String setting : settings) {
+			writer.write(setting);
+		}
+		writer.close();
+
+		// reference panels are imported to hdfs, their paths stay relative
+		writer = new LineWriter(FileUtil.path(folder, "panels.txt"));
+		writer.write(FileUtil.readFileAsString(FileUtil.path(configFolder, "panels.txt")));
+		writer.close();
+
+		return folder;
+
+	}
+
 	private void importMinimacMap2(String file) {
 		System.out.println("Import Minimac Map");
 		String target = HdfsUtil.path("meta", FileUtil.getFilename(file));
@@ -1200,11 +1313,6 @@ public class ImputationTest {
 			return folder;
 		}
 
-		@Override
-		protected void setupTabix(String folder) {
-			VcfFileUtil.setTabixBinary("files/bin/tabix");
-		}
-
 	}
 
 	class InputValidationMock extends InputValidation {
@@ -1222,10 +1330,5 @@ public class ImputationTest {
 			return folder;
 		}
 
-		@Override
-		protected void setupTabix(String folder) {
-			VcfFileUtil.setTabixBinary("files/bin/tabix");
-		}
-
 	}
 }
@@ -4,7 +4,6 @@ import java.io.File;
 import java.io.IOException;
 
 import cloudgene.sdk.internal.WorkflowStep;
-import genepi.imputationserver.steps.vcf.VcfFileUtil;
 import genepi.imputationserver.util.WorkflowTestContext;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.tribble.util.TabixUtils;
@@ -469,12 +468,6 @@ public class InputValidationTest extends TestCase {
 			// override folder with static folder instead of jar location
 			return folder;
 		}
-		
-		
-		@Override
-		protected void setupTabix(String folder) {
-			VcfFileUtil.setTabixBinary("files/bin/tabix");
-		}
 
 	}
 
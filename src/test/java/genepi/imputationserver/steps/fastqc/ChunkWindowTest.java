@@ -0,0 +1,50 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.util.List;
+
+import genepi.imputationserver.steps.vcf.VcfChunk;
+import junit.framework.TestCase;
+
+public class ChunkWindowTest extends TestCase {
+
+	public void testOpenAndClose() {
+
+		ChunkWindow window = new ChunkWindow(5);
+		VcfChunk chunk1 = createChunk(1, 20);
+		VcfChunk chunk2 = createChunk(21, 40);
+		window.open(chunk1);
+		window.open(chunk2);
+
+		assertTrue(window.isOpen(1));
+		assertTrue(window.isOpen(21));
+		assertFalse(window.isOpen(41));
+
+		// overlap of both chunks
+		assertEquals(0, window.close(25).size());
+		assertEquals(chunk2, window.getChunk(25));
+		assertEquals(chunk1, window.getChunk(20));
+
+		window.setLastPosition(25);
+		assertEquals(25, chunk1.lastPos);
+		assertEquals(25, chunk2.lastPos);
+
+		List<VcfChunk> closed = window.close(26);
+		assertEquals(1, closed.size());
+		assertEquals(chunk1, closed.get(0));
+		assertNull(window.getChunk(20));
+		assertEquals(1, window.getChunks().size());
+
+		window.close(46);
+		assertTrue(window.isEmpty());
+
+	}
+
+	private VcfChunk createChunk(int start, int end) {
+		VcfChunk chunk = new VcfChunk();
+		chunk.setChromosome("1");
+		chunk.setStart(start);
+		chunk.setEnd(end);
+		return chunk;
+	}
+
+}
@@ -0,0 +1,75 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.IOException;
+
+import genepi.io.FileUtil;
+import junit.framework.TestCase;
+
+public class MafBinaryTest extends TestCase {
+
+	public void testWriteAndRead() throws IOException {
+
+		FileUtil.createDirectory(FileUtil.path("test-data", "tmp"));
+		String filename = FileUtil.path("test-data", "tmp", "maf.txt.bin");
+		String part = FileUtil.path("test-data", "tmp", "maf.part.bin");
+
+		// small blocks to test block boundaries
+		MafBinaryWriter writer = new MafBinaryWriter(filename, 7);
+		for (int i = 0; i < 20; i++) {
+			writer.write(createSnp("1", i));
+		}
+		writer.write(createSnp("2", 20));
+
+		MafBinaryWriter partWriter = new MafBinaryWriter(part, 7);
+		for (int i = 21; i < 30; i++) {
+			partWriter.write(createSnp("3", i));
+		}
+		partWriter.close();
+
+		writer.append(part);
+		writer.close();
+		assertTrue(writer.hasData());
+
+		MafBinaryReader reader = new MafBinaryReader(filename);
+		assertEquals(30, reader.getSize());
+
+		for (int i = 0; i < 30; i++) {
+			SnpStats expected = createSnp(i < 20 ? "1" : (i == 20 ? "2" : "3"), i);
+			SnpStats snp = reader.get(i);
+			assertEquals(expected.toString(), snp.toString());
+			assertEquals(expected.getChromosome(), reader.getChromosome(i));
+			assertEquals(1000 + i, reader.getPosition(i));
+			assertEquals(expected.getFrequencyB(), reader.getFrequencyB(i));
+			assertEquals(expected.getChisq(), reader.getChisq(i));
+		}
+
+		// missing reference values
+		assertTrue(Float.isNaN(reader.getRefFrequencyA(5)));
+		assertEquals("NA", reader.get(5).toString().split("\t")[5]);
+
+		FileUtil.deleteFile(filename);
+		FileUtil.deleteFile(part);
+
+	}
+
+	private SnpStats createSnp(String chromosome, int i) {
+		SnpStats snp = new SnpStats();
+		snp.setType("SNP");
+		snp.setChromosome(chromosome);
+		snp.setPosition(1000 + i);
+		snp.setAlleleA('A');
+		snp.setAlleleB('G');
+		snp.setFrequencyA(1 - i / 100f);
+		snp.setFrequencyB(i / 100f);
+		if (i % 5 != 0) {
+			snp.setRefAlleleA('A');
+			snp.setRefAlleleB('G');
+			snp.setRefFrequencyA(1 - i / 50f);
+			snp.setRefFrequencyB(i / 50f);
+		}
+		snp.setChisq(i * 0.5);
+		snp.setOverlapWithReference(true);
+		return snp;
+	}
+
+}
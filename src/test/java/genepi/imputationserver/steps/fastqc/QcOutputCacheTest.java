@@ -0,0 +1,176 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+public class QcOutputCacheTest extends TestCase {
+
+	public void testStoreAndRestore() throws IOException {
+
+		File folder = createFolder("test-data/tmp/qc-cache-job1");
+		String chunkFileDir = createFolder(folder, "chunkfile");
+		String chunksDir = createFolder(folder, "chunks");
+		String statDir = createFolder(folder, "statistics");
+		String mafFile = new File(folder, "maf.txt").getPath();
+
+		write(new File(chunkFileDir, "1"), "1\t1\t20000000\tVCF-UNPHASED\t" + chunksDir
+				+ File.separator + "chunk_1_1_20000000.vcf.gz\t10\t9\n");
+		write(new File(chunksDir, "chunk_1_1_20000000.vcf.gz"), "chunk");
+		write(new File(statDir, "snps-excluded.txt"), "#Position");
+		write(new File(mafFile), "maf");
+
+		String key = QcOutputCache.createKey(new String[] { mafFile }, "panel", "hg19", "eur");
+		assertEquals(key, QcOutputCache.createKey(new String[] { mafFile }, "panel", "hg19", "eur"));
+		assertFalse(key.equals(QcOutputCache.createKey(new String[] { mafFile }, "panel", "hg38", "eur")));
+
+		QcOutputCache cache = new QcOutputCache("test-data/tmp/qc-cache", 1024 * 1024);
+		clear(cache);
+		assertNull(cache.restore(key, chunkFileDir, chunksDir, statDir, mafFile));
+
+		Properties report = new Properties();
+		report.setProperty("statistics", "Match: 9");
+		cache.store(key, chunkFileDir, chunksDir, statDir, mafFile, report);
+		assertTrue(cache.contains(key));
+
+		File folder2 = createFolder("test-data/tmp/qc-cache-job2");
+		String chunkFileDir2 = createFolder(folder2, "chunkfile");
+		String chunksDir2 = createFolder(folder2, "chunks");
+		String statDir2 = createFolder(folder2, "statistics");
+		String mafFile2 = new File(folder2, "maf.txt").getPath();
+
+		Properties restored = cache.restore(key, chunkFileDir2, chunksDir2, statDir2, mafFile2);
+		assertEquals("Match: 9", restored.getProperty("statistics"));
+		assertTrue(new File(chunksDir2, "chunk_1_1_20000000.vcf.gz").exists());
+		assertTrue(new File(statDir2, "snps-excluded.txt").exists());
+		assertEquals("maf", read(new File(mafFile2)));
+
+		// chunk filenames point to the new job
+		assertEquals("1\t1\t20000000\tVCF-UNPHASED\t" + chunksDir2 + File.separator
+				+ "chunk_1_1_20000000.vcf.gz\t10\t9", read(new File(chunkFileDir2, "1")));
+
+	}
+
+	public void testEviction() throws IOException, InterruptedException {
+
+		File folder = createFolder("test-data/tmp/qc-cache-evict");
+		String chunkFileDir = createFolder(folder, "chunkfile");
+		String chunksDir = createFolder(folder, "chunks");
+		String statDir = createFolder(folder, "statistics");
+		String mafFile = new File(folder, "maf.txt").getPath();
+		write(new File(chunksDir, "chunk.vcf.gz"), new String(new char[1000]));
+
+		QcOutputCache cache = new QcOutputCache("test-data/tmp/qc-cache", 2500);
+		clear(cache);
+
+		cache.store("a", chunkFileDir, chunksDir, statDir, mafFile, new Properties());
+		new File("test-data/tmp/qc-cache", "a").setLastModified(System.currentTimeMillis() - 10000);
+		cache.store("b", chunkFileDir, chunksDir, statDir, mafFile, new Properties());
+		assertTrue(cache.contains("a"));
+		assertTrue(cache.contains("b"));
+
+		// least recently used entry is removed
+		cache.store("c", chunkFileDir, chunksDir, statDir, mafFile, new Properties());
+		assertFalse(cache.contains("a"));
+		assertTrue(cache.contains("b"));
+		assertTrue(cache.contains("c"));
+		assertTrue(cache.getSize() <= 2500);
+
+	}
+
+	public void testFailedRestoreRemovesOutputs() throws IOException {
+
+		File folder = createFolder("test-data/tmp/qc-cache-failed");
+		String chunkFileDir = createFolder(folder, "chunkfile");
+		String chunksDir = createFolder(folder, "chunks");
+		String statDir = createFolder(folder, "statistics");
+		String mafFile = new File(folder, "maf.txt").getPath();
+		write(new File(chunksDir, "chunk.vcf.gz"), "chunk");
+		write(new File(statDir, "snps-excluded.txt"), "#Position");
+		write(new File(mafFile), "maf");
+
+		QcOutputCache cache = new QcOutputCache("test-data/tmp/qc-cache", 1024 * 1024);
+		clear(cache);
+		cache.store("a", chunkFileDir, chunksDir, statDir, mafFile, new Properties());
+
+		File folder2 = createFolder("test-data/tmp/qc-cache-failed2");
+		String chunkFileDir2 = createFolder(folder2, "chunkfile");
+		String chunksDir2 = createFolder(folder2, "chunks");
+		String statDir2 = createFolder(folder2, "statistics");
+		// maf file can not be replaced
+		String mafFile2 = createFolder(folder2, "maf.txt");
+		write(new File(mafFile2, "file"), "");
+
+		try {
+			cache.restore("a", chunkFileDir2, chunksDir2, statDir2, mafFile2);
+			fail("restore has to fail");
+		} catch (IOException e) {
+			assertEquals(0, new File(chunksDir2).listFiles().length);
+			assertEquals(0, new File(statDir2).listFiles().length);
+		}
+
+	}
+
+	public void testFilesVersion() throws IOException {
+
+		File folder = createFolder("test-data/tmp/qc-cache-legend");
+		File chr1 = new File(folder, "legend.chr1.txt");
+		File chr2 = new File(folder, "legend.chr2.txt");
+		write(chr1, "1");
+		write(chr2, "2");
+		write(new File(folder, "other.chr1.txt"), "1");
+		chr1.setLastModified(1000000);
+		chr2.setLastModified(1000000);
+
+		String pattern = new File(folder, "legend.chr$chr.txt").getPath();
+		String version = QcOutputCache.getFilesVersion(pattern);
+		assertTrue(version.contains(chr1.getAbsolutePath()));
+		assertTrue(version.contains(chr2.getAbsolutePath()));
+		assertFalse(version.contains("other"));
+
+		// updated legend file
+		chr2.setLastModified(2000000);
+		assertFalse(version.equals(QcOutputCache.getFilesVersion(pattern)));
+
+		assertEquals("", QcOutputCache.getFilesVersion(null));
+
+	}
+
+	private void clear(QcOutputCache cache) {
+		new QcOutputCache("test-data/tmp/qc-cache", 0).evict();
+		assertEquals(0, cache.getSize());
+	}
+
+	private File createFolder(String name) {
+		File folder = new File(name);
+		folder.mkdirs();
+		return folder;
+	}
+
+	private String createFolder(File parent, String name) {
+		File folder = new File(parent, name);
+		folder.mkdirs();
+		return folder.getPath();
+	}
+
+	private void write(File file, String content) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		writer.write(content);
+		writer.close();
+	}
+
+	private String read(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			return reader.readLine();
+		} finally {
+			reader.close();
+		}
+	}
+
+}
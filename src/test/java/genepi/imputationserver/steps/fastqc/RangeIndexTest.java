@@ -0,0 +1,45 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+public class RangeIndexTest extends TestCase {
+
+	public void testContainsAndOverlaps() {
+
+		HashSet<RangeEntry> ranges = new HashSet<RangeEntry>();
+		ranges.add(createRange("1", 565111, 752566));
+		ranges.add(createRange("1", 90819447, 90819447));
+		ranges.add(createRange("1", 700000, 800000));
+		ranges.add(createRange("6", 100, 200));
+
+		RangeIndex index = new RangeIndex(ranges);
+
+		assertTrue(index.contains("1", 565111));
+		assertTrue(index.contains("1", 752567));
+		assertTrue(index.contains("1", 800000));
+		assertTrue(index.contains("1", 90819447));
+		assertFalse(index.contains("1", 565110));
+		assertFalse(index.contains("1", 800001));
+		assertFalse(index.contains("1", 90819448));
+		assertFalse(index.contains("2", 600000));
+		assertTrue(index.contains("6", 150));
+
+		assertTrue(index.overlaps("1", 1, 565111));
+		assertTrue(index.overlaps("1", 90000000, 91000000));
+		assertFalse(index.overlaps("1", 1, 565110));
+		assertFalse(index.overlaps("1", 800001, 90819446));
+		assertFalse(index.overlaps("6", 201, 1000));
+
+	}
+
+	private RangeEntry createRange(String chromosome, int start, int end) {
+		RangeEntry entry = new RangeEntry();
+		entry.setChromosome(chromosome);
+		entry.setStart(start);
+		entry.setEnd(end);
+		return entry;
+	}
+
+}
@@ -1,9 +1,21 @@
 package genepi.imputationserver.steps.fastqc;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import genepi.imputationserver.steps.vcf.BGzipLineWriter;
+import genepi.imputationserver.steps.vcf.FastVCFFileReader;
 import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+import genepi.imputationserver.steps.vcf.VCFLineByteParser;
 import genepi.imputationserver.steps.vcf.VCFLineParser;
+import genepi.imputationserver.steps.vcf.VcfLineByteReader;
+import genepi.imputationserver.steps.vcf.VcfRecordPipeline;
+import genepi.io.FileUtil;
 import junit.framework.TestCase;
 
 public class VCFLineParserTest extends TestCase {
@@ -208,6 +220,247 @@ public class VCFLineParserTest extends TestCase {
 		assertEquals(true, variantContext.isIndel());
 	}
 	
+	public void testByteParserWithComplexFormat() throws IOException {
+
+		int samples = 3;
+		String line = "20	14370	rs6054257	G	A	29	FILTER	NS=3;DP=14;AF=0.5;DB;H2	GQ:DP:GT:HQ	48:1:0|0:51,51	48:8:1|0:51,51	43:5:./.:.,.";
+		byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+
+		VCFLineByteParser parser = new VCFLineByteParser(samples);
+		MinimalVariantContext variantContext = parser.parseLine(bytes, 0, bytes.length);
+
+		assertEquals(samples, variantContext.getNSamples());
+		assertEquals(1, variantContext.getHetCount());
+		assertEquals(1, variantContext.getHomRefCount());
+		assertEquals(0, variantContext.getHomVarCount());
+		assertEquals(1, variantContext.getNoCallCount());
+		assertEquals(true, variantContext.isCalled(0));
+		assertEquals(false, variantContext.isCalled(2));
+		assertEquals("20", variantContext.getContig());
+		assertEquals(14370, variantContext.getStart());
+		assertEquals("G", variantContext.getReferenceAllele());
+		assertEquals("A", variantContext.getAlternateAllele());
+		assertEquals(true, variantContext.isFiltered());
+		assertEquals("FILTER", variantContext.getFilters());
+		assertEquals(line, variantContext.getRawLine());
+
+	}
+
+	public void testByteParserMatchesStringParser() throws IOException {
+
+		int samples = 3;
+		String data = "##fileformat=VCFv4.1\n"
+				+ "20	14370	rs6054257	G	A	29	PASS	NS=3	GT	0/0	1/0	1/1\r\n"
+				+ "20	1234567	microsat1	GTCT	G,GTACT	50	.	NS=3;DP=9;AA=G	GT:GQ:DP	0/1:35:4	0/2:17:2	1/1:40:3\n"
+				+ "20	1234570	rs6040355	A	G	67	PASS	NS=2	GQ:DP:GT	48:1:1|1	48:8:.|.	43:5:0|1";
+
+		VcfLineByteReader reader = new VcfLineByteReader(
+				new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)), 16);
+		VCFLineByteParser byteParser = new VCFLineByteParser(samples);
+		VCFLineParser parser = new VCFLineParser(samples);
+
+		int lines = 0;
+		while (reader.next()) {
+			String line = new String(reader.getBuffer(), reader.getLineOffset(), reader.getLineLength(),
+					StandardCharsets.UTF_8);
+			if (line.startsWith("#")) {
+				continue;
+			}
+			MinimalVariantContext expected = parser.parseLine(line);
+			String expectedId = expected.toString();
+			int expectedHet = expected.getHetCount();
+			int expectedHomRef = expected.getHomRefCount();
+			int expectedHomVar = expected.getHomVarCount();
+			int expectedNoCall = expected.getNoCallCount();
+
+			MinimalVariantContext variantContext = byteParser.parseLine(reader.getBuffer(), reader.getLineOffset(),
+					reader.getLineLength());
+			assertEquals(expectedId, variantContext.toString());
+			assertEquals(expectedHet, variantContext.getHetCount());
+			assertEquals(expectedHomRef, variantContext.getHomRefCount());
+			assertEquals(expectedHomVar, variantContext.getHomVarCount());
+			assertEquals(expectedNoCall, variantContext.getNoCallCount());
+			assertEquals(line, variantContext.getRawLine());
+			lines++;
+		}
+		reader.close();
+
+		assertEquals(3, lines);
+
+	}
+
+	public void testPipelineKeepsFileOrder() throws IOException {
+
+		int samples = 3;
+		int records = VcfRecordPipeline.BATCH_SIZE * 5 + 17;
+		StringBuilder data = new StringBuilder();
+		data.append("##fileformat=VCFv4.1\n");
+		data.append("#CHROM	POS	ID	REF	ALT	QUAL	FILTER	INFO	FORMAT	S1	S2	S3\n");
+		for (int i = 1; i <= records; i++) {
+			data.append("20	" + i + "	.	A	G	29	PASS	.	GT	0|0	1|0	.|.\n");
+		}
+
+		List<String> header = new Vector<String>();
+		VcfRecordPipeline pipeline = new VcfRecordPipeline(
+				new ByteArrayInputStream(data.toString().getBytes(StandardCharsets.UTF_8)), samples, 4, header);
+
+		int lines = 0;
+		while (pipeline.next()) {
+			lines++;
+			MinimalVariantContext variantContext = pipeline.get();
+			assertEquals(lines, variantContext.getStart());
+			assertEquals(lines + 2, pipeline.getLineNumber());
+			assertEquals(1, variantContext.getHetCount());
+			assertEquals(1, variantContext.getNoCallCount());
+			assertFalse(variantContext.isCalled(2));
+		}
+		pipeline.close();
+
+		assertEquals(records, lines);
+		assertEquals(2, header.size());
+
+	}
+
+	public void testPipelinePassesErrors() throws IOException {
+
+		String data = "##fileformat=VCFv4.1\n#CHROM	POS	ID	REF	ALT	QUAL	FILTER	INFO	FORMAT	S1\n";
+		final ByteArrayInputStream in = new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+
+		// fails with an error after the header
+		InputStream failing = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				int b = in.read();
+				if (b == -1) {
+					throw new OutOfMemoryError("test");
+				}
+				return b;
+			}
+		};
+
+		VcfRecordPipeline pipeline = new VcfRecordPipeline(failing, 1, 2, new Vector<String>());
+		try {
+			pipeline.next();
+			fail("error expected");
+		} catch (OutOfMemoryError e) {
+			assertEquals("test", e.getMessage());
+		}
+		pipeline.close();
+
+	}
+
+	public void testRegionReader() throws IOException {
+
+		FileUtil.createDirectory(FileUtil.path("test-data", "tmp"));
+		String filename = FileUtil.path("test-data", "tmp", "regions.vcf.gz");
+
+		BGzipLineWriter writer = new BGzipLineWriter(filename, true);
+		writer.write("##fileformat=VCFv4.1");
+		writer.write("#CHROM	POS	ID	REF	ALT	QUAL	FILTER	INFO	FORMAT	S1	S2");
+		// deletion at 98 overlaps the second range too
+		int[] positions = new int[] { 10, 50, 98, 100, 101, 150, 250 };
+		for (int position : positions) {
+			String ref = position == 98 ? "ACGTA" : "A";
+			writer.write("20	" + position + "	.	" + ref + "	G	29	PASS	.	GT	0|0	1|0");
+		}
+		writer.close();
+
+		// two adjacent ranges
+		FastVCFFileReader reader = new FastVCFFileReader(filename, "20", new int[] { 1, 101 },
+				new int[] { 100, 200 });
+		assertEquals(2, reader.getSamplesCount());
+		assertEquals(2, reader.getFileHeader().size());
+
+		List<Integer> found = new Vector<Integer>();
+		while (reader.next()) {
+			found.add(reader.getVariantContext().getStart());
+		}
+		reader.close();
+		assertEquals(Arrays.asList(10, 50, 98, 100, 101, 150), found);
+
+		// no ranges
+		reader = new FastVCFFileReader(filename, "20", new int[0], new int[0]);
+		assertFalse(reader.next());
+		reader.close();
+
+		FileUtil.deleteFile(filename);
+		FileUtil.deleteFile(filename + ".tbi");
+
+	}
+
+	public void testReadHeader() throws IOException {
+
+		String data = "##fileformat=VCFv4.1\r\n"
+				+ "#CHROM	POS	ID	REF	ALT	QUAL	FILTER	INFO	FORMAT	S1	S2	S3\n"
+				+ "20	14370	rs6054257	G	A	29	PASS	NS=3	GT	0/0	1/0	1/1\n";
+
+		ByteArrayInputStream in = new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+		List<String> header = new Vector<String>();
+		List<String> samples = FastVCFFileReader.readHeader(in, header);
+
+		assertEquals(3, samples.size());
+		assertEquals("S3", samples.get(2));
+		assertEquals(2, header.size());
+		assertEquals("##fileformat=VCFv4.1", header.get(0));
+
+		// stream is positioned at the first record
+		VcfLineByteReader reader = new VcfLineByteReader(in);
+		assertTrue(reader.next());
+		assertEquals('2', reader.getBuffer()[reader.getLineOffset()]);
+		reader.close();
+
+	}
+
+	public void testCalledMask() {
+
+		int samples = 130;
+		MinimalVariantContext variantContext = new MinimalVariantContext(samples);
+		variantContext.setNSamples(samples);
+
+		for (int i = 0; i < samples; i++) {
+			variantContext.setCalled(i, i < 64 || i % 3 == 0);
+		}
+		variantContext.setCalled(0, false);
+		variantContext.setCalled(0, true);
+
+		int[] counts = new int[samples];
+		variantContext.addCalledTo(counts);
+		variantContext.addCalledTo(counts);
+
+		for (int i = 0; i < samples; i++) {
+			boolean called = i < 64 || i % 3 == 0;
+			assertEquals(called, variantContext.isCalled(i));
+			assertEquals(called ? 2 : 0, counts[i]);
+		}
+
+	}
+
+	public void testScanGenotypes() throws IOException {
+
+		String line = "X	2800000	rs1	G	A	29	PASS	.	GQ:GT	48:0	48:1|0	43:./1	12:.	7:1/.	5:./.";
+		byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+
+		int[] ploidy = new int[6];
+		boolean[] mixed = new boolean[6];
+		VCFLineByteParser parser = new VCFLineByteParser(0);
+		assertEquals(6, parser.scanGenotypes(bytes, 0, bytes.length, ploidy, mixed));
+
+		assertEquals(1, ploidy[0]);
+		assertEquals(2, ploidy[1]);
+		assertEquals(2, ploidy[2]);
+		assertEquals(1, ploidy[3]);
+		assertEquals(2, ploidy[4]);
+		assertEquals(2, ploidy[5]);
+
+		assertFalse(mixed[0]);
+		assertFalse(mixed[1]);
+		assertTrue(mixed[2]);
+		assertFalse(mixed[3]);
+		assertTrue(mixed[4]);
+		assertFalse(mixed[5]);
+
+	}
+
 	//TODO: check / and | and no 0 and 1
 
 }
@@ -0,0 +1,61 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Vector;
+
+import genepi.io.text.LineReader;
+import junit.framework.TestCase;
+
+public class LegendFileCursorTest extends TestCase {
+
+	public static final String LEGEND = "test-data/configs/hapmap-chr1/ref-panels/hapmap_r22.chr1.CEU.hg19_impute.legend.gz";
+
+	public void testSameEntriesAsLegendFileReader() throws IOException {
+
+		List<Integer> positions = new Vector<Integer>();
+		LineReader reader = new LineReader(LEGEND);
+		while (reader.next()) {
+			String line = reader.get();
+			if (!line.startsWith("id")) {
+				int position = Integer.parseInt(line.split(" ")[1]);
+				// include positions not in legend file
+				positions.add(position - 1);
+				positions.add(position);
+			}
+		}
+		reader.close();
+
+		LegendFileReader legendReader = new LegendFileReader(LEGEND, "eur");
+		legendReader.createIndex();
+		legendReader.initSearch();
+
+		LegendFileCursor cursor = new LegendFileCursor(LEGEND, "eur");
+
+		int found = 0;
+		for (int position : positions) {
+			LegendEntry expected = legendReader.findByPosition(position);
+			LegendEntry entry = cursor.findByPosition(position);
+			if (expected == null) {
+				assertNull(entry);
+			} else {
+				assertNotNull(entry);
+				assertEquals(expected.getRsId(), entry.getRsId());
+				assertEquals(expected.getGenotype(), entry.getGenotype());
+				assertEquals(expected.getFrequencyB(), entry.getFrequencyB(), 0);
+				assertEquals(expected.hasFrequencies(), entry.hasFrequencies());
+				found++;
+			}
+		}
+		assertTrue(found >= positions.size() / 2);
+
+		// lookup of a smaller position restarts the scan
+		LegendEntry entry = cursor.findByPosition(positions.get(1));
+		assertNotNull(entry);
+
+		legendReader.close();
+		cursor.close();
+
+	}
+
+}
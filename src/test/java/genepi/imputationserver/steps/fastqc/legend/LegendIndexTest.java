@@ -0,0 +1,137 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Vector;
+
+import genepi.io.FileUtil;
+import genepi.io.text.LineReader;
+import junit.framework.TestCase;
+
+public class LegendIndexTest extends TestCase {
+
+	public static final String LEGEND = "test-data/configs/hapmap-chr1/ref-panels/hapmap_r22.chr1.CEU.hg19_impute.legend.gz";
+
+	public void testSameEntriesAsLegendFileReader() throws IOException {
+
+		String indexFile = FileUtil.path("test-data", "tmp", "legend.lidx");
+		FileUtil.createDirectory(FileUtil.path("test-data", "tmp"));
+		LegendIndex.build(LEGEND, indexFile);
+
+		LegendIndex index = new LegendIndex(indexFile, "eur");
+		assertTrue(index.getPopulations().contains("eur"));
+
+		// collect positions
+		List<Integer> positions = new Vector<Integer>();
+		LineReader reader = new LineReader(LEGEND);
+		while (reader.next()) {
+			String line = reader.get();
+			if (!line.startsWith("id")) {
+				positions.add(Integer.parseInt(line.split(" ")[1]));
+			}
+		}
+		reader.close();
+		assertEquals(positions.size(), index.getSize());
+
+		LegendFileReader legendReader = new LegendFileReader(LEGEND, "eur");
+		legendReader.createIndex();
+		legendReader.initSearch();
+
+		for (int position : positions) {
+			LegendEntry expected = legendReader.findByPosition(position);
+			String genotype = expected.getGenotype();
+			float frequencyB = expected.getFrequencyB();
+			boolean frequencies = expected.hasFrequencies();
+
+			LegendEntry entry = index.findByPosition(position);
+			assertEquals(genotype, entry.getGenotype());
+			assertEquals(frequencyB, entry.getFrequencyB(), 0);
+			assertEquals(frequencies, entry.hasFrequencies());
+		}
+
+		assertNull(index.findByPosition(1));
+
+		legendReader.close();
+		index.close();
+
+	}
+
+	public void testLoadSameEntriesAsIndex() throws IOException {
+
+		String indexFile = FileUtil.path("test-data", "tmp", "legend.lidx");
+		FileUtil.createDirectory(FileUtil.path("test-data", "tmp"));
+		LegendIndex.build(LEGEND, indexFile);
+
+		LegendIndex index = new LegendIndex(indexFile, "eur");
+		LegendIndex loaded = LegendIndex.load(LEGEND, "eur");
+		assertEquals(index.getSize(), loaded.getSize());
+		assertEquals(index.getPopulations(), loaded.getPopulations());
+		// positions, alleles and one frequency column
+		assertEquals(index.getSize() * 9L, loaded.getMemorySize());
+		assertEquals(index.getSize() * 5L, LegendIndex.load(LEGEND, "unknown").getMemorySize());
+
+		LegendEntry entry = loaded.findByPosition(568527);
+		assertEquals("GA", entry.getGenotype());
+		assertEquals(0.0083f, entry.getFrequencyB(), 0);
+		assertTrue(entry.hasFrequencies());
+
+		loaded.close();
+		index.close();
+		FileUtil.deleteFile(indexFile);
+
+	}
+
+	public void testOutdatedIndex() throws IOException {
+
+		String indexFile = FileUtil.path("test-data", "tmp", "legend-outdated.lidx");
+		FileUtil.createDirectory(FileUtil.path("test-data", "tmp"));
+		LegendIndex.build(LEGEND, indexFile);
+		assertTrue(LegendIndex.isAvailable(LEGEND, indexFile));
+
+		// built before the legend file was changed
+		new File(indexFile).setLastModified(new File(LEGEND).lastModified() - 10000);
+		assertFalse(LegendIndex.isAvailable(LEGEND, indexFile));
+
+		FileUtil.deleteFile(indexFile);
+		assertFalse(LegendIndex.isAvailable(LEGEND, indexFile));
+
+	}
+
+	public void testCacheKeepsLargestMaxSize() {
+
+		LegendIndexCache cache = new LegendIndexCache();
+		cache.ensureMaxSize(1000);
+		cache.ensureMaxSize(10);
+		assertEquals(1000, cache.getMaxSize());
+		cache.ensureMaxSize(2000);
+		assertEquals(2000, cache.getMaxSize());
+
+	}
+
+	public void testCacheSharesIndex() throws IOException {
+
+		LegendIndexCache cache = new LegendIndexCache();
+		cache.setMaxSize(1024 * 1024 * 1024);
+
+		ILegendReader reader1 = cache.open(LEGEND, "eur", false);
+		ILegendReader reader2 = cache.open(LEGEND, "eur", false);
+		assertEquals(1, cache.getEntries());
+
+		LegendEntry entry = reader1.findByPosition(568527);
+		assertEquals("GA", entry.getGenotype());
+		assertEquals(0.0083f, entry.getFrequencyB(), 0);
+		assertNull(reader2.findByPosition(1));
+		assertNotNull(reader1.findByPosition(568527));
+
+		// entries in use are never evicted
+		cache.setMaxSize(1);
+		reader1.close();
+		assertEquals(1, cache.getEntries());
+		reader2.close();
+		assertEquals(0, cache.getEntries());
+		assertEquals(0, cache.getSize());
+
+	}
+
+}
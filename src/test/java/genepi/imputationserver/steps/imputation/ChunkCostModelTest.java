@@ -0,0 +1,80 @@
+package genepi.imputationserver.steps.imputation;
+
+import java.util.List;
+import java.util.Vector;
+
+import genepi.imputationserver.steps.vcf.VcfChunk;
+import junit.framework.TestCase;
+
+public class ChunkCostModelTest extends TestCase {
+
+	public void testCost() {
+
+		ChunkCostModel model = new ChunkCostModel(10, 0.01);
+
+		// 100 typed sites and 200 reference sites
+		VcfChunk chunk = createChunk(1, 20000, 150, 100);
+		assertEquals(3000.0, model.getCost(chunk), 0.0001);
+
+		// no statistics available: all snps are used
+		VcfChunk chunk2 = createChunk(1, 20000, 150, 0);
+		assertEquals(3500.0, model.getCost(chunk2), 0.0001);
+
+	}
+
+	public void testSort() {
+
+		ChunkCostModel model = new ChunkCostModel(10, 0.01);
+
+		List<VcfChunk> chunks = new Vector<VcfChunk>();
+		chunks.add(createChunk(1, 20000, 50, 50));
+		chunks.add(createChunk(20001, 40000, 500, 500));
+		chunks.add(createChunk(40001, 60000, 100, 100));
+
+		List<List<VcfChunk>> tasks = model.createTasks(chunks, 1);
+		model.sort(tasks);
+
+		assertEquals(20001, tasks.get(0).get(0).getStart());
+		assertEquals(40001, tasks.get(1).get(0).getStart());
+		assertEquals(1, tasks.get(2).get(0).getStart());
+		assertEquals(model.getCost(chunks.get(0)) + model.getCost(chunks.get(1)) + model.getCost(chunks.get(2)),
+				model.getCost(chunks), 0.0001);
+
+	}
+
+	public void testTasksKeepAdjacentChunks() {
+
+		ChunkCostModel model = new ChunkCostModel(10, 0.01);
+
+		List<VcfChunk> chunks = new Vector<VcfChunk>();
+		chunks.add(createChunk(40001, 60000, 100, 100));
+		chunks.add(createChunk(1, 20000, 50, 50));
+		chunks.add(createChunk(60001, 80000, 10, 10));
+		chunks.add(createChunk(20001, 40000, 500, 500));
+		chunks.add(createChunk(80001, 100000, 1000, 1000));
+
+		List<List<VcfChunk>> tasks = model.createTasks(chunks, 2);
+		model.sort(tasks);
+
+		// expensive chunks are not combined into one task
+		assertEquals(3, tasks.size());
+		assertEquals(80001, tasks.get(0).get(0).getStart());
+		assertEquals(1, tasks.get(0).size());
+		assertEquals(1, tasks.get(1).get(0).getStart());
+		assertEquals(20001, tasks.get(1).get(1).getStart());
+		assertEquals(40001, tasks.get(2).get(0).getStart());
+		assertEquals(60001, tasks.get(2).get(1).getStart());
+
+	}
+
+	private VcfChunk createChunk(int start, int end, int snps, int inReference) {
+		VcfChunk chunk = new VcfChunk();
+		chunk.setChromosome("1");
+		chunk.setStart(start);
+		chunk.setEnd(end);
+		chunk.setSnps(snps);
+		chunk.setInReference(inReference);
+		return chunk;
+	}
+
+}
@@ -0,0 +1,103 @@
+package genepi.imputationserver.steps.imputation;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class StagedExecutorTest extends TestCase {
+
+	public void testAllStages() throws Exception {
+
+		final List<Integer> first = new Vector<Integer>();
+		final List<Integer> second = new Vector<Integer>();
+
+		StagedExecutor<Integer> executor = new StagedExecutor<Integer>(2);
+		executor.addStage("first", 1, new StagedExecutor.Stage<Integer>() {
+			@Override
+			public boolean process(Integer item) {
+				first.add(item);
+				// odd items skip the second stage
+				return item % 2 == 0;
+			}
+		});
+		executor.addStage("second", 1, new StagedExecutor.Stage<Integer>() {
+			@Override
+			public boolean process(Integer item) {
+				second.add(item);
+				return true;
+			}
+		});
+
+		for (int i = 0; i < 10; i++) {
+			executor.submit(i);
+		}
+		executor.await();
+
+		assertEquals(10, first.size());
+		assertEquals(5, second.size());
+		// one thread per stage keeps the order
+		for (int i = 0; i < 10; i++) {
+			assertEquals(i, first.get(i).intValue());
+		}
+
+	}
+
+	public void testOverlappingStages() throws Exception {
+
+		// item 1 can only finish the first stage while item 0 is in the second
+		final CountDownLatch latch = new CountDownLatch(1);
+
+		StagedExecutor<Integer> executor = new StagedExecutor<Integer>(2);
+		executor.addStage("first", 1, new StagedExecutor.Stage<Integer>() {
+			@Override
+			public boolean process(Integer item) {
+				if (item == 1) {
+					latch.countDown();
+				}
+				return true;
+			}
+		});
+		executor.addStage("second", 1, new StagedExecutor.Stage<Integer>() {
+			@Override
+			public boolean process(Integer item) throws Exception {
+				if (item == 0) {
+					return latch.await(10, TimeUnit.SECONDS);
+				}
+				return true;
+			}
+		});
+
+		executor.submit(0);
+		executor.submit(1);
+		executor.await();
+
+		assertEquals(0, latch.getCount());
+
+	}
+
+	public void testError() throws Exception {
+
+		StagedExecutor<Integer> executor = new StagedExecutor<Integer>(1);
+		executor.addStage("first", 1, new StagedExecutor.Stage<Integer>() {
+			@Override
+			public boolean process(Integer item) throws IOException {
+				throw new IOException("chunk " + item + " failed");
+			}
+		});
+
+		executor.submit(0);
+		try {
+			executor.submit(1);
+			executor.await();
+			fail("no exception thrown");
+		} catch (IOException e) {
+			assertEquals("chunk 0 failed", e.getMessage());
+		}
+
+	}
+
+}
@@ -0,0 +1,38 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+public class ParallelBlockCompressedInputStreamTest extends TestCase {
+
+	public static final String VCF = "test-data/data/chr20-phased/chr20.R50.merged.1.330k.recode.small.vcf.gz";
+
+	public void testSameBytesAsGzipStream() throws IOException {
+
+		assertTrue(ParallelBlockCompressedInputStream.isBlockCompressed(VCF));
+
+		InputStream expected = new GZIPInputStream(new FileInputStream(VCF));
+		InputStream actual = new ParallelBlockCompressedInputStream(new FileInputStream(VCF), 4);
+
+		byte[] buffer = new byte[1000];
+		long size = 0;
+		int read;
+		while ((read = actual.read(buffer)) != -1) {
+			for (int i = 0; i < read; i++) {
+				assertEquals(expected.read(), buffer[i] & 0xff);
+			}
+			size += read;
+		}
+		assertEquals(-1, expected.read());
+		assertTrue(size > 0);
+
+		expected.close();
+		actual.close();
+
+	}
+
+}
@@ -0,0 +1,109 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import genepi.io.FileUtil;
+import junit.framework.TestCase;
+
+public class ParallelBlockCompressedOutputStreamTest extends TestCase {
+
+	public void testReadWithGzipStream() throws IOException {
+
+		FileUtil.createDirectory(FileUtil.path("test-data", "tmp"));
+		String filename = FileUtil.path("test-data", "tmp", "parallel-bgzf.vcf.gz");
+
+		// compressible text and random bytes that do not compress
+		byte[] data = new byte[1024 * 1024];
+		Random random = new Random(42);
+		for (int i = 0; i < data.length; i++) {
+			data[i] = i < data.length / 2 ? (byte) ('0' + (i % 7)) : (byte) random.nextInt();
+		}
+
+		OutputStream out = new ParallelBlockCompressedOutputStream(new FileOutputStream(filename), 4);
+		out.write(data, 0, 1000);
+		out.write(data[1000]);
+		out.write(data, 1001, data.length - 1001);
+		out.close();
+
+		assertTrue(ParallelBlockCompressedInputStream.isBlockCompressed(filename));
+
+		InputStream expected = new GZIPInputStream(new FileInputStream(filename));
+		InputStream actual = new ParallelBlockCompressedInputStream(new FileInputStream(filename), 2);
+		for (int i = 0; i < data.length; i++) {
+			assertEquals(data[i] & 0xff, expected.read());
+			assertEquals(data[i] & 0xff, actual.read());
+		}
+		assertEquals(-1, expected.read());
+		assertEquals(-1, actual.read());
+		expected.close();
+		actual.close();
+
+		FileUtil.deleteFile(filename);
+
+	}
+
+	public void testStoreOnly() throws IOException {
+
+		FileUtil.createDirectory(FileUtil.path("test-data", "tmp"));
+		String filename = FileUtil.path("test-data", "tmp", "parallel-bgzf-store.vcf.gz");
+
+		byte[] data = new byte[200000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) ('A' + (i % 4));
+		}
+
+		OutputStream out = new ParallelBlockCompressedOutputStream(new FileOutputStream(filename), 2, 0);
+		out.write(data);
+		out.close();
+
+		// stored blocks are larger than the data
+		assertTrue(new File(filename).length() > data.length);
+
+		InputStream in = new GZIPInputStream(new FileInputStream(filename));
+		for (int i = 0; i < data.length; i++) {
+			assertEquals(data[i] & 0xff, in.read());
+		}
+		assertEquals(-1, in.read());
+		in.close();
+
+		FileUtil.deleteFile(filename);
+
+	}
+
+	public void testVirtualOffsets() throws IOException {
+
+		FileUtil.createDirectory(FileUtil.path("test-data", "tmp"));
+		String filename = FileUtil.path("test-data", "tmp", "parallel-bgzf-offsets.vcf.gz");
+
+		int lines = 20000;
+		long[] offsets = new long[lines];
+		ParallelBlockCompressedOutputStream out = new ParallelBlockCompressedOutputStream(
+				new FileOutputStream(filename), 3);
+		for (int i = 0; i < lines; i++) {
+			offsets[i] = out.getUncompressedOffset();
+			out.write(("1\t" + (i + 1) + "\trs" + i + "\tA\tC\n").getBytes());
+		}
+		out.close();
+
+		// same offsets as seen by the reader
+		ParallelBlockCompressedInputStream in = new ParallelBlockCompressedInputStream(new FileInputStream(filename),
+				2);
+		for (int i = 0; i < lines; i++) {
+			assertEquals(in.getFilePointer(), out.getVirtualOffset(offsets[i]));
+			assertTrue(in.readLine().startsWith("1\t" + (i + 1) + "\t"));
+		}
+		assertNull(in.readLine());
+		in.close();
+
+		FileUtil.deleteFile(filename);
+
+	}
+
+}
@@ -0,0 +1,76 @@
+package genepi.imputationserver.util;
+
+import genepi.imputationserver.steps.fastqc.legend.LegendEntry;
+import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+import junit.framework.TestCase;
+
+public class GenomicToolsTest extends TestCase {
+
+	public void testIsValid() {
+		assertTrue(GenomicTools.isValid("A"));
+		assertTrue(GenomicTools.isValid("t"));
+		assertFalse(GenomicTools.isValid("N"));
+		assertFalse(GenomicTools.isValid("AT"));
+		assertFalse(GenomicTools.isValid(""));
+	}
+
+	public void testClassify() {
+		assertEquals(AlleleClassification.MATCH, classify("A", "C", 'A', 'C'));
+		assertEquals(AlleleClassification.COMPLICATED_GENOTYPES, classify("A", "T", 'T', 'A'));
+		assertEquals(AlleleClassification.COMPLICATED_GENOTYPES, classify("G", "C", 'C', 'G'));
+		assertEquals(AlleleClassification.ALLELE_SWITCH, classify("A", "C", 'C', 'A'));
+		assertEquals(AlleleClassification.STRAND_FLIP, classify("A", "C", 'T', 'G'));
+		assertEquals(AlleleClassification.STRAND_FLIP_AND_ALLELE_SWITCH, classify("A", "C", 'G', 'T'));
+		assertEquals(AlleleClassification.ALLELE_MISMATCH, classify("A", "C", 'A', 'G'));
+		assertEquals(AlleleClassification.ALLELE_MISMATCH, classify("A", "T", 'C', 'G'));
+		// lower case alleles are compared as they are
+		assertEquals(AlleleClassification.MATCH, classify("a", "c", 'a', 'c'));
+		assertEquals(AlleleClassification.ALLELE_MISMATCH, classify("a", "c", 't', 'g'));
+	}
+
+	public void testClassifyMatchesSingleChecks() {
+		char[] alleles = { 'A', 'C', 'G', 'T', 'a', 'N' };
+		for (char a : alleles) {
+			for (char b : alleles) {
+				for (char c : alleles) {
+					for (char d : alleles) {
+						MinimalVariantContext snp = snp(a + "", b + "");
+						LegendEntry entry = entry(c, d);
+						AlleleClassification expected = AlleleClassification.ALLELE_MISMATCH;
+						if (GenomicTools.match(snp, entry)) {
+							expected = AlleleClassification.MATCH;
+						} else if (GenomicTools.complicatedGenotypes(snp, entry)) {
+							expected = AlleleClassification.COMPLICATED_GENOTYPES;
+						} else if (GenomicTools.alleleSwitch(snp, entry)) {
+							expected = AlleleClassification.ALLELE_SWITCH;
+						} else if (GenomicTools.strandFlip(snp, entry)) {
+							expected = AlleleClassification.STRAND_FLIP;
+						} else if (GenomicTools.strandFlipAndAlleleSwitch(snp, entry)) {
+							expected = AlleleClassification.STRAND_FLIP_AND_ALLELE_SWITCH;
+						}
+						assertEquals(expected, GenomicTools.classify(snp, entry));
+					}
+				}
+			}
+		}
+	}
+
+	private AlleleClassification classify(String ref, String alt, char legendRef, char legendAlt) {
+		return GenomicTools.classify(snp(ref, alt), entry(legendRef, legendAlt));
+	}
+
+	private MinimalVariantContext snp(String ref, String alt) {
+		MinimalVariantContext snp = new MinimalVariantContext(1);
+		snp.setReferenceAllele(ref);
+		snp.setAlternateAllele(alt);
+		return snp;
+	}
+
+	private LegendEntry entry(char ref, char alt) {
+		LegendEntry entry = new LegendEntry();
+		entry.setAlleleA(ref);
+		entry.setAlleleB(alt);
+		return entry;
+	}
+
+}